@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap taken per task by a list of {@link Task}s and by a {@link CompactTaskList}
+ * holding the same tasks, then by a {@link CompactTaskList} of tasks sharing their description.
+ * Only logs the measures, as the heap used after a collection isn't exact enough to assert on.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CompactTaskListBenchmark {
+
+    private static final String TAG = "CompactTaskListBenchmark";
+
+    private static final int TASK_COUNT = 100000;
+
+    @Test
+    public void measureBytesPerTask() {
+        long bytesBefore = usedBytes();
+        List<Task> tasks = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks.add(newTask(i));
+        }
+        long listBytesPerTask = (usedBytes() - bytesBefore) / TASK_COUNT;
+        // Keeps the list reachable until it is measured.
+        tasks.clear();
+
+        bytesBefore = usedBytes();
+        CompactTaskList compactTasks = new CompactTaskList();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            compactTasks.add(newTask(i));
+        }
+        long compactBytesPerTask = (usedBytes() - bytesBefore) / TASK_COUNT;
+        compactTasks.clear();
+
+        bytesBefore = usedBytes();
+        compactTasks = new CompactTaskList();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            compactTasks.add(new Task("Task " + i, "To be done soon"));
+        }
+        long sharedBytesPerTask = (usedBytes() - bytesBefore) / TASK_COUNT;
+        compactTasks.clear();
+
+        Log.i(TAG, "Bytes per task: " + listBytesPerTask + " in a list of tasks, "
+                + compactBytesPerTask + " in a compact list, " + sharedBytesPerTask
+                + " in a compact list sharing descriptions");
+    }
+
+    private static Task newTask(int i) {
+        return new Task("Task " + i, "Description of task " + i + ", to be done soon");
+    }
+
+    private static long usedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.functions.Action0;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long a sync of many tasks takes to be committed by the
+ * {@link TasksLocalDataSource}, saved one task per transaction and with a single bulk write, and
+ * how long reads take while it is being written. The timings are logged, not asserted, as they
+ * depend on the device. Reads are only checked to complete while the bulk write's transaction is
+ * still open.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TasksLocalDataSourceBenchmark {
+
+    private static final String TAG = "TasksLocalDataSourceBenchmark";
+
+    private static final int TASK_COUNT = 10000;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final long WAIT_SECONDS = 30;
+
+    private TasksLocalDataSource mLocalDataSource;
+
+    @Before
+    public void setup() {
+        mLocalDataSource = TasksLocalDataSource.getInstance(
+                InstrumentationRegistry.getTargetContext());
+        mLocalDataSource.deleteAllTasks();
+        waitForWrites();
+    }
+
+    @After
+    public void cleanUp() {
+        mLocalDataSource.deleteAllTasks();
+    }
+
+    @Test
+    public void bulkWriteAndOneTransactionPerTask() {
+        List<Task> tasks = newTasks("single");
+        long startNanos = System.nanoTime();
+        for (Task task : tasks) {
+            // Waiting for each write keeps the writer from batching them in a single transaction.
+            mLocalDataSource.saveTask(task);
+            waitForWrites();
+        }
+        long singleMillis = (System.nanoTime() - startNanos) / 1000000;
+        mLocalDataSource.deleteAllTasks();
+        waitForWrites();
+
+        tasks = newTasks("bulk");
+        startNanos = System.nanoTime();
+        mLocalDataSource.saveTasks(tasks);
+        waitForWrites();
+        long bulkMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        assertThat(mLocalDataSource.getTasks().toBlocking().first().size(), is(TASK_COUNT));
+        Log.i(TAG, "Writing " + TASK_COUNT + " tasks: " + singleMillis
+                + "ms one transaction per task, " + bulkMillis + "ms in bulk");
+    }
+
+    @Test
+    public void readsDuringBulkWrite_dontWaitForIt() throws InterruptedException {
+        mLocalDataSource.saveTasks(newTasks("before"));
+        waitForWrites();
+
+        // Holds the writer, so the next writes are queued together in a single transaction.
+        final CountDownLatch writerHeld = new CountDownLatch(1);
+        final CountDownLatch releaseWriter = new CountDownLatch(1);
+        mLocalDataSource.enqueueWrite(awaiting(writerHeld, releaseWriter));
+        assertTrue(writerHeld.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // Holds that transaction open once the bulk write is done, until a read has completed.
+        final CountDownLatch bulkWritten = new CountDownLatch(1);
+        final CountDownLatch releaseTransaction = new CountDownLatch(1);
+        mLocalDataSource.saveTasks(newTasks("during"));
+        mLocalDataSource.enqueueWrite(awaiting(bulkWritten, releaseTransaction));
+        releaseWriter.countDown();
+        assertTrue(bulkWritten.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        List<Task> page = mLocalDataSource.getTasksPage(null, PAGE_SIZE)
+                .timeout(WAIT_SECONDS, TimeUnit.SECONDS)
+                .toBlocking().first();
+        releaseTransaction.countDown();
+        assertThat(page.size(), is(PAGE_SIZE));
+        waitForWrites();
+
+        mLocalDataSource.deleteAllTasks();
+        mLocalDataSource.saveTasks(newTasks("before"));
+        waitForWrites();
+
+        final AtomicBoolean written = new AtomicBoolean();
+        long startNanos = System.nanoTime();
+        mLocalDataSource.saveTasks(newTasks("during"));
+        mLocalDataSource.whenWritten()
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        written.set(true);
+                    }
+                })
+                .subscribe();
+        List<Long> readNanos = new ArrayList<>();
+        do {
+            long readStartNanos = System.nanoTime();
+            mLocalDataSource.getTasksPage(null, PAGE_SIZE).toBlocking().first();
+            readNanos.add(System.nanoTime() - readStartNanos);
+        } while (!written.get());
+        long writeNanos = System.nanoTime() - startNanos;
+
+        Collections.sort(readNanos);
+        Log.i(TAG, "Reading a page while writing " + TASK_COUNT + " tasks for "
+                + writeNanos / 1000000 + "ms: " + readNanos.size() + " reads, median "
+                + readNanos.get(readNanos.size() / 2) / 1000 + "µs, max "
+                + readNanos.get(readNanos.size() - 1) / 1000 + "µs");
+    }
+
+    private void waitForWrites() {
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+    }
+
+    /**
+     * Returns a write counting down {@code started}, then waiting for {@code release}.
+     */
+    private static Action0 awaiting(final CountDownLatch started, final CountDownLatch release) {
+        return new Action0() {
+            @Override
+            public void call() {
+                started.countDown();
+                try {
+                    release.await(WAIT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static List<Task> newTasks(String prefix) {
+        List<Task> tasks = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks.add(new Task(prefix + " task " + i, "Description of task " + i,
+                    prefix + "-" + i, i % 3 == 0));
+        }
+        return tasks;
+    }
+}
@@ -20,16 +20,28 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.LargeTest;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.InMemoryTasksMetricsSink;
+import com.example.android.architecture.blueprints.todoapp.data.source.PendingWrite;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDelta;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDbHelper;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
 
+import com.google.common.collect.Lists;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
+import java.util.List;
+
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -62,6 +74,7 @@ public class TasksLocalDataSourceTest {
 
     @After
     public void cleanUp() {
+        mLocalDataSource.setMetricsSink(TasksMetricsSink.NONE);
         mLocalDataSource.deleteAllTasks();
     }
 
@@ -184,4 +197,209 @@ public class TasksLocalDataSourceTest {
         // Then the tasks can be retrieved from the persistent repository
         mLocalDataSource.getTasks();
     }
+
+    @Test
+    public void saveTaskTwice_replacesTheTaskAndWhatItIsFoundBy() {
+        // Given a task saved in the persistent repository
+        final Task task = new Task("Buy milk", "");
+        mLocalDataSource.saveTask(task);
+
+        // When it is saved again with another title
+        mLocalDataSource.saveTask(new Task("Buy bread", "", task.getId()));
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then a single version of it is stored, only found by its new title
+        List<Task> tasks = mLocalDataSource.getTasks().toBlocking().first();
+        assertThat(tasks.size(), is(1));
+        assertThat(tasks.get(0).getTitle(), is("Buy bread"));
+        assertThat(mLocalDataSource.searchTasks("bread").toBlocking().first().size(), is(1));
+        assertThat(mLocalDataSource.searchTasks("milk").toBlocking().first().isEmpty(), is(true));
+    }
+
+    @Test
+    public void queuedWrites_areSeenOnceWritten() {
+        // Given a task saved then completed, without waiting for either write
+        final Task task = new Task(TITLE, "");
+        mLocalDataSource.saveTask(task);
+        mLocalDataSource.completeTask(task);
+
+        // When the queued writes have been written
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then the task is read back with both writes
+        Task retrievedTask = mLocalDataSource.getTask(task.getId()).toBlocking().first();
+        assertThat(retrievedTask.isCompleted(), is(true));
+    }
+
+    @Test
+    public void getTasksPage_pagesInTheOrderTheTasksWereFirstSaved() {
+        // Given 3 tasks saved one after the other, the first of them saved again afterwards
+        final Task newTask1 = new Task(TITLE, "");
+        final Task newTask2 = new Task(TITLE2, "");
+        final Task newTask3 = new Task(TITLE3, "");
+        mLocalDataSource.saveTask(newTask1);
+        mLocalDataSource.saveTasks(Lists.newArrayList(newTask2, newTask3));
+        mLocalDataSource.saveTask(new Task("Buy bread", "", newTask1.getId()));
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // When the tasks are read 2 at a time
+        List<Task> firstPage = mLocalDataSource.getTasksPage(null, 2).toBlocking().first();
+        List<Task> secondPage = mLocalDataSource
+                .getTasksPage(firstPage.get(1).getId(), 2).toBlocking().first();
+
+        // Then they come in the order they were first saved in
+        assertThat(firstPage.get(0).getId(), is(newTask1.getId()));
+        assertThat(firstPage.get(0).getTitle(), is("Buy bread"));
+        assertThat(firstPage.get(1).getId(), is(newTask2.getId()));
+        assertThat(secondPage.size(), is(1));
+        assertThat(secondPage.get(0).getId(), is(newTask3.getId()));
+    }
+
+    @Test
+    public void writes_recordTheirLatencyOnceCommitted() {
+        // Given a metrics sink set on the persistent repository
+        InMemoryTasksMetricsSink metricsSink = new InMemoryTasksMetricsSink();
+        mLocalDataSource.setMetricsSink(metricsSink);
+
+        // When a task is saved then completed, and the writes are committed
+        final Task task = new Task(TITLE, "");
+        mLocalDataSource.saveTask(task);
+        mLocalDataSource.completeTask(task);
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then the latency of each write is recorded
+        assertThat(metricsSink.getLatencyCount(Operation.SAVE_TASK, Source.LOCAL), is(1L));
+        assertThat(metricsSink.getLatencyCount(Operation.COMPLETE_TASK, Source.LOCAL), is(1L));
+    }
+
+    @Test
+    public void applyRemoteChanges_storesNewerTasksWithTheDeltaVersion() {
+        // Given two stored tasks
+        final Task storedTask = new Task("Stored title", "", "1", false, 30);
+        final Task deletedTask = new Task(TITLE2, "", "2", false, 10);
+        mLocalDataSource.saveTasks(Lists.newArrayList(storedTask, deletedTask));
+
+        // When a delta with an older copy of the first, a new task and the deletion of the second
+        // is applied
+        final Task newTask = new Task(TITLE3, "", "3", false, 10);
+        mLocalDataSource.applyRemoteChanges(new TasksDelta(
+                Lists.newArrayList(new Task("Remote title", "", "1", false, 20), newTask),
+                Lists.newArrayList(deletedTask.getId()), 7), null);
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then only the new task is written, the deleted one is gone and the version is stored
+        List<Task> tasks = mLocalDataSource.getTasks().toBlocking().first();
+        assertThat(tasks.size(), is(2));
+        assertThat(tasks.get(0).getTitle(), is("Stored title"));
+        assertThat(tasks.get(1).getId(), is(newTask.getId()));
+        assertThat(mLocalDataSource.getSyncVersion().toBlocking().first(), is(7L));
+    }
+
+    @Test
+    public void applyRemoteChangesOfFullSync_deletesStoredTasksMissingFromIt() {
+        // Given three stored tasks
+        final Task remoteTask = new Task(TITLE, "");
+        final Task missingTask = new Task(TITLE2, "");
+        final Task keptTask = new Task(TITLE3, "");
+        mLocalDataSource.saveTasks(Lists.newArrayList(remoteTask, missingTask, keptTask));
+
+        // When every remote task is applied, which only has the first one, keeping the third
+        mLocalDataSource.applyRemoteChanges(new TasksDelta(Lists.newArrayList(remoteTask),
+                Collections.<String>emptyList(), 8), Lists.newArrayList(keptTask.getId()));
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then the second one is deleted
+        List<Task> tasks = mLocalDataSource.getTasks().toBlocking().first();
+        assertThat(tasks.size(), is(2));
+        assertThat(tasks.get(0).getId(), is(remoteTask.getId()));
+        assertThat(tasks.get(1).getId(), is(keptTask.getId()));
+    }
+
+    @Test
+    public void getStoredTasks_readsTheTasksWithTheGivenIdsThatAreStored() {
+        // Given two stored tasks
+        final Task newTask1 = new Task(TITLE, "");
+        final Task newTask2 = new Task(TITLE2, "");
+        mLocalDataSource.saveTasks(Lists.newArrayList(newTask1, newTask2));
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // When the first one and a task that isn't stored are read
+        List<Task> tasks = mLocalDataSource.getStoredTasks(
+                Lists.newArrayList(newTask1.getId(), "missing")).toBlocking().single();
+
+        // Then only the first one is read
+        assertThat(tasks.size(), is(1));
+        assertThat(tasks.get(0).getId(), is(newTask1.getId()));
+    }
+
+    @Test
+    public void writes_areRecordedAsPendingByTask() {
+        // Given all the tasks deleted
+        mLocalDataSource.deleteAllTasks();
+
+        // When two tasks are saved, the first completed, the second deleted and the completed
+        // tasks cleared
+        final Task newTask1 = new Task(TITLE, "");
+        final Task newTask2 = new Task(TITLE2, "");
+        mLocalDataSource.saveTasks(Lists.newArrayList(newTask1, newTask2));
+        mLocalDataSource.completeTask(newTask1);
+        mLocalDataSource.deleteTask(newTask2.getId());
+        mLocalDataSource.clearCompletedTasks();
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then the writes to each task are pending as one, in the order of the last of them
+        List<PendingWrite> writes = mLocalDataSource.getPendingWrites().toBlocking().single();
+        assertThat(writes.size(), is(4));
+        assertThat(writes.get(0).getType(), is(PendingWrite.Type.DELETE_ALL));
+        assertThat(writes.get(0).getTaskId(), is(nullValue()));
+        assertThat(writes.get(1).getType(), is(PendingWrite.Type.SAVE));
+        assertThat(writes.get(1).getTaskId(), is(newTask1.getId()));
+        assertThat(writes.get(1).getWriteCount(), is(2));
+        assertThat(writes.get(2).getType(), is(PendingWrite.Type.DELETE));
+        assertThat(writes.get(2).getTaskId(), is(newTask2.getId()));
+        assertThat(writes.get(2).getWriteCount(), is(2));
+        assertThat(writes.get(3).getType(), is(PendingWrite.Type.CLEAR_COMPLETED));
+    }
+
+    @Test
+    public void forgottenWrites_areNoLongerPending() {
+        // Given a task saved and completed after all the tasks were deleted
+        mLocalDataSource.deleteAllTasks();
+        final Task newTask = new Task(TITLE, "");
+        mLocalDataSource.saveTask(newTask);
+        mLocalDataSource.completeTask(newTask);
+
+        // When the deletion and one of the writes to the task are forgotten
+        mLocalDataSource.forgetGlobalWrite(PendingWrite.Type.DELETE_ALL);
+        mLocalDataSource.forgetTaskWrites(newTask.getId(), 1);
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then only the other write to the task is pending
+        List<PendingWrite> writes = mLocalDataSource.getPendingWrites().toBlocking().single();
+        assertThat(writes.size(), is(1));
+        assertThat(writes.get(0).getTaskId(), is(newTask.getId()));
+        assertThat(writes.get(0).getWriteCount(), is(1));
+
+        // When it is forgotten too
+        mLocalDataSource.forgetTaskWrites(newTask.getId(), 1);
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then no write is pending
+        assertTrue(mLocalDataSource.getPendingWrites().toBlocking().single().isEmpty());
+    }
+
+    @Test
+    public void applyRemoteChanges_isNotRecordedAsPending() {
+        // Given no pending write
+        mLocalDataSource.deleteAllTasks();
+        mLocalDataSource.forgetGlobalWrite(PendingWrite.Type.DELETE_ALL);
+
+        // When a remote task is applied
+        mLocalDataSource.applyRemoteChanges(new TasksDelta(Lists.newArrayList(new Task(TITLE, "")),
+                Collections.<String>emptyList(), 3), null);
+        mLocalDataSource.whenWritten().toBlocking().lastOrDefault(null);
+
+        // Then there is still nothing to send
+        assertTrue(mLocalDataSource.getPendingWrites().toBlocking().single().isEmpty());
+    }
 }
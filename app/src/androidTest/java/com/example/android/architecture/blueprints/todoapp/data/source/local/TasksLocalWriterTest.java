@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.TaskEntry;
+import com.squareup.sqlbrite.BriteDatabase;
+import com.squareup.sqlbrite.SqlBrite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.functions.Action0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Integration test for the {@link TasksLocalWriter}, which writes through the
+ * {@link TasksDbHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TasksLocalWriterTest {
+
+    private final static String TASK_ID = "1";
+
+    private final static String TASK_ID2 = "2";
+
+    private final static String TASK_ID3 = "3";
+
+    private BriteDatabase mDatabase;
+
+    private TestScheduler mScheduler;
+
+    private TasksLocalWriter mWriter;
+
+    @Before
+    public void setup() {
+        TasksDbHelper dbHelper = new TasksDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = SqlBrite.create().wrapDatabaseHelper(dbHelper, Schedulers.immediate());
+        mDatabase.delete(TaskEntry.TABLE_NAME, null);
+
+        // Flushes only when the test triggers it, so everything queued before goes in one batch
+        mScheduler = new TestScheduler();
+        mWriter = new TasksLocalWriter(mDatabase, mScheduler);
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.delete(TaskEntry.TABLE_NAME, null);
+        mDatabase.close();
+    }
+
+    @Test
+    public void failingWrite_isTheOnlyWriteOfItsBatchLost() {
+        // Given a multi-task write that fails queued in the same batch as writes that don't
+        TestSubscriber<Void> firstWrite = new TestSubscriber<>();
+        TestSubscriber<Void> failingWrite = new TestSubscriber<>();
+        TestSubscriber<Void> lastWrite = new TestSubscriber<>();
+        TestSubscriber<Void> batch = new TestSubscriber<>();
+        mWriter.enqueue(insertTask(TASK_ID, 1)).subscribe(firstWrite);
+        mWriter.enqueue(new Action0() {
+            @Override
+            public void call() {
+                // Like TasksLocalDataSource#saveTasks, in a transaction of its own
+                BriteDatabase.Transaction transaction = mDatabase.newTransaction();
+                try {
+                    insertTask(TASK_ID2, 2).call();
+                    ContentValues taskWithoutId = new ContentValues();
+                    taskWithoutId.put(TaskEntry.COLUMN_NAME_TITLE, "title");
+                    mDatabase.insert(TaskEntry.TABLE_NAME, taskWithoutId);
+                    transaction.markSuccessful();
+                } finally {
+                    transaction.end();
+                }
+            }
+        }).subscribe(failingWrite);
+        mWriter.enqueue(insertTask(TASK_ID3, 3)).subscribe(lastWrite);
+        mWriter.whenWritten().subscribe(batch);
+
+        // When the batch is written
+        mScheduler.triggerActions();
+
+        // Then only the failing write is lost, and only its caller is told
+        failingWrite.assertError(SQLiteConstraintException.class);
+        firstWrite.assertCompleted();
+        lastWrite.assertCompleted();
+        batch.assertCompleted();
+        assertThat(storedTaskIds(), is(Arrays.asList(TASK_ID, TASK_ID3)));
+    }
+
+    private Action0 insertTask(final String taskId, final int createdSeq) {
+        return new Action0() {
+            @Override
+            public void call() {
+                ContentValues values = new ContentValues();
+                values.put(TaskEntry.COLUMN_NAME_ENTRY_ID, taskId);
+                values.put(TaskEntry.COLUMN_NAME_CREATED_SEQ, createdSeq);
+                mDatabase.insert(TaskEntry.TABLE_NAME, values);
+            }
+        };
+    }
+
+    private List<String> storedTaskIds() {
+        Cursor cursor = mDatabase.query("SELECT " + TaskEntry.COLUMN_NAME_ENTRY_ID + " FROM "
+                + TaskEntry.TABLE_NAME + " ORDER BY " + TaskEntry.COLUMN_NAME_CREATED_SEQ);
+        try {
+            List<String> taskIds = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                taskIds.add(cursor.getString(0));
+            }
+            return taskIds;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * List of {@link Task}s that stores their fields in a few flat arrays instead of one object per
+ * task and per string, for the long lists of tasks kept in memory.
+ * <p/>
+ * Ids in the canonical form produced by {@link UUID#toString()}, which is how tasks are created,
+ * are stored as two {@code long}s. Titles and descriptions share one char buffer, found through
+ * an offset and a length per string, and equal strings are only stored once in it, found through
+ * a hash table of the strings in the buffer. A {@link Task} is only created when it is read, so
+ * showing a list only materialises the tasks on screen; callers should not hold on to them.
+ * <p/>
+ * Replacing or removing tasks leaves their chars in the buffer until they make up half of it, at
+ * which point the buffer is compacted. Chars shared by several tasks are counted once per task
+ * when they are left, so they may get the buffer compacted early, but never lost. Not
+ * thread-safe.
+ */
+public final class CompactTaskList extends AbstractList<Task> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final int INITIAL_CHAR_CAPACITY = 256;
+
+    /**
+     * Initial capacity of {@link #mPool}, a power of two.
+     */
+    private static final int INITIAL_POOL_CAPACITY = 64;
+
+    /**
+     * Length stored for a null string.
+     */
+    private static final int NULL_LENGTH = -1;
+
+    /**
+     * Ints stored per task in {@link #mStrings}: title offset and length, then description offset
+     * and length.
+     */
+    private static final int STRING_INTS = 4;
+
+    private int mSize;
+
+    private long[] mIdHighBits;
+
+    private long[] mIdLowBits;
+
+    /**
+     * Ids that aren't canonical UUIDs, at the index of their task, or null if there are none yet.
+     */
+    @Nullable
+    private String[] mOtherIds;
+
+    private int[] mStrings;
+
+    private boolean[] mCompleted;
+
+    private long[] mUpdatedAt;
+
+    private char[] mChars;
+
+    private int mCharCount;
+
+    /**
+     * Chars in {@link #mChars} that no task refers to anymore.
+     */
+    private int mGarbageCharCount;
+
+    /**
+     * Hash table of the non-empty strings in {@link #mChars}, each entry holding the offset of a
+     * string in its high bits and its length in its low bits, or 0 if it is empty. Its size is a
+     * power of two, and it is kept at most half full.
+     */
+    private long[] mPool;
+
+    private int mPoolCount;
+
+    public CompactTaskList() {
+        allocate(INITIAL_CAPACITY, INITIAL_CHAR_CAPACITY);
+    }
+
+    public CompactTaskList(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        if (tasks instanceof CompactTaskList) {
+            CompactTaskList source = (CompactTaskList) tasks;
+            allocate(Math.max(INITIAL_CAPACITY, source.mSize),
+                    Math.max(INITIAL_CHAR_CAPACITY, source.mCharCount - source.mGarbageCharCount));
+            for (int i = 0; i < source.mSize; i++) {
+                copyFrom(source, i);
+            }
+        } else {
+            allocate(Math.max(INITIAL_CAPACITY, tasks.size()), INITIAL_CHAR_CAPACITY);
+            addAll(tasks);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Task get(int index) {
+        checkIndex(index, mSize);
+        int strings = index * STRING_INTS;
+        return new Task(readString(mStrings[strings], mStrings[strings + 1]),
+                readString(mStrings[strings + 2], mStrings[strings + 3]), readId(index),
+                mCompleted[index], mUpdatedAt[index]);
+    }
+
+    /**
+     * Returns whether the task at {@code index} is completed, without materialising it.
+     */
+    public boolean isCompleted(int index) {
+        checkIndex(index, mSize);
+        return mCompleted[index];
+    }
+
+    /**
+     * Returns the index of the first task with the given id, or -1 if there is none, without
+     * materialising the tasks.
+     */
+    public int indexOfId(@NonNull String taskId) {
+        checkNotNull(taskId);
+        boolean uuid = isCanonicalUuid(taskId);
+        long highBits = uuid ? parseHex(taskId, 0, 18) : 0;
+        long lowBits = uuid ? parseHex(taskId, 19, 36) : 0;
+        for (int i = 0; i < mSize; i++) {
+            String otherId = mOtherIds == null ? null : mOtherIds[i];
+            if (uuid ? otherId == null && mIdHighBits[i] == highBits && mIdLowBits[i] == lowBits
+                    : taskId.equals(otherId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a new list of the tasks that are completed, or active, without materialising them.
+     */
+    @NonNull
+    public CompactTaskList filterByCompleted(boolean completed) {
+        CompactTaskList filtered = new CompactTaskList();
+        for (int i = 0; i < mSize; i++) {
+            if (mCompleted[i] == completed) {
+                filtered.copyFrom(this, i);
+            }
+        }
+        return filtered;
+    }
+
+    @Override
+    public void add(int index, Task task) {
+        checkIndex(index, mSize + 1);
+        checkNotNull(task);
+        ensureCapacity(mSize + 1);
+        shift(index, index + 1, mSize - index);
+        mSize++;
+        modCount++;
+        write(index, task);
+    }
+
+    @Override
+    public Task set(int index, Task task) {
+        checkNotNull(task);
+        Task previous = get(index);
+        discardStrings(index);
+        write(index, task);
+        compactIfNeeded();
+        return previous;
+    }
+
+    @Override
+    public Task remove(int index) {
+        Task removed = get(index);
+        removeRange(index, index + 1);
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        removeRange(0, mSize);
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            discardStrings(i);
+        }
+        shift(toIndex, fromIndex, mSize - toIndex);
+        int removed = toIndex - fromIndex;
+        mSize -= removed;
+        if (mOtherIds != null) {
+            Arrays.fill(mOtherIds, mSize, mSize + removed, null);
+        }
+        modCount++;
+        if (mSize == 0) {
+            mCharCount = 0;
+            mGarbageCharCount = 0;
+            clearPool();
+        } else {
+            compactIfNeeded();
+        }
+    }
+
+    private void allocate(int capacity, int charCapacity) {
+        mIdHighBits = new long[capacity];
+        mIdLowBits = new long[capacity];
+        mStrings = new int[capacity * STRING_INTS];
+        mCompleted = new boolean[capacity];
+        mUpdatedAt = new long[capacity];
+        mChars = new char[charCapacity];
+        clearPool();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mCompleted.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mCompleted.length + (mCompleted.length >> 1));
+        mIdHighBits = Arrays.copyOf(mIdHighBits, newCapacity);
+        mIdLowBits = Arrays.copyOf(mIdLowBits, newCapacity);
+        mStrings = Arrays.copyOf(mStrings, newCapacity * STRING_INTS);
+        mCompleted = Arrays.copyOf(mCompleted, newCapacity);
+        mUpdatedAt = Arrays.copyOf(mUpdatedAt, newCapacity);
+        if (mOtherIds != null) {
+            mOtherIds = Arrays.copyOf(mOtherIds, newCapacity);
+        }
+    }
+
+    /**
+     * Moves {@code count} tasks from {@code from} to {@code to}.
+     */
+    private void shift(int from, int to, int count) {
+        System.arraycopy(mIdHighBits, from, mIdHighBits, to, count);
+        System.arraycopy(mIdLowBits, from, mIdLowBits, to, count);
+        System.arraycopy(mStrings, from * STRING_INTS, mStrings, to * STRING_INTS,
+                count * STRING_INTS);
+        System.arraycopy(mCompleted, from, mCompleted, to, count);
+        System.arraycopy(mUpdatedAt, from, mUpdatedAt, to, count);
+        if (mOtherIds != null) {
+            System.arraycopy(mOtherIds, from, mOtherIds, to, count);
+        }
+    }
+
+    private void write(int index, Task task) {
+        String id = task.getId();
+        if (isCanonicalUuid(id)) {
+            mIdHighBits[index] = parseHex(id, 0, 18);
+            mIdLowBits[index] = parseHex(id, 19, 36);
+            if (mOtherIds != null) {
+                mOtherIds[index] = null;
+            }
+        } else {
+            if (mOtherIds == null) {
+                mOtherIds = new String[mCompleted.length];
+            }
+            mOtherIds[index] = id;
+        }
+        int strings = index * STRING_INTS;
+        appendString(strings, task.getTitle());
+        appendString(strings + 2, task.getDescription());
+        mCompleted[index] = task.isCompleted();
+        mUpdatedAt[index] = task.getUpdatedAt();
+    }
+
+    private void copyFrom(CompactTaskList source, int sourceIndex) {
+        ensureCapacity(mSize + 1);
+        int index = mSize++;
+        modCount++;
+        mIdHighBits[index] = source.mIdHighBits[sourceIndex];
+        mIdLowBits[index] = source.mIdLowBits[sourceIndex];
+        String otherId = source.mOtherIds == null ? null : source.mOtherIds[sourceIndex];
+        if (otherId != null) {
+            if (mOtherIds == null) {
+                mOtherIds = new String[mCompleted.length];
+            }
+            mOtherIds[index] = otherId;
+        }
+        for (int i = 0; i < STRING_INTS; i += 2) {
+            int sourceStrings = sourceIndex * STRING_INTS + i;
+            appendChars(index * STRING_INTS + i, source.mChars, source.mStrings[sourceStrings],
+                    source.mStrings[sourceStrings + 1]);
+        }
+        mCompleted[index] = source.mCompleted[sourceIndex];
+        mUpdatedAt[index] = source.mUpdatedAt[sourceIndex];
+    }
+
+    private String readId(int index) {
+        String otherId = mOtherIds == null ? null : mOtherIds[index];
+        if (otherId != null) {
+            return otherId;
+        }
+        return new UUID(mIdHighBits[index], mIdLowBits[index]).toString();
+    }
+
+    @Nullable
+    private String readString(int offset, int length) {
+        return length == NULL_LENGTH ? null : new String(mChars, offset, length);
+    }
+
+    private void appendString(int slot, @Nullable String string) {
+        if (string == null) {
+            mStrings[slot] = 0;
+            mStrings[slot + 1] = NULL_LENGTH;
+            return;
+        }
+        int length = string.length();
+        ensureCharCapacity(mCharCount + length);
+        string.getChars(0, length, mChars, mCharCount);
+        internAppendedChars(slot, length);
+    }
+
+    private void appendChars(int slot, char[] chars, int offset, int length) {
+        if (length == NULL_LENGTH) {
+            mStrings[slot] = 0;
+            mStrings[slot + 1] = NULL_LENGTH;
+            return;
+        }
+        ensureCharCapacity(mCharCount + length);
+        System.arraycopy(chars, offset, mChars, mCharCount, length);
+        internAppendedChars(slot, length);
+    }
+
+    /**
+     * Points {@code slot} to the {@code length} chars just copied after the used part of the
+     * buffer. If the same chars are already in the buffer, they are pointed to instead, and the
+     * copy is left to be overwritten.
+     */
+    private void internAppendedChars(int slot, int length) {
+        int offset = mCharCount;
+        if (length > 0) {
+            int mask = mPool.length - 1;
+            int i = hash(mChars, offset, length) & mask;
+            for (long entry = mPool[i]; entry != 0; i = (i + 1) & mask, entry = mPool[i]) {
+                int pooledOffset = (int) (entry >>> 32);
+                if ((int) entry == length && charsEqual(pooledOffset, offset, length)) {
+                    mStrings[slot] = pooledOffset;
+                    mStrings[slot + 1] = length;
+                    return;
+                }
+            }
+            mPool[i] = ((long) offset << 32) | length;
+            if (++mPoolCount * 2 > mPool.length) {
+                resizePool(mPool.length * 2);
+            }
+        }
+        mStrings[slot] = offset;
+        mStrings[slot + 1] = length;
+        mCharCount += length;
+    }
+
+    private boolean charsEqual(int offset, int otherOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (mChars[offset + i] != mChars[otherOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resizePool(int capacity) {
+        long[] pool = mPool;
+        mPool = new long[capacity];
+        int mask = capacity - 1;
+        for (long entry : pool) {
+            if (entry != 0) {
+                int i = hash(mChars, (int) (entry >>> 32), (int) entry) & mask;
+                while (mPool[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                mPool[i] = entry;
+            }
+        }
+    }
+
+    private void clearPool() {
+        mPool = new long[INITIAL_POOL_CAPACITY];
+        mPoolCount = 0;
+    }
+
+    private void ensureCharCapacity(int charCapacity) {
+        if (charCapacity > mChars.length) {
+            mChars = Arrays.copyOf(mChars,
+                    Math.max(charCapacity, mChars.length + (mChars.length >> 1)));
+        }
+    }
+
+    private void discardStrings(int index) {
+        int strings = index * STRING_INTS;
+        mGarbageCharCount += Math.max(0, mStrings[strings + 1])
+                + Math.max(0, mStrings[strings + 3]);
+    }
+
+    /**
+     * Rewrites the char buffer without the chars no task refers to, once they make up half of it.
+     */
+    private void compactIfNeeded() {
+        if (mGarbageCharCount < INITIAL_CHAR_CAPACITY || mGarbageCharCount * 2 < mCharCount) {
+            return;
+        }
+        char[] chars = mChars;
+        mChars = new char[Math.max(INITIAL_CHAR_CAPACITY, mCharCount - mGarbageCharCount)];
+        mCharCount = 0;
+        mGarbageCharCount = 0;
+        clearPool();
+        for (int slot = 0; slot < mSize * STRING_INTS; slot += 2) {
+            appendChars(slot, chars, mStrings[slot], mStrings[slot + 1]);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Returns whether {@code id} reads exactly as the {@link UUID#toString()} of a UUID: lower
+     * case hexadecimal digits in groups of 8, 4, 4, 4 and 12.
+     */
+    private static boolean isCanonicalUuid(String id) {
+        if (id.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the same hash as {@link String#hashCode()} of the given chars, with its high bits
+     * spread to the low ones used to index the pool.
+     */
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Parses the hexadecimal digits of {@code id} between {@code start} and {@code end}, skipping
+     * dashes.
+     */
+    private static long parseHex(String id, int start, int end) {
+        long bits = 0;
+        for (int i = start; i < end; i++) {
+            char c = id.charAt(i);
+            if (c != '-') {
+                bits = (bits << 4) | Character.digit(c, 16);
+            }
+        }
+        return bits;
+    }
+}
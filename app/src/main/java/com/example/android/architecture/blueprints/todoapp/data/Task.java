@@ -36,6 +36,13 @@ public final class Task {
     private final String mDescription;
 
     private final boolean mCompleted;
+
+    /**
+     * Time of the last change to the Task, in milliseconds since the epoch, used as its version
+     * when merging copies of it that were changed in different places.
+     */
+    private final long mUpdatedAt;
+
     /**
      * Use this constructor to create a new active Task.
      *
@@ -47,6 +54,7 @@ public final class Task {
         mTitle = title;
         mDescription = description;
         mCompleted = false;
+        mUpdatedAt = System.currentTimeMillis();
     }
 
     /**
@@ -62,6 +70,7 @@ public final class Task {
         mTitle = title;
         mDescription = description;
         mCompleted = false;
+        mUpdatedAt = System.currentTimeMillis();
     }
 
     /**
@@ -76,6 +85,7 @@ public final class Task {
         mTitle = title;
         mDescription = description;
         mCompleted = completed;
+        mUpdatedAt = System.currentTimeMillis();
     }
 
     /**
@@ -92,6 +102,26 @@ public final class Task {
         mTitle = title;
         mDescription = description;
         mCompleted = completed;
+        mUpdatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Use this constructor to copy a Task without changing its version, such as when reading it
+     * back from storage.
+     *
+     * @param title
+     * @param description
+     * @param id
+     * @param completed
+     * @param updatedAt version of the Task, see {@link #getUpdatedAt()}
+     */
+    public Task(@Nullable String title, @Nullable String description, String id, boolean completed,
+                long updatedAt) {
+        mId = id;
+        mTitle = title;
+        mDescription = description;
+        mCompleted = completed;
+        mUpdatedAt = updatedAt;
     }
 
     public String getId() {
@@ -125,6 +155,14 @@ public final class Task {
         return !mCompleted;
     }
 
+    /**
+     * Returns the time of the last change to the Task, in milliseconds since the epoch. The copy
+     * with the latest one wins when the same Task was changed in different places.
+     */
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
     public boolean isEmpty() {
         return (mTitle == null || "".equals(mTitle)) &&
                 (mDescription == null || "".equals(mDescription));
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+/**
+ * What the {@link TasksRepository} does with a remote refresh once every caller waiting for it
+ * has unsubscribed, such as when the screen showing the tasks is rotated or closed.
+ */
+public enum AbandonedRefreshPolicy {
+
+    /**
+     * Cancels the request to the remote data source, and doesn't write back what it returns if it
+     * was already on its way. The next read starts a new refresh.
+     */
+    CANCEL,
+
+    /**
+     * Lets the refresh finish in the background and write back what the remote data source
+     * returns. Reads made in the meantime join it instead of starting another one. It should be
+     * used with a remote deadline, see {@link FetchStrategy}, so a refresh can't stay in flight
+     * forever.
+     */
+    DETACH
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Scheduler;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks the health of a remote service and tells whether it should be called.
+ * <p/>
+ * The circuit starts closed, letting every call through. After a number of consecutive failures
+ * it opens, and calls are refused until a cool-down period has passed. It then becomes half-open
+ * and lets a single trial call through: the circuit closes again if it succeeds, and reopens for
+ * another cool-down if it fails. Time is read from a {@link Scheduler} so tests can control it.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+
+    private final long mOpenMillis;
+
+    private final Scheduler mScheduler;
+
+    private volatile TasksMetricsSink mMetricsSink = TasksMetricsSink.NONE;
+
+    // The fields below are guarded by this.
+
+    private State mState = State.CLOSED;
+
+    private int mConsecutiveFailures;
+
+    private long mOpenedAtMillis;
+
+    private boolean mTrialInFlight;
+
+    /**
+     * @param failureThreshold how many consecutive failures open the circuit
+     * @param openMillis       how long the circuit stays open before a trial call is let through
+     * @param scheduler        where the time is read from
+     */
+    CircuitBreaker(int failureThreshold, long openMillis, @NonNull Scheduler scheduler) {
+        checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+        checkArgument(openMillis >= 0, "openMillis cannot be negative");
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        mScheduler = checkNotNull(scheduler);
+    }
+
+    void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mMetricsSink = checkNotNull(metricsSink);
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns how long until a trial call is let through if the circuit is open, 0 otherwise.
+     */
+    synchronized long getRetryAfterMillis() {
+        if (mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, mOpenedAtMillis + mOpenMillis - mScheduler.now());
+    }
+
+    /**
+     * Returns the permit for a call to be made now, or null if the call isn't allowed. The caller
+     * must report how the call went through the permit.
+     */
+    @Nullable
+    Permit allowRequest() {
+        Event transition = null;
+        Permit permit;
+        synchronized (this) {
+            if (mState == State.OPEN && mScheduler.now() - mOpenedAtMillis >= mOpenMillis) {
+                mState = State.HALF_OPEN;
+                transition = Event.CIRCUIT_HALF_OPENED;
+            }
+            if (mState == State.HALF_OPEN) {
+                permit = mTrialInFlight ? null : new Permit(true);
+                mTrialInFlight = true;
+            } else {
+                permit = mState == State.CLOSED ? new Permit(false) : null;
+            }
+        }
+        record(transition);
+        return permit;
+    }
+
+    private void onSuccess(Permit permit) {
+        Event transition = null;
+        synchronized (this) {
+            if (permit.mTrial) {
+                mTrialInFlight = false;
+                mConsecutiveFailures = 0;
+                mState = State.CLOSED;
+                transition = Event.CIRCUIT_CLOSED;
+            } else if (mState == State.CLOSED) {
+                mConsecutiveFailures = 0;
+            }
+        }
+        record(transition);
+    }
+
+    private void onFailure(Permit permit) {
+        Event transition = null;
+        synchronized (this) {
+            if (permit.mTrial) {
+                mTrialInFlight = false;
+                mState = State.OPEN;
+                mOpenedAtMillis = mScheduler.now();
+                transition = Event.CIRCUIT_OPENED;
+            } else if (mState == State.CLOSED && ++mConsecutiveFailures >= mFailureThreshold) {
+                mState = State.OPEN;
+                mOpenedAtMillis = mScheduler.now();
+                transition = Event.CIRCUIT_OPENED;
+            }
+        }
+        record(transition);
+    }
+
+    private synchronized void onCancel(Permit permit) {
+        if (permit.mTrial) {
+            mTrialInFlight = false;
+        }
+    }
+
+    private void record(Event transition) {
+        if (transition != null) {
+            mMetricsSink.recordEvent(transition);
+        }
+    }
+
+    /**
+     * Lets a single call through. Only the first outcome reported counts, and outside of the trial
+     * call, outcomes only count while the circuit is closed: calls let through before the circuit
+     * opened don't change its state afterwards.
+     */
+    final class Permit {
+
+        /**
+         * Whether this is the trial call of a half-open circuit.
+         */
+        private final boolean mTrial;
+
+        private final AtomicBoolean mReported = new AtomicBoolean();
+
+        private Permit(boolean trial) {
+            mTrial = trial;
+        }
+
+        void onSuccess() {
+            if (mReported.compareAndSet(false, true)) {
+                CircuitBreaker.this.onSuccess(this);
+            }
+        }
+
+        void onFailure() {
+            if (mReported.compareAndSet(false, true)) {
+                CircuitBreaker.this.onFailure(this);
+            }
+        }
+
+        /**
+         * Reports that the call was abandoned before it succeeded or failed, so that another
+         * trial call can be made.
+         */
+        void onCancel() {
+            if (mReported.compareAndSet(false, true)) {
+                CircuitBreaker.this.onCancel(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Immutable description of how the {@link TasksRepository} reads from its data sources when the
+ * cache can't answer.
+ * <p/>
+ * The sources are either read one after the other, local first, or at the same time, in which
+ * case the first one to come back with data wins and the other read is cancelled. Either way, a
+ * local read that misses its deadline counts as empty, so the remote data source is used instead,
+ * and a remote read that misses its deadline fails with a {@code TimeoutException}.
+ */
+public final class FetchStrategy {
+
+    /**
+     * Deadline meaning that reads are never cut short.
+     */
+    public static final long NO_DEADLINE = 0;
+
+    /**
+     * Reads the local data source, then the remote one if the local one has nothing, without
+     * deadlines.
+     */
+    public static final FetchStrategy SEQUENTIAL =
+            new FetchStrategy(false, NO_DEADLINE, NO_DEADLINE);
+
+    private final boolean mConcurrent;
+
+    private final long mLocalDeadlineMillis;
+
+    private final long mRemoteDeadlineMillis;
+
+    private FetchStrategy(boolean concurrent, long localDeadlineMillis,
+                          long remoteDeadlineMillis) {
+        checkArgument(localDeadlineMillis >= 0, "localDeadlineMillis cannot be negative");
+        checkArgument(remoteDeadlineMillis >= 0, "remoteDeadlineMillis cannot be negative");
+        mConcurrent = concurrent;
+        mLocalDeadlineMillis = localDeadlineMillis;
+        mRemoteDeadlineMillis = remoteDeadlineMillis;
+    }
+
+    /**
+     * Reads the local data source, then the remote one if the local one has nothing.
+     *
+     * @param localDeadlineMillis  how long to wait for the local data source, or
+     *                             {@link #NO_DEADLINE}
+     * @param remoteDeadlineMillis how long to wait for the remote data source, or
+     *                             {@link #NO_DEADLINE}
+     */
+    public static FetchStrategy sequential(long localDeadlineMillis, long remoteDeadlineMillis) {
+        return new FetchStrategy(false, localDeadlineMillis, remoteDeadlineMillis);
+    }
+
+    /**
+     * Reads both data sources at the same time and uses whichever comes back with data first.
+     *
+     * @param localDeadlineMillis  how long to wait for the local data source, or
+     *                             {@link #NO_DEADLINE}
+     * @param remoteDeadlineMillis how long to wait for the remote data source, or
+     *                             {@link #NO_DEADLINE}
+     */
+    public static FetchStrategy concurrent(long localDeadlineMillis, long remoteDeadlineMillis) {
+        return new FetchStrategy(true, localDeadlineMillis, remoteDeadlineMillis);
+    }
+
+    public boolean isConcurrent() {
+        return mConcurrent;
+    }
+
+    public long getLocalDeadlineMillis() {
+        return mLocalDeadlineMillis;
+    }
+
+    public long getRemoteDeadlineMillis() {
+        return mRemoteDeadlineMillis;
+    }
+
+    @Override
+    public String toString() {
+        return (mConcurrent ? "Concurrent" : "Sequential") + " FetchStrategy with deadlines of "
+                + mLocalDeadlineMillis + "ms (local) and " + mRemoteDeadlineMillis + "ms (remote)";
+    }
+}
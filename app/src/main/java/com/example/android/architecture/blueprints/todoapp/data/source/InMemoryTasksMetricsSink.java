@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link TasksMetricsSink} keeping counts and latency histograms in memory, for tests and
+ * debugging.
+ * <p/>
+ * Latencies are counted in buckets whose bounds double from one to the next, starting at a
+ * microsecond, so each operation and source takes a fixed number of counters and recording never
+ * allocates.
+ */
+public final class InMemoryTasksMetricsSink implements TasksMetricsSink {
+
+    /**
+     * Bucket {@code i} counts the latencies under 2<sup>i</sup> microseconds that don't fit in a
+     * lower bucket, the last one counts everything above.
+     */
+    public static final int BUCKET_COUNT = 24;
+
+    private static final int OPERATION_COUNT = Operation.values().length;
+
+    private static final int SOURCE_COUNT = Source.values().length;
+
+    private final AtomicLongArray mCalls = new AtomicLongArray(OPERATION_COUNT);
+
+    private final AtomicLongArray mEvents = new AtomicLongArray(Event.values().length);
+
+    private final AtomicLongArray mLatencyBuckets =
+            new AtomicLongArray(OPERATION_COUNT * SOURCE_COUNT * BUCKET_COUNT);
+
+    private final AtomicLongArray mLatencyTotalsNanos =
+            new AtomicLongArray(OPERATION_COUNT * SOURCE_COUNT);
+
+    @Override
+    public void recordCall(@NonNull Operation operation) {
+        mCalls.incrementAndGet(operation.ordinal());
+    }
+
+    @Override
+    public void recordLatency(@NonNull Operation operation, @NonNull Source source,
+                              long latencyNanos) {
+        int histogram = histogramIndex(operation, source);
+        mLatencyBuckets.incrementAndGet(histogram * BUCKET_COUNT + bucketOf(latencyNanos));
+        mLatencyTotalsNanos.addAndGet(histogram, latencyNanos);
+    }
+
+    @Override
+    public void recordEvent(@NonNull Event event) {
+        mEvents.incrementAndGet(event.ordinal());
+    }
+
+    public long getCallCount(@NonNull Operation operation) {
+        return mCalls.get(operation.ordinal());
+    }
+
+    public long getEventCount(@NonNull Event event) {
+        return mEvents.get(event.ordinal());
+    }
+
+    /**
+     * Returns how many latencies were recorded for {@code operation} and {@code source}, which for
+     * a read is how many times that source served it.
+     */
+    public long getLatencyCount(@NonNull Operation operation, @NonNull Source source) {
+        long count = 0;
+        int start = histogramIndex(operation, source) * BUCKET_COUNT;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mLatencyBuckets.get(start + i);
+        }
+        return count;
+    }
+
+    public long getTotalLatencyNanos(@NonNull Operation operation, @NonNull Source source) {
+        return mLatencyTotalsNanos.get(histogramIndex(operation, source));
+    }
+
+    /**
+     * Returns the number of latencies in each bucket, see {@link #BUCKET_COUNT}.
+     */
+    @NonNull
+    public long[] getLatencyHistogram(@NonNull Operation operation, @NonNull Source source) {
+        long[] histogram = new long[BUCKET_COUNT];
+        int start = histogramIndex(operation, source) * BUCKET_COUNT;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histogram[i] = mLatencyBuckets.get(start + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the latencies, that is the upper bound of
+     * the bucket it falls in, or 0 if no latency was recorded. The last bucket has no upper bound,
+     * so {@link Long#MAX_VALUE} is returned for it.
+     *
+     * @param percentile between 0 and 100
+     */
+    public long getLatencyPercentileNanos(@NonNull Operation operation, @NonNull Source source,
+                                          double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile must be within [0, 100]");
+        long[] histogram = getLatencyHistogram(operation, source);
+        long count = 0;
+        for (long bucketCount : histogram) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return getBucketUpperBoundNanos(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the exclusive upper bound of bucket {@code bucket}, which is below
+     * {@link #BUCKET_COUNT} - 1.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        checkArgument(bucket >= 0 && bucket < BUCKET_COUNT - 1, "bucket has no upper bound");
+        return (1L << bucket) * 1000;
+    }
+
+    private static int histogramIndex(Operation operation, Source source) {
+        return operation.ordinal() * SOURCE_COUNT + source.ordinal();
+    }
+
+    private static int bucketOf(long latencyNanos) {
+        long micros = Math.max(0, latencyNanos) / 1000;
+        // 0µs goes to bucket 0, [1µs, 2µs) to bucket 1, [2µs, 4µs) to bucket 2 and so on.
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+}
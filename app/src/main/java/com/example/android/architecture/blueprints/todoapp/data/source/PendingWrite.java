@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable write a {@link PersistentTasksDataSource} keeps track of until the remote data source
+ * has it, so the writes still queued for it survive the process, see
+ * {@link PersistentTasksDataSource#getPendingWrites()}.
+ */
+public final class PendingWrite {
+
+    public enum Type {
+        /**
+         * The task was saved, completed or activated: its stored copy is to be sent.
+         */
+        SAVE,
+        DELETE,
+        CLEAR_COMPLETED,
+        DELETE_ALL
+    }
+
+    @NonNull
+    private final Type mType;
+
+    @Nullable
+    private final String mTaskId;
+
+    private final int mWriteCount;
+
+    /**
+     * @param type       what is to be sent
+     * @param taskId     id of the task written, null for the writes to all the tasks
+     * @param writeCount number of writes this one stands for
+     */
+    public PendingWrite(@NonNull Type type, @Nullable String taskId, int writeCount) {
+        checkArgument(writeCount > 0, "writeCount must be positive");
+        mType = checkNotNull(type);
+        mTaskId = taskId;
+        mWriteCount = writeCount;
+    }
+
+    @NonNull
+    public Type getType() {
+        return mType;
+    }
+
+    @Nullable
+    public String getTaskId() {
+        return mTaskId;
+    }
+
+    public int getWriteCount() {
+        return mWriteCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PendingWrite " + mType + " of " + mTaskId + " standing for " + mWriteCount
+                + " writes";
+    }
+}
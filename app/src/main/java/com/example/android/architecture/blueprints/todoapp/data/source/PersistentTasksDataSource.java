@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.Collection;
+import java.util.List;
+
+import rx.Observable;
+
+/**
+ * A {@link TasksDataSource} storing the tasks on the device, which the {@link TasksRepository}
+ * hands the work that has to be done alongside the stored tasks when it is given one as its
+ * local data source.
+ * <p/>
+ * Every write made through the {@link TasksDataSource} methods is also recorded as a
+ * {@link PendingWrite}, in the transaction of the write, until it is forgotten once the remote
+ * data source has it. The remote changes applied by
+ * {@link #applyRemoteChanges(TasksDelta, Collection)} aren't recorded.
+ */
+public interface PersistentTasksDataSource extends TasksDataSource {
+
+    /**
+     * Sets the sink the latency of every write is recorded to once it is committed, and every
+     * write that fails, as {@link TasksMetricsSink.Event#LOCAL_WRITE_FAILED}. Recording them where
+     * the writes are committed spares the repository from watching each of them.
+     */
+    void setMetricsSink(@NonNull TasksMetricsSink metricsSink);
+
+    /**
+     * Reads the stored tasks with the given ids once, in bulk. The tasks that aren't stored are
+     * left out.
+     */
+    Observable<List<Task>> getStoredTasks(@NonNull Collection<String> taskIds);
+
+    /**
+     * Returns the version of the remote data the stored tasks were last synced with, see
+     * {@link #applyRemoteChanges(TasksDelta, Collection)}, or {@link TasksDelta#NO_VERSION} if
+     * they never were.
+     */
+    Observable<Long> getSyncVersion();
+
+    /**
+     * Stores the changes reported by the remote data source along with the version of {@code
+     * delta}, in a single transaction, so the stored version always describes the stored tasks.
+     * A delta without a version leaves the stored one as it is.
+     * <p/>
+     * A changed task only replaces the stored one if its version is later. If {@code keptTaskIds}
+     * isn't null, the delta holds every remote task, and the stored tasks missing from it are
+     * deleted too, unless their id is in {@code keptTaskIds}.
+     */
+    Observable<Void> applyRemoteChanges(@NonNull TasksDelta delta,
+                                        @Nullable Collection<String> keptTaskIds);
+
+    /**
+     * Reads the writes not forgotten yet once, oldest first. The writes to a task are recorded
+     * as one, ordered by the last of them, and the writes to all the tasks each on their own.
+     * Deleting all the tasks forgets the writes made before.
+     */
+    Observable<List<PendingWrite>> getPendingWrites();
+
+    /**
+     * Forgets {@code writeCount} of the writes to the task with the given id, which the remote
+     * data source has stored or rejected.
+     */
+    Observable<Void> forgetTaskWrites(@NonNull String taskId, int writeCount);
+
+    /**
+     * Forgets the oldest of the writes to all the tasks of the given type, which the remote data
+     * source has stored or rejected.
+     */
+    Observable<Void> forgetGlobalWrite(@NonNull PendingWrite.Type type);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thrown instead of calling the remote data source while it is considered unhealthy, see
+ * {@link ResilientTasksDataSource}.
+ */
+public class RemoteUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long mRetryAfterMillis;
+
+    public RemoteUnavailableException() {
+        this(0);
+    }
+
+    /**
+     * @param retryAfterMillis how long until the remote data source is called again, 0 if unknown
+     */
+    public RemoteUnavailableException(long retryAfterMillis) {
+        super("The remote data source is unavailable");
+        mRetryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns how long until the remote data source is called again, or 0 if that isn't known.
+     */
+    public long getRetryAfterMillis() {
+        return mRetryAfterMillis;
+    }
+
+    /**
+     * Returns whether {@code error} means that a call didn't reach the remote data source, as
+     * opposed to the remote data source rejecting it.
+     */
+    static boolean isUnreachable(Throwable error) {
+        return causeOfType(error, RemoteUnavailableException.class) != null
+                || causeOfType(error, IOException.class) != null
+                || causeOfType(error, TimeoutException.class) != null;
+    }
+
+    @Nullable
+    static <T extends Throwable> T causeOfType(Throwable error, Class<T> type) {
+        // Checked exceptions are wrapped when rethrown by a blocking observable.
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return type.cast(cause);
+            }
+        }
+        return null;
+    }
+}
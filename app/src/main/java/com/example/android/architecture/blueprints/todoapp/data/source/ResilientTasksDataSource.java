@@ -0,0 +1,423 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decorates the remote {@link TasksDataSource} to isolate the app from its failures.
+ * <p/>
+ * Reads that fail are retried a bounded number of times, after an exponentially growing delay
+ * with full jitter so that clients don't retry in lockstep. Writes are not retried: the
+ * {@link TasksRemoteOutbox} sending them retries them itself once the circuit lets calls through
+ * again, or reports their failure.
+ * <p/>
+ * Every call goes through a {@link CircuitBreaker}. Once the remote data source has failed
+ * repeatedly, calls fail straight away with a {@link RemoteUnavailableException} until it has had
+ * time to recover, telling how long that is, and the {@link TasksRepository} serves the local
+ * tasks instead.
+ */
+public class ResilientTasksDataSource implements TasksDataSource {
+
+    static final int MAX_RETRIES = 3;
+
+    static final long INITIAL_BACKOFF_MILLIS = 500;
+
+    static final long MAX_BACKOFF_MILLIS = 8000;
+
+    static final int FAILURE_THRESHOLD = 5;
+
+    static final long OPEN_MILLIS = 30000;
+
+    private final TasksDataSource mTasksRemoteDataSource;
+
+    private final Scheduler mScheduler;
+
+    private final CircuitBreaker mCircuitBreaker;
+
+    private final Random mRandom = new Random();
+
+    private volatile TasksMetricsSink mMetricsSink = TasksMetricsSink.NONE;
+
+    private volatile long mReadDeadlineMillis = FetchStrategy.NO_DEADLINE;
+
+    /**
+     * @param tasksRemoteDataSource the remote data source to decorate
+     * @param scheduler             the scheduler retries are delayed on, also used as the clock
+     *                              of the circuit breaker
+     */
+    public ResilientTasksDataSource(@NonNull TasksDataSource tasksRemoteDataSource,
+                                    @NonNull Scheduler scheduler) {
+        mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
+        mScheduler = checkNotNull(scheduler);
+        mCircuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, mScheduler);
+    }
+
+    /**
+     * Sets the sink the retries and the circuit breaker transitions are recorded to.
+     */
+    public void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mMetricsSink = checkNotNull(metricsSink);
+        mCircuitBreaker.setMetricsSink(metricsSink);
+    }
+
+    /**
+     * Sets how long a read has, retries included, before it fails with a
+     * {@link TimeoutException}. Missing it counts as a failure of the remote data source, so a
+     * backend that hangs opens the circuit. Defaults to {@link FetchStrategy#NO_DEADLINE}.
+     */
+    public void setReadDeadline(long deadline, @NonNull TimeUnit unit) {
+        checkArgument(deadline >= 0, "deadline cannot be negative");
+        mReadDeadlineMillis = checkNotNull(unit).toMillis(deadline);
+    }
+
+    CircuitBreaker.State getCircuitState() {
+        return mCircuitBreaker.getState();
+    }
+
+    @Override
+    public Observable<List<Task>> getTasks() {
+        return guarded(new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                return mTasksRemoteDataSource.getTasks();
+            }
+        });
+    }
+
+    @Override
+    public Observable<Task> getTask(@NonNull final String taskId) {
+        return guarded(new Func0<Observable<Task>>() {
+            @Override
+            public Observable<Task> call() {
+                return mTasksRemoteDataSource.getTask(taskId);
+            }
+        });
+    }
+
+    @Override
+    public Observable<List<Task>> getTasksPage(@Nullable final String afterTaskId,
+                                               final int pageSize) {
+        return guarded(new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                return mTasksRemoteDataSource.getTasksPage(afterTaskId, pageSize);
+            }
+        });
+    }
+
+    @Override
+    public Observable<TasksDelta> getTasksDelta(final long sinceVersion) {
+        return guarded(new Func0<Observable<TasksDelta>>() {
+            @Override
+            public Observable<TasksDelta> call() {
+                return mTasksRemoteDataSource.getTasksDelta(sinceVersion);
+            }
+        });
+    }
+
+    @Override
+    public Observable<List<Task>> searchTasks(@NonNull final String query) {
+        return guarded(new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                return mTasksRemoteDataSource.searchTasks(query);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> saveTask(@NonNull final Task task) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.saveTask(task);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> saveTasks(@NonNull final Collection<Task> tasks) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.saveTasks(tasks);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> completeTask(@NonNull final Task task) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.completeTask(task);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> completeTasks(@NonNull final Collection<String> taskIds,
+                                          final long updatedAt) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.completeTasks(taskIds, updatedAt);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> activateTask(@NonNull final Task task) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.activateTask(task);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> clearCompletedTasks() {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.clearCompletedTasks();
+            }
+        });
+    }
+
+    @Override
+    public void refreshTasks() {
+        // Not a remote call.
+        mTasksRemoteDataSource.refreshTasks();
+    }
+
+    @Override
+    public Observable<Void> deleteAllTasks() {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.deleteAllTasks();
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> deleteTask(@NonNull final String taskId) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.deleteTask(taskId);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> deleteTasks(@NonNull final Collection<String> taskIds) {
+        return write(new Func0<Observable<Void>>() {
+            @Override
+            public Observable<Void> call() {
+                return mTasksRemoteDataSource.deleteTasks(taskIds);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> whenWritten() {
+        // Not a remote call.
+        return mTasksRemoteDataSource.whenWritten();
+    }
+
+    /**
+     * Makes the read returned by {@code read} through the circuit breaker, retrying it with
+     * backoff if it fails, until the read deadline if there is one.
+     */
+    private <T> Observable<T> guarded(final Func0<Observable<T>> read) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                long deadlineMillis = mReadDeadlineMillis;
+                long deadlineAtMillis = deadlineMillis == FetchStrategy.NO_DEADLINE
+                        ? FetchStrategy.NO_DEADLINE : mScheduler.now() + deadlineMillis;
+                return retried(attempt(read, deadlineAtMillis));
+            }
+        });
+    }
+
+    /**
+     * Returns a single attempt at the read returned by {@code read}, which fails with a
+     * {@link TimeoutException} at {@code deadlineAtMillis}, as told by the scheduler, unless it is
+     * {@link FetchStrategy#NO_DEADLINE}. The timeout is reported to the circuit breaker as a
+     * failure.
+     */
+    private <T> Observable<T> attempt(final Func0<Observable<T>> read,
+                                      final long deadlineAtMillis) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                long remainingMillis = deadlineAtMillis - mScheduler.now();
+                if (deadlineAtMillis != FetchStrategy.NO_DEADLINE && remainingMillis <= 0) {
+                    // Missed while backing off, the remote data source isn't to blame.
+                    return Observable.error(new TimeoutException());
+                }
+                CircuitBreaker.Permit permit = mCircuitBreaker.allowRequest();
+                if (permit == null) {
+                    return Observable.error(unavailable());
+                }
+                Observable<T> made;
+                try {
+                    made = read.call();
+                } catch (RuntimeException e) {
+                    made = Observable.error(e);
+                }
+                if (deadlineAtMillis != FetchStrategy.NO_DEADLINE) {
+                    made = made.timeout(remainingMillis, TimeUnit.MILLISECONDS, mScheduler);
+                }
+                return reported(made, permit, true);
+            }
+        });
+    }
+
+    /**
+     * Retries {@code attempt} with backoff when it fails, unless the remote data source is
+     * unavailable or the deadline has passed.
+     */
+    private <T> Observable<T> retried(Observable<T> attempt) {
+        return attempt
+                .retryWhen(new Func1<Observable<? extends Throwable>, Observable<?>>() {
+                    @Override
+                    public Observable<?> call(Observable<? extends Throwable> errors) {
+                        return errors.flatMap(new Func1<Throwable, Observable<?>>() {
+                            private int mRetries;
+
+                            @Override
+                            public Observable<?> call(Throwable error) {
+                                if (error instanceof RemoteUnavailableException
+                                        || error instanceof TimeoutException
+                                        || mRetries == MAX_RETRIES) {
+                                    return Observable.error(error);
+                                }
+                                mRetries++;
+                                mMetricsSink.recordEvent(Event.REMOTE_RETRY);
+                                return Observable.timer(backoffMillis(mRetries),
+                                        TimeUnit.MILLISECONDS, mScheduler);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Reports the outcome of an allowed call through its permit: success with its first item or
+     * its completion, failure with its error, including a missed deadline, cancellation if the
+     * caller unsubscribes before any of these. The permit only counts the first of them.
+     *
+     * @param anyErrorFails whether every error counts as a failure, or only those meaning that
+     *                      the call didn't reach the remote data source, the others counting as a
+     *                      success
+     */
+    private <T> Observable<T> reported(Observable<T> call, final CircuitBreaker.Permit permit,
+            final boolean anyErrorFails) {
+        return call
+                .doOnNext(new Action1<T>() {
+                    @Override
+                    public void call(T item) {
+                        permit.onSuccess();
+                    }
+                })
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        permit.onSuccess();
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable e) {
+                        if (anyErrorFails || RemoteUnavailableException.isUnreachable(e)) {
+                            permit.onFailure();
+                        } else {
+                            permit.onSuccess();
+                        }
+                    }
+                })
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        permit.onCancel();
+                    }
+                });
+    }
+
+    /**
+     * Makes an allowed write, reporting its outcome to the circuit breaker once it is stored or
+     * has failed. The write is made whether or not the returned observable is subscribed to, like
+     * the writes of every {@link TasksDataSource}.
+     * <p/>
+     * Only a write that didn't reach the remote data source counts as a failure: one it rejected
+     * shows that it is up, so it counts as a success like a stored write.
+     */
+    private Observable<Void> write(Func0<Observable<Void>> write) {
+        CircuitBreaker.Permit permit = mCircuitBreaker.allowRequest();
+        if (permit == null) {
+            return Observable.error(unavailable());
+        }
+        Observable<Void> written;
+        try {
+            written = write.call();
+        } catch (RuntimeException e) {
+            written = Observable.error(e);
+        }
+        AsyncSubject<Void> outcome = AsyncSubject.create();
+        reported(written, permit, false).subscribe(outcome);
+        return outcome.asObservable();
+    }
+
+    private RemoteUnavailableException unavailable() {
+        return new RemoteUnavailableException(mCircuitBreaker.getRetryAfterMillis());
+    }
+
+    /**
+     * Returns a random delay before the given retry, between 0 and an upper bound that doubles
+     * with every retry up to {@link #MAX_BACKOFF_MILLIS}.
+     */
+    private long backoffMillis(int retry) {
+        long bound = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (retry - 1));
+        return (long) (mRandom.nextDouble() * bound);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable notice that a task completed or activated optimistically by the
+ * {@link TasksRepository} was put back in its previous state, because the remote data source
+ * failed the change. See {@link TasksRepository#getRollbacks()}.
+ */
+public final class TaskRollback {
+
+    @NonNull
+    private final String mTaskId;
+
+    private final boolean mCompleted;
+
+    @NonNull
+    private final Throwable mCause;
+
+    /**
+     * @param taskId    id of the task that was rolled back
+     * @param completed whether the task is completed again after the rollback
+     * @param cause     why the remote data source failed the change
+     */
+    public TaskRollback(@NonNull String taskId, boolean completed, @NonNull Throwable cause) {
+        mTaskId = checkNotNull(taskId);
+        mCompleted = completed;
+        mCause = checkNotNull(cause);
+    }
+
+    @NonNull
+    public String getTaskId() {
+        return mTaskId;
+    }
+
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    @NonNull
+    public Throwable getCause() {
+        return mCause;
+    }
+}
@@ -0,0 +1,792 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Thread-safe, insertion-ordered, memory-bounded in-memory cache of {@link Task}s used by the
+ * {@link TasksRepository}.
+ * <p/>
+ * Point lookups go through a {@link ConcurrentHashMap} and never block. Writers are serialised
+ * on a single lock, so each mutation is atomic per task id, and they only invalidate the list
+ * snapshots. Snapshots are immutable lists that are rebuilt at most once per burst of writes
+ * and can be handed out to callers without copying.
+ * <p/>
+ * Active and completed tasks are kept in separate partitions ordered by insertion, so the active
+ * or completed tasks, their counts and clearing the completed ones only cost time proportional to
+ * the tasks involved rather than to all the cached tasks.
+ * <p/>
+ * Every task stays listed, but only the descriptions that fit in the byte budget are kept. Once
+ * the budget is exceeded, the least recently used tasks are replaced by a projection without the
+ * description, which is all the task list needs. Recency is approximated with the CLOCK
+ * (second-chance) algorithm so lookups only have to set a flag. {@link #get(String)} doesn't
+ * return projections, so callers that need the full task reload it from storage.
+ * <p/>
+ * Every write is also published on {@link #asObservable()}, so consumers can follow the cache
+ * instead of re-reading it after each mutation.
+ * <p/>
+ * The words of the cached tasks are kept in a {@link TasksSearchIndex}. Only the descriptions
+ * the cache holds are indexed, so evicting a description also frees its words, and
+ * {@link #search(String)} can only be relied on while {@link #holdsAllDescriptions()}.
+ */
+final class TasksCache {
+
+    /**
+     * Default budget for the descriptions held by the cache, in bytes.
+     */
+    static final long DEFAULT_MAX_DESCRIPTION_BYTES = 1024 * 1024;
+
+    private final long mMaxDescriptionBytes;
+
+    private final Object mLock = new Object();
+
+    private final ConcurrentHashMap<String, Entry> mEntriesById = new ConcurrentHashMap<>();
+
+    /**
+     * Active tasks keyed by insertion sequence number. Guarded by {@link #mLock}.
+     */
+    private final TreeMap<Long, Entry> mActiveEntries = new TreeMap<>();
+
+    /**
+     * Completed tasks keyed by insertion sequence number. Guarded by {@link #mLock}.
+     */
+    private final TreeMap<Long, Entry> mCompletedEntries = new TreeMap<>();
+
+    /**
+     * Sequence number given to the next task added to the cache. Guarded by {@link #mLock}.
+     */
+    private long mNextSeq = 0;
+
+    /**
+     * Ids of the tasks whose description can be evicted, in CLOCK order. Guarded by
+     * {@link #mLock}.
+     */
+    private final LinkedHashSet<String> mEvictableIds = new LinkedHashSet<>();
+
+    /**
+     * Guarded by {@link #mLock}.
+     */
+    private final TasksSearchIndex mSearchIndex = new TasksSearchIndex();
+
+    /**
+     * Estimated size of the descriptions held by the cache. Guarded by {@link #mLock}.
+     */
+    private long mDescriptionBytes = 0;
+
+    /**
+     * Number of cached tasks whose description has been evicted. Guarded by {@link #mLock}.
+     */
+    private int mEvictedCount = 0;
+
+    /**
+     * Immutable view of all the tasks, or null when it needs to be rebuilt.
+     */
+    @Nullable
+    private volatile List<Task> mSnapshot = Collections.emptyList();
+
+    /**
+     * Immutable view of {@link #mActiveEntries}, or null when it needs to be rebuilt.
+     */
+    @Nullable
+    private volatile List<Task> mActiveSnapshot = Collections.emptyList();
+
+    /**
+     * Immutable view of {@link #mCompletedEntries}, or null when it needs to be rebuilt.
+     */
+    @Nullable
+    private volatile List<Task> mCompletedSnapshot = Collections.emptyList();
+
+    /**
+     * Sizes of the partitions, or null when they changed since it was built.
+     */
+    @Nullable
+    private volatile TasksStatistics mStatistics = null;
+
+    /**
+     * Whether the cache holds a complete copy of the tasks, as opposed to the few tasks written
+     * through it before the first load.
+     */
+    private volatile boolean mLoaded = false;
+
+    private final Subject<Void, Void> mChanges = PublishSubject.<Void>create().toSerialized();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    private final Func0<List<Task>> mSnapshotFactory = new Func0<List<Task>>() {
+        @Override
+        public List<Task> call() {
+            return snapshot();
+        }
+    };
+
+    private final Func0<List<Task>> mActiveSnapshotFactory = new Func0<List<Task>>() {
+        @Override
+        public List<Task> call() {
+            return activeSnapshot();
+        }
+    };
+
+    private final Func0<List<Task>> mCompletedSnapshotFactory = new Func0<List<Task>>() {
+        @Override
+        public List<Task> call() {
+            return completedSnapshot();
+        }
+    };
+
+    private final Func0<TasksStatistics> mStatisticsFactory = new Func0<TasksStatistics>() {
+        @Override
+        public TasksStatistics call() {
+            return statistics();
+        }
+    };
+
+    private final Func0<Void> mNoSnapshotFactory = new Func0<Void>() {
+        @Override
+        public Void call() {
+            return null;
+        }
+    };
+
+    TasksCache() {
+        this(DEFAULT_MAX_DESCRIPTION_BYTES);
+    }
+
+    /**
+     * @param maxDescriptionBytes how many bytes of task descriptions the cache can hold
+     */
+    TasksCache(long maxDescriptionBytes) {
+        checkArgument(maxDescriptionBytes >= 0);
+        mMaxDescriptionBytes = maxDescriptionBytes;
+    }
+
+    /**
+     * Returns the full task with the given id, or null if it isn't cached or only its projection
+     * is.
+     */
+    @Nullable
+    Task get(@NonNull String taskId) {
+        Entry entry = mEntriesById.get(checkNotNull(taskId));
+        if (entry == null || !entry.mFull) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        entry.mReferenced = true;
+        mHitCount.incrementAndGet();
+        return entry.mTask;
+    }
+
+    /**
+     * Returns the task with the given id as listed by the cache, which may be a projection
+     * without its description. Doesn't count as a use of the task.
+     */
+    @Nullable
+    Task peek(@NonNull String taskId) {
+        Entry entry = mEntriesById.get(checkNotNull(taskId));
+        return entry == null ? null : entry.mTask;
+    }
+
+    int size() {
+        return mEntriesById.size();
+    }
+
+    boolean isEmpty() {
+        return mEntriesById.isEmpty();
+    }
+
+    boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Returns the number of active and completed tasks. The counts are the sizes of the
+     * partitions, so this doesn't depend on the number of tasks.
+     */
+    @NonNull
+    TasksStatistics statistics() {
+        TasksStatistics statistics = mStatistics;
+        if (statistics != null) {
+            return statistics;
+        }
+        synchronized (mLock) {
+            if (mStatistics == null) {
+                mStatistics = new TasksStatistics(mActiveEntries.size(), mCompletedEntries.size());
+            }
+            return mStatistics;
+        }
+    }
+
+    /**
+     * Returns the cached tasks with a word starting with each term of {@code query}, in insertion
+     * order, see {@link TasksSearchIndex#search(String)}. Tasks whose description has been evicted
+     * are only matched by their title, and returned as projections.
+     */
+    @NonNull
+    List<Task> search(@NonNull String query) {
+        checkNotNull(query);
+        synchronized (mLock) {
+            TreeMap<Long, Task> matches = new TreeMap<>();
+            for (String taskId : mSearchIndex.search(query)) {
+                Entry entry = mEntriesById.get(taskId);
+                matches.put(entry.mSeq, entry.mTask);
+            }
+            return new ArrayList<>(matches.values());
+        }
+    }
+
+    /**
+     * Returns whether no description has been evicted, in which case {@link #search(String)}
+     * finds every matching task.
+     */
+    boolean holdsAllDescriptions() {
+        synchronized (mLock) {
+            return mEvictedCount == 0;
+        }
+    }
+
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Returns an immutable, insertion-ordered snapshot of the cached tasks. Tasks whose
+     * description has been evicted are returned as projections.
+     */
+    @NonNull
+    List<Task> snapshot() {
+        List<Task> snapshot = mSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (mLock) {
+            if (mSnapshot == null) {
+                mSnapshot = Collections.unmodifiableList(mergeLocked());
+            }
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * Same as {@link #snapshot()}, restricted to the active tasks.
+     */
+    @NonNull
+    List<Task> activeSnapshot() {
+        List<Task> snapshot = mActiveSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (mLock) {
+            if (mActiveSnapshot == null) {
+                mActiveSnapshot = Collections.unmodifiableList(tasksOf(mActiveEntries));
+            }
+            return mActiveSnapshot;
+        }
+    }
+
+    /**
+     * Same as {@link #snapshot()}, restricted to the completed tasks.
+     */
+    @NonNull
+    List<Task> completedSnapshot() {
+        List<Task> snapshot = mCompletedSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (mLock) {
+            if (mCompletedSnapshot == null) {
+                mCompletedSnapshot = Collections.unmodifiableList(tasksOf(mCompletedEntries));
+            }
+            return mCompletedSnapshot;
+        }
+    }
+
+    /**
+     * Returns a hot stream that emits the current snapshot on subscription, once the cache has
+     * been loaded, and a new snapshot after every change. Emissions happen on the writing thread.
+     */
+    @NonNull
+    Observable<List<Task>> asObservable() {
+        return observe(mSnapshotFactory);
+    }
+
+    /**
+     * Same as {@link #asObservable()}, without building any snapshot, for consumers that only
+     * need to know that the tasks changed.
+     */
+    @NonNull
+    Observable<Void> changesAsObservable() {
+        return observe(mNoSnapshotFactory);
+    }
+
+    /**
+     * Same as {@link #asObservable()}, emitting {@link #activeSnapshot()}.
+     */
+    @NonNull
+    Observable<List<Task>> activeAsObservable() {
+        return observe(mActiveSnapshotFactory);
+    }
+
+    /**
+     * Same as {@link #asObservable()}, emitting {@link #completedSnapshot()}.
+     */
+    @NonNull
+    Observable<List<Task>> completedAsObservable() {
+        return observe(mCompletedSnapshotFactory);
+    }
+
+    /**
+     * Same as {@link #asObservable()}, emitting {@link #statistics()} whenever the counts change.
+     */
+    @NonNull
+    Observable<TasksStatistics> statisticsAsObservable() {
+        return observe(mStatisticsFactory).distinctUntilChanged();
+    }
+
+    private <T> Observable<T> observe(final Func0<T> snapshotFactory) {
+        return mChanges
+                .startWith((Void) null)
+                .onBackpressureLatest()
+                .filter(new Func1<Void, Boolean>() {
+                    @Override
+                    public Boolean call(Void ignored) {
+                        return mLoaded;
+                    }
+                })
+                .map(new Func1<Void, T>() {
+                    @Override
+                    public T call(Void ignored) {
+                        return snapshotFactory.call();
+                    }
+                });
+    }
+
+    void put(@NonNull Task task) {
+        checkNotNull(task);
+        synchronized (mLock) {
+            putLocked(task);
+            trimLocked();
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Adds or replaces the given tasks in a single write, without marking the cache as loaded.
+     */
+    void putTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        synchronized (mLock) {
+            for (Task task : tasks) {
+                putLocked(task);
+            }
+            trimLocked();
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Adds all the given tasks in a single write and marks the cache as fully loaded, unless it
+     * already is, in which case the given tasks are considered stale and nothing is written.
+     *
+     * @return true if the tasks were written
+     */
+    boolean putAllIfNotLoaded(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        synchronized (mLock) {
+            if (mLoaded) {
+                return false;
+            }
+            for (Task task : tasks) {
+                putLocked(task);
+            }
+            trimLocked();
+            mLoaded = true;
+        }
+        notifyChanged();
+        return true;
+    }
+
+    /**
+     * Adds or replaces the changed tasks and removes the deleted ones in a single write.
+     */
+    void applyChanges(@NonNull Collection<Task> changedTasks,
+                      @NonNull Collection<String> deletedTaskIds) {
+        checkNotNull(changedTasks);
+        checkNotNull(deletedTaskIds);
+        synchronized (mLock) {
+            for (Task task : changedTasks) {
+                putLocked(task);
+            }
+            for (String taskId : deletedTaskIds) {
+                removeLocked(taskId);
+            }
+            trimLocked();
+            mLoaded = true;
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Marks the cached task with the same id as {@code task} as completed or active, keeping
+     * whatever else the cache holds for it. Caches {@code task} with that state if it isn't cached
+     * yet.
+     *
+     * @return the task as now cached, stamped with the version of the change
+     */
+    @NonNull
+    Task setCompleted(@NonNull Task task, boolean completed) {
+        checkNotNull(task);
+        long updatedAt = System.currentTimeMillis();
+        Task updatedTask;
+        synchronized (mLock) {
+            Entry entry = mEntriesById.get(task.getId());
+            if (entry == null) {
+                updatedTask = withCompleted(task, completed, updatedAt);
+                putLocked(updatedTask);
+                trimLocked();
+            } else {
+                updatedTask = withCompleted(entry.mTask, completed, updatedAt);
+                Entry updated = new Entry(updatedTask, entry.mFull, entry.mDescriptionBytes,
+                        entry.mSeq);
+                updated.mReferenced = true;
+                replaceLocked(entry, updated);
+            }
+        }
+        notifyChanged();
+        return updatedTask;
+    }
+
+    /**
+     * Marks the cached tasks with the given ids as completed or active in a single write, as
+     * version {@code updatedAt}. Ids that aren't cached are ignored.
+     */
+    void setCompleted(@NonNull Collection<String> taskIds, boolean completed, long updatedAt) {
+        checkNotNull(taskIds);
+        synchronized (mLock) {
+            for (String taskId : taskIds) {
+                Entry entry = mEntriesById.get(taskId);
+                if (entry != null) {
+                    Entry updated = new Entry(withCompleted(entry.mTask, completed, updatedAt),
+                            entry.mFull, entry.mDescriptionBytes, entry.mSeq);
+                    updated.mReferenced = true;
+                    replaceLocked(entry, updated);
+                }
+            }
+        }
+        notifyChanged();
+    }
+
+    void remove(@NonNull String taskId) {
+        checkNotNull(taskId);
+        synchronized (mLock) {
+            if (!removeLocked(taskId)) {
+                return;
+            }
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Removes the tasks with the given ids in a single write.
+     */
+    void removeAll(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        synchronized (mLock) {
+            for (String taskId : taskIds) {
+                removeLocked(taskId);
+            }
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Removes the completed tasks, in time proportional to their number.
+     */
+    void removeCompleted() {
+        synchronized (mLock) {
+            if (mCompletedEntries.isEmpty()) {
+                return;
+            }
+            for (Entry entry : mCompletedEntries.values()) {
+                String taskId = entry.mTask.getId();
+                mEntriesById.remove(taskId);
+                mSearchIndex.remove(taskId);
+                forgetLocked(taskId, entry);
+            }
+            mCompletedEntries.clear();
+            invalidateLocked(true);
+        }
+        notifyChanged();
+    }
+
+    void clear() {
+        synchronized (mLock) {
+            mEntriesById.clear();
+            mActiveEntries.clear();
+            mCompletedEntries.clear();
+            mEvictableIds.clear();
+            mSearchIndex.clear();
+            mDescriptionBytes = 0;
+            mEvictedCount = 0;
+            mSnapshot = Collections.emptyList();
+            mActiveSnapshot = Collections.emptyList();
+            mCompletedSnapshot = Collections.emptyList();
+            mStatistics = null;
+        }
+        notifyChanged();
+    }
+
+    private void notifyChanged() {
+        // Published outside of the lock so subscribers can read the cache without deadlocking.
+        mChanges.onNext(null);
+    }
+
+    private void putLocked(Task task) {
+        String taskId = task.getId();
+        Entry previous = mEntriesById.get(taskId);
+        long seq;
+        if (previous != null) {
+            // Keep the task where it was in the list.
+            seq = previous.mSeq;
+            partitionOf(previous).remove(seq);
+            forgetLocked(taskId, previous);
+            invalidateLocked(previous.mTask.isCompleted());
+        } else {
+            seq = mNextSeq++;
+        }
+        int descriptionBytes = projectionSavings(task);
+        Entry entry = new Entry(task, true, descriptionBytes, seq);
+        mEntriesById.put(taskId, entry);
+        partitionOf(entry).put(seq, entry);
+        invalidateLocked(task.isCompleted());
+        mSearchIndex.put(task);
+        if (descriptionBytes > 0) {
+            mEvictableIds.add(taskId);
+            mDescriptionBytes += descriptionBytes;
+        }
+    }
+
+    /**
+     * Swaps {@code entry} for {@code updated}, which holds a version of the same task.
+     */
+    private void replaceLocked(Entry entry, Entry updated) {
+        partitionOf(entry).remove(entry.mSeq);
+        partitionOf(updated).put(updated.mSeq, updated);
+        mEntriesById.put(updated.mTask.getId(), updated);
+        invalidateLocked(entry.mTask.isCompleted());
+        invalidateLocked(updated.mTask.isCompleted());
+    }
+
+    private boolean removeLocked(String taskId) {
+        Entry entry = mEntriesById.remove(taskId);
+        if (entry == null) {
+            return false;
+        }
+        partitionOf(entry).remove(entry.mSeq);
+        mSearchIndex.remove(taskId);
+        forgetLocked(taskId, entry);
+        invalidateLocked(entry.mTask.isCompleted());
+        return true;
+    }
+
+    /**
+     * Stops accounting for the description held by {@code entry}, or for its eviction.
+     */
+    private void forgetLocked(String taskId, Entry entry) {
+        if (!entry.mFull) {
+            mEvictedCount--;
+        } else if (entry.mDescriptionBytes > 0) {
+            mEvictableIds.remove(taskId);
+            mDescriptionBytes -= entry.mDescriptionBytes;
+        }
+    }
+
+    private TreeMap<Long, Entry> partitionOf(Entry entry) {
+        return entry.mTask.isCompleted() ? mCompletedEntries : mActiveEntries;
+    }
+
+    /**
+     * Invalidates the counts, the snapshot of all the tasks and the one of the partition that
+     * changed.
+     */
+    private void invalidateLocked(boolean completedPartition) {
+        mSnapshot = null;
+        mStatistics = null;
+        if (completedPartition) {
+            mCompletedSnapshot = null;
+        } else {
+            mActiveSnapshot = null;
+        }
+    }
+
+    /**
+     * Returns all the tasks in insertion order, merging both partitions.
+     */
+    private List<Task> mergeLocked() {
+        List<Task> tasks = new ArrayList<>(mActiveEntries.size() + mCompletedEntries.size());
+        Iterator<Entry> active = mActiveEntries.values().iterator();
+        Iterator<Entry> completed = mCompletedEntries.values().iterator();
+        Entry nextActive = active.hasNext() ? active.next() : null;
+        Entry nextCompleted = completed.hasNext() ? completed.next() : null;
+        while (nextActive != null || nextCompleted != null) {
+            if (nextCompleted == null
+                    || (nextActive != null && nextActive.mSeq < nextCompleted.mSeq)) {
+                tasks.add(nextActive.mTask);
+                nextActive = active.hasNext() ? active.next() : null;
+            } else {
+                tasks.add(nextCompleted.mTask);
+                nextCompleted = completed.hasNext() ? completed.next() : null;
+            }
+        }
+        return tasks;
+    }
+
+    private static List<Task> tasksOf(TreeMap<Long, Entry> partition) {
+        List<Task> tasks = new ArrayList<>(partition.size());
+        for (Entry entry : partition.values()) {
+            tasks.add(entry.mTask);
+        }
+        return tasks;
+    }
+
+    /**
+     * Replaces full tasks with their projection, least recently used first, until the
+     * descriptions fit in the budget.
+     */
+    private void trimLocked() {
+        while (mDescriptionBytes > mMaxDescriptionBytes && !mEvictableIds.isEmpty()) {
+            Iterator<String> hand = mEvictableIds.iterator();
+            String taskId = hand.next();
+            hand.remove();
+            Entry entry = mEntriesById.get(taskId);
+            if (entry.mReferenced) {
+                // Second chance: clear the flag and move the task to the back of the clock.
+                entry.mReferenced = false;
+                mEvictableIds.add(taskId);
+                continue;
+            }
+            Task projection = project(entry.mTask);
+            replaceLocked(entry, new Entry(projection, false, 0, entry.mSeq));
+            mSearchIndex.put(projection);
+            mDescriptionBytes -= entry.mDescriptionBytes;
+            mEvictedCount++;
+            mEvictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the task as shown in the task list: without its description, unless the description
+     * is what the list shows.
+     */
+    private static Task project(Task task) {
+        if (projectionSavings(task) == 0) {
+            return task;
+        }
+        return new Task(task.getTitle(), null, task.getId(), task.isCompleted(),
+                task.getUpdatedAt());
+    }
+
+    /**
+     * Returns the approximate number of bytes freed by replacing the task with its projection.
+     */
+    private static int projectionSavings(Task task) {
+        if (Strings.isNullOrEmpty(task.getTitle())
+                || Strings.isNullOrEmpty(task.getDescription())) {
+            return 0;
+        }
+        // Strings hold two bytes per char.
+        return 2 * task.getDescription().length();
+    }
+
+    /**
+     * Returns {@code task} with the given state, as a new version stamped {@code updatedAt} if that
+     * changes it. The version never goes back, even if the clock did.
+     */
+    private static Task withCompleted(Task task, boolean completed, long updatedAt) {
+        if (task.isCompleted() == completed) {
+            return task;
+        }
+        return new Task(task.getTitle(), task.getDescription(), task.getId(), completed,
+                Math.max(task.getUpdatedAt(), updatedAt));
+    }
+
+    private static final class Entry {
+
+        /**
+         * The full task, or its projection if {@link #mFull} is false.
+         */
+        final Task mTask;
+
+        final boolean mFull;
+
+        /**
+         * Bytes accounted for this entry's description, 0 if it can't be evicted.
+         */
+        final int mDescriptionBytes;
+
+        /**
+         * Position of the task in the cache, kept when the task is replaced.
+         */
+        final long mSeq;
+
+        /**
+         * CLOCK reference bit, set on every lookup and cleared when the clock hand passes by.
+         */
+        volatile boolean mReferenced = false;
+
+        Entry(Task task, boolean full, int descriptionBytes, long seq) {
+            mTask = task;
+            mFull = full;
+            mDescriptionBytes = descriptionBytes;
+            mSeq = seq;
+        }
+    }
+}
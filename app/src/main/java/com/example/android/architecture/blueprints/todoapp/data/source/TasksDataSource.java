@@ -17,9 +17,11 @@
 package com.example.android.architecture.blueprints.todoapp.data.source;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 
+import java.util.Collection;
 import java.util.List;
 
 import rx.Observable;
@@ -27,6 +29,9 @@ import rx.Observable;
 /**
  * Main entry point for accessing tasks data.
  * <p>
+ * Each write returns an {@link Observable} that completes once the write is stored, or fails with
+ * the error that kept it from being stored. The write happens whether or not the observable is
+ * subscribed to.
  */
 public interface TasksDataSource {
 
@@ -34,21 +39,71 @@ public interface TasksDataSource {
 
     Observable<Task> getTask(@NonNull String taskId);
 
-    void saveTask(@NonNull Task task);
+    /**
+     * Returns up to {@code pageSize} tasks in the order they were first saved, starting after the
+     * task with id {@code afterTaskId}, or with the first task if it is null. A page shorter than
+     * {@code pageSize} is the last one. Updating a task doesn't move it.
+     * <p/>
+     * Pages are keyed by the id of the last task of the previous page rather than by an offset, so
+     * reading a page costs the same wherever it is in the list, and tasks added or removed while
+     * paging don't shift the pages that follow. The page after a task that no longer exists is
+     * empty, so callers page from a task they still hold.
+     */
+    Observable<List<Task>> getTasksPage(@Nullable String afterTaskId, int pageSize);
+
+    /**
+     * Returns the tasks created, modified or deleted after {@code sinceVersion}. Pass
+     * {@link TasksDelta#NO_VERSION} to get every task.
+     */
+    Observable<TasksDelta> getTasksDelta(long sinceVersion);
+
+    /**
+     * Returns the tasks with a word of their title or description starting with each term of
+     * {@code query}, see {@link TasksSearchIndex#tokenize(String)} for how words are split. A
+     * query without any term matches no task.
+     */
+    Observable<List<Task>> searchTasks(@NonNull String query);
+
+    Observable<Void> saveTask(@NonNull Task task);
+
+    /**
+     * Saves all the given tasks at once: in a single transaction or request, with a single change
+     * notification.
+     */
+    Observable<Void> saveTasks(@NonNull Collection<Task> tasks);
+
+    /**
+     * Completes the task with the id of {@code task}, as the version stamped on {@code task}.
+     */
+    Observable<Void> completeTask(@NonNull Task task);
+
+    /**
+     * Completes all the tasks with the given ids at once, like {@link #saveTasks(Collection)}, as
+     * version {@code updatedAt}.
+     */
+    Observable<Void> completeTasks(@NonNull Collection<String> taskIds, long updatedAt);
+
+    /**
+     * Activates the task with the id of {@code task}, as the version stamped on {@code task}.
+     */
+    Observable<Void> activateTask(@NonNull Task task);
+
+    Observable<Void> clearCompletedTasks();
 
-    void completeTask(@NonNull Task task);
-
-    void completeTask(@NonNull String taskId);
-
-    void activateTask(@NonNull Task task);
-
-    void activateTask(@NonNull String taskId);
+    void refreshTasks();
 
-    void clearCompletedTasks();
+    Observable<Void> deleteAllTasks();
 
-    void refreshTasks();
+    Observable<Void> deleteTask(@NonNull String taskId);
 
-    void deleteAllTasks();
+    /**
+     * Deletes all the tasks with the given ids at once, like {@link #saveTasks(Collection)}.
+     */
+    Observable<Void> deleteTasks(@NonNull Collection<String> taskIds);
 
-    void deleteTask(@NonNull String taskId);
+    /**
+     * Returns an observable that completes once every write made so far is stored, whether or not
+     * they all succeeded, so that the reads started afterwards see them.
+     */
+    Observable<Void> whenWritten();
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable set of changes returned by {@link TasksDataSource#getTasksDelta(long)}: the tasks
+ * created or modified and the ids of the tasks deleted since a given version, along with the
+ * version to ask for next time.
+ */
+public final class TasksDelta {
+
+    /**
+     * Version to use when nothing has been synced yet. Asking for the changes since this version
+     * returns every task.
+     */
+    public static final long NO_VERSION = 0;
+
+    @NonNull
+    private final List<Task> mChangedTasks;
+
+    @NonNull
+    private final List<String> mDeletedTaskIds;
+
+    private final long mVersion;
+
+    /**
+     * @param changedTasks   tasks created or modified since the requested version
+     * @param deletedTaskIds ids of the tasks deleted since the requested version
+     * @param version        version of the data this delta brings the caller up to
+     */
+    public TasksDelta(@NonNull List<Task> changedTasks, @NonNull List<String> deletedTaskIds,
+                      long version) {
+        mChangedTasks = Collections.unmodifiableList(checkNotNull(changedTasks));
+        mDeletedTaskIds = Collections.unmodifiableList(checkNotNull(deletedTaskIds));
+        mVersion = version;
+    }
+
+    @NonNull
+    public List<Task> getChangedTasks() {
+        return mChangedTasks;
+    }
+
+    @NonNull
+    public List<String> getDeletedTaskIds() {
+        return mDeletedTaskIds;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public boolean isEmpty() {
+        return mChangedTasks.isEmpty() && mDeletedTaskIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "TasksDelta with " + mChangedTasks.size() + " changed and "
+                + mDeletedTaskIds.size() + " deleted tasks at version " + mVersion;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the metrics recorded by the {@link TasksRepository}, see
+ * {@link TasksRepository#setMetricsSink(TasksMetricsSink)}.
+ * <p/>
+ * Methods are called on whatever thread the repository is working on, often on the hot path of a
+ * read or write, so implementations should be thread-safe, fast and avoid allocating.
+ */
+public interface TasksMetricsSink {
+
+    /**
+     * The {@link TasksDataSource} methods, as called on the repository or by it on its sources.
+     */
+    enum Operation {
+        GET_TASKS,
+        GET_TASK,
+        GET_TASKS_PAGE,
+        GET_TASKS_DELTA,
+        SEARCH_TASKS,
+        SAVE_TASK,
+        SAVE_TASKS,
+        COMPLETE_TASK,
+        COMPLETE_TASKS,
+        ACTIVATE_TASK,
+        CLEAR_COMPLETED_TASKS,
+        REFRESH_TASKS,
+        DELETE_ALL_TASKS,
+        DELETE_TASK,
+        DELETE_TASKS
+    }
+
+    /**
+     * Where a read was served from, or where a write went to.
+     */
+    enum Source {
+        CACHE,
+        SNAPSHOT,
+        LOCAL,
+        REMOTE
+    }
+
+    enum Event {
+        /**
+         * A read went to the remote data source because a refresh had been requested.
+         */
+        FORCED_REMOTE_REFRESH,
+        LOCAL_DEADLINE_MISSED,
+        REMOTE_DEADLINE_MISSED,
+        /**
+         * A failed call to the remote data source is tried again.
+         */
+        REMOTE_RETRY,
+        /**
+         * A write to the local data source failed, whether or not a caller waits for it.
+         */
+        LOCAL_WRITE_FAILED,
+        CIRCUIT_OPENED,
+        CIRCUIT_HALF_OPENED,
+        CIRCUIT_CLOSED
+    }
+
+    /**
+     * Sink that ignores everything, used until another one is set.
+     */
+    TasksMetricsSink NONE = new TasksMetricsSink() {
+        @Override
+        public void recordCall(@NonNull Operation operation) {
+        }
+
+        @Override
+        public void recordLatency(@NonNull Operation operation, @NonNull Source source,
+                                  long latencyNanos) {
+        }
+
+        @Override
+        public void recordEvent(@NonNull Event event) {
+        }
+    };
+
+    /**
+     * Called every time {@code operation} is called on the repository.
+     */
+    void recordCall(@NonNull Operation operation);
+
+    /**
+     * Called when {@code source} has served a read, or has been written to, with the time it took.
+     * For a read, that is the time until the first result.
+     */
+    void recordLatency(@NonNull Operation operation, @NonNull Source source, long latencyNanos);
+
+    void recordEvent(@NonNull Event event);
+}
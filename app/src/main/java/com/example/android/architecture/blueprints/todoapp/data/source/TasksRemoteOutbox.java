@@ -0,0 +1,720 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.subjects.BehaviorSubject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Write-behind queue for the mutations the {@link TasksRepository} sends to the remote data
+ * source.
+ * <p/>
+ * Mutations are queued and flushed on a background {@link Scheduler}, after a delay that lets
+ * writes made in quick succession, such as a user toggling several tasks, be sent together, see
+ * {@link #setFlushDelay(long, TimeUnit)}. Everything queued while a flush is pending or in
+ * progress is sent with the next one, and mutations to the same task are
+ * collapsed into the one that produces the same final state, so toggling a task
+ * complete, active and complete again results in a single remote write. Clearing the completed
+ * tasks or deleting all of them act as barriers: writes queued before them are never reordered
+ * after them. When a flush sends several saves, completions or deletions, each kind goes out as a
+ * single bulk request.
+ * <p/>
+ * A write is sent once the previous one has been stored or has failed, as told by the observable
+ * the remote data source returns for it. A write that doesn't reach the remote data source, because
+ * it is unreachable or a {@link RemoteUnavailableException} says it shouldn't be called yet, stays
+ * first in the queue and is sent again later, with the writes queued meanwhile. A write the remote
+ * data source rejects is dropped, and reported to the {@link Listener} along with the writes it was
+ * collapsed with.
+ * <p/>
+ * The queue is only held in memory. What survives the process is the {@link PendingWrite} record
+ * a {@link PersistentTasksDataSource} keeps of each write, which the next session hands back to
+ * {@link #replay(List, Map)}.
+ */
+final class TasksRemoteOutbox {
+
+    static final long INITIAL_RETRY_DELAY_MILLIS = 500;
+
+    static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
+    /**
+     * Told on the outbox's {@link Scheduler} how the writes went. A count of writes is given
+     * because successive writes to a task may have been collapsed and sent as one.
+     */
+    interface Listener {
+
+        void onTaskWritesSent(@NonNull String taskId, int writeCount);
+
+        void onTaskWritesFailed(@NonNull String taskId, int writeCount, @NonNull Throwable error);
+
+        /**
+         * Told once a write to all the tasks has been stored, or rejected, which isn't reported
+         * otherwise.
+         */
+        void onGlobalWriteDone(@NonNull PendingWrite.Type type);
+    }
+
+    private final TasksDataSource mTasksRemoteDataSource;
+
+    private final Scheduler.Worker mWorker;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Queued writes, oldest first. Each element is either a {@link Map} of collapsed task writes
+     * keyed by task id, or a {@link GlobalWrite}. Guarded by {@link #mLock}.
+     */
+    private final ArrayDeque<Object> mQueue = new ArrayDeque<>();
+
+    /**
+     * The element of the queue being sent, if any. Guarded by {@link #mLock}.
+     */
+    @Nullable
+    private Object mSending;
+
+    /**
+     * Whether the queued writes wait for the ones of an earlier session, see
+     * {@link #holdUntilReplayed()}. Guarded by {@link #mLock}.
+     */
+    private boolean mHeld = false;
+
+    /**
+     * Whether a flush has been scheduled and hasn't finished yet. Guarded by {@link #mLock}.
+     */
+    private boolean mFlushing = false;
+
+    /**
+     * Whether the scheduled flush is a retry of writes that didn't reach the remote data source.
+     * Guarded by {@link #mLock}.
+     */
+    private boolean mWaitingToRetry = false;
+
+    /**
+     * Number of flushes in a row that couldn't reach the remote data source. Only used by flushes,
+     * which run one at a time.
+     */
+    private int mUnreachableCount = 0;
+
+    private final BehaviorSubject<Boolean> mIdle = BehaviorSubject.create(true);
+
+    private volatile TasksMetricsSink mMetricsSink = TasksMetricsSink.NONE;
+
+    private volatile long mFlushDelayMillis = 0;
+
+    @Nullable
+    private volatile Listener mListener;
+
+    private final Action0 mFlushAction = new Action0() {
+        @Override
+        public void call() {
+            flush();
+        }
+    };
+
+    TasksRemoteOutbox(@NonNull TasksDataSource tasksRemoteDataSource,
+                      @NonNull Scheduler scheduler) {
+        mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
+        mWorker = checkNotNull(scheduler).createWorker();
+    }
+
+    /**
+     * Sets the sink the latency of every remote write is recorded to.
+     */
+    void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mMetricsSink = checkNotNull(metricsSink);
+    }
+
+    /**
+     * Sets how long a flush waits after the first write queued for it. Defaults to no delay.
+     * Only applies to the flushes scheduled afterwards.
+     */
+    void setFlushDelay(long delay, @NonNull TimeUnit unit) {
+        checkArgument(delay >= 0, "delay must not be negative");
+        mFlushDelayMillis = checkNotNull(unit).toMillis(delay);
+    }
+
+    void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    void saveTask(@NonNull Task task) {
+        enqueue(new TaskWrite(TaskWrite.SAVE, checkNotNull(task)));
+    }
+
+    void saveTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        List<TaskWrite> writes = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            writes.add(new TaskWrite(TaskWrite.SAVE, checkNotNull(task)));
+        }
+        enqueueAll(writes);
+    }
+
+    /**
+     * Queues the completion of the task with the id of {@code task}, versioned as {@code task}.
+     */
+    void completeTask(@NonNull Task task) {
+        enqueue(new TaskWrite(TaskWrite.COMPLETE, checkNotNull(task)));
+    }
+
+    /**
+     * Queues the completion of the tasks with the given ids, versioned as {@code updatedAt}.
+     */
+    void completeTasks(@NonNull Collection<String> taskIds, long updatedAt) {
+        enqueueAll(taskWrites(TaskWrite.COMPLETE, taskIds, updatedAt));
+    }
+
+    /**
+     * Queues the activation of the task with the id of {@code task}, versioned as {@code task}.
+     */
+    void activateTask(@NonNull Task task) {
+        enqueue(new TaskWrite(TaskWrite.ACTIVATE, checkNotNull(task)));
+    }
+
+    void deleteTask(@NonNull String taskId) {
+        enqueue(new TaskWrite(TaskWrite.DELETE, checkNotNull(taskId), TaskWrite.NO_VERSION));
+    }
+
+    void deleteTasks(@NonNull Collection<String> taskIds) {
+        enqueueAll(taskWrites(TaskWrite.DELETE, taskIds, TaskWrite.NO_VERSION));
+    }
+
+    void clearCompletedTasks() {
+        enqueue(GlobalWrite.CLEAR_COMPLETED);
+    }
+
+    void deleteAllTasks() {
+        synchronized (mLock) {
+            // Nothing queued so far would survive the deletion.
+            mQueue.clear();
+        }
+        enqueue(GlobalWrite.DELETE_ALL);
+    }
+
+    /**
+     * Holds the writes queued from now on, until {@link #replay(List, Map)} has queued the ones an
+     * earlier session left unsent ahead of them.
+     */
+    void holdUntilReplayed() {
+        synchronized (mLock) {
+            mHeld = true;
+        }
+    }
+
+    /**
+     * Queues the writes an earlier session left unsent ahead of the ones queued since this outbox
+     * was created, and sends them all. The write to a saved task sends its stored copy in
+     * {@code storedTasks}, and is left out if there is none.
+     */
+    void replay(@NonNull List<PendingWrite> pendingWrites, @NonNull Map<String, Task> storedTasks) {
+        checkNotNull(storedTasks);
+        List<Object> writes = new ArrayList<>(checkNotNull(pendingWrites).size());
+        for (PendingWrite pendingWrite : pendingWrites) {
+            String taskId = pendingWrite.getTaskId();
+            switch (pendingWrite.getType()) {
+                case SAVE:
+                    Task task = storedTasks.get(taskId);
+                    if (task != null) {
+                        writes.add(new TaskWrite(TaskWrite.SAVE, taskId, task,
+                                pendingWrite.getWriteCount(), task.getUpdatedAt()));
+                    }
+                    break;
+                case DELETE:
+                    writes.add(new TaskWrite(TaskWrite.DELETE, taskId, null,
+                            pendingWrite.getWriteCount(), TaskWrite.NO_VERSION));
+                    break;
+                case CLEAR_COMPLETED:
+                    writes.add(GlobalWrite.CLEAR_COMPLETED);
+                    break;
+                case DELETE_ALL:
+                default:
+                    writes.add(GlobalWrite.DELETE_ALL);
+                    break;
+            }
+        }
+        boolean scheduleFlush;
+        synchronized (mLock) {
+            // Nothing replayed would survive a deletion of all the tasks queued meanwhile.
+            if (!mQueue.contains(GlobalWrite.DELETE_ALL)) {
+                ArrayDeque<Object> queue = new ArrayDeque<>();
+                for (Object write : writes) {
+                    addLast(queue, write);
+                }
+                // Not collapsed with the writes queued meanwhile, which stay after them.
+                queue.addAll(mQueue);
+                mQueue.clear();
+                mQueue.addAll(queue);
+            }
+            mHeld = false;
+            scheduleFlush = !mFlushing && !mQueue.isEmpty();
+            if (scheduleFlush) {
+                mFlushing = true;
+                mIdle.onNext(false);
+            }
+        }
+        if (scheduleFlush) {
+            mWorker.schedule(mFlushAction, mFlushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns an observable that emits once, as soon as no write is being sent to the remote data
+     * source: every queued write has been sent, or the remote data source couldn't be reached and
+     * the writes wait to be sent again.
+     */
+    Observable<Boolean> whenIdle() {
+        return mIdle
+                .filter(new Func1<Boolean, Boolean>() {
+                    @Override
+                    public Boolean call(Boolean idle) {
+                        return idle;
+                    }
+                })
+                .first();
+    }
+
+    /**
+     * Returns the ids of the tasks with writes queued or being sent.
+     */
+    @SuppressWarnings("unchecked")
+    Set<String> getPendingTaskIds() {
+        Set<String> taskIds = new HashSet<>();
+        synchronized (mLock) {
+            for (Object write : mQueue) {
+                if (write instanceof Map) {
+                    taskIds.addAll(((Map<String, TaskWrite>) write).keySet());
+                }
+            }
+            if (mSending instanceof Map) {
+                taskIds.addAll(((Map<String, TaskWrite>) mSending).keySet());
+            }
+        }
+        return taskIds;
+    }
+
+    private static List<TaskWrite> taskWrites(int type, Collection<String> taskIds,
+                                              long version) {
+        checkNotNull(taskIds);
+        List<TaskWrite> writes = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            writes.add(new TaskWrite(type, checkNotNull(taskId), version));
+        }
+        return writes;
+    }
+
+    private void enqueue(Object write) {
+        enqueueAll(Collections.singletonList(write));
+    }
+
+    /**
+     * Queues the given writes atomically, so they are all sent with the same flush.
+     */
+    private void enqueueAll(List<?> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        boolean scheduleFlush;
+        synchronized (mLock) {
+            for (Object write : writes) {
+                addLast(mQueue, write);
+            }
+            scheduleFlush = !mFlushing && !mHeld;
+            if (scheduleFlush) {
+                mFlushing = true;
+                mIdle.onNext(false);
+            }
+        }
+        if (scheduleFlush) {
+            mWorker.schedule(mFlushAction, mFlushDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds {@code write} at the end of {@code queue}, collapsing a task write with the last batch
+     * if it can be.
+     */
+    @SuppressWarnings("unchecked")
+    private static void addLast(ArrayDeque<Object> queue, Object write) {
+        if (write instanceof TaskWrite) {
+            TaskWrite taskWrite = (TaskWrite) write;
+            Map<String, TaskWrite> taskWrites;
+            if (queue.peekLast() instanceof Map) {
+                taskWrites = (Map<String, TaskWrite>) queue.peekLast();
+            } else {
+                taskWrites = new LinkedHashMap<>();
+                queue.addLast(taskWrites);
+            }
+            TaskWrite pending = taskWrites.get(taskWrite.mTaskId);
+            taskWrites.put(taskWrite.mTaskId,
+                    pending == null ? taskWrite : pending.collapse(taskWrite));
+        } else {
+            queue.addLast(write);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        synchronized (mLock) {
+            if (mWaitingToRetry) {
+                mWaitingToRetry = false;
+                mIdle.onNext(false);
+            }
+        }
+        while (true) {
+            Object write;
+            synchronized (mLock) {
+                write = mQueue.pollFirst();
+                if (write == null) {
+                    // Published under the lock so it can't overtake a newer write being queued.
+                    mFlushing = false;
+                    mIdle.onNext(true);
+                    return;
+                }
+                mSending = write;
+            }
+            boolean sent;
+            if (write instanceof Map) {
+                sent = sendBatch(((Map<String, TaskWrite>) write).values());
+            } else {
+                sent = sendGlobalWrite((GlobalWrite) write);
+            }
+            synchronized (mLock) {
+                // What is left of it is back in the queue if it wasn't all sent.
+                mSending = null;
+            }
+            if (!sent) {
+                return;
+            }
+            mUnreachableCount = 0;
+        }
+    }
+
+    /**
+     * Sends a write to all the tasks, unless the remote data source can't be reached, in which
+     * case it is queued to be sent again later.
+     *
+     * @return false if the write is queued to be sent again
+     */
+    private boolean sendGlobalWrite(GlobalWrite globalWrite) {
+        long startNanos = System.nanoTime();
+        try {
+            await(globalWrite.sendTo(mTasksRemoteDataSource));
+            recordLatency(globalWrite.mOperation, startNanos);
+        } catch (RuntimeException e) {
+            if (RemoteUnavailableException.isUnreachable(e)) {
+                retryLater(globalWrite, e);
+                return false;
+            }
+            // Only reported as done: the next refresh shows what the remote data source kept.
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onGlobalWriteDone(globalWrite.mType);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a batch of collapsed task writes, grouping them by kind, and the completions by
+     * version. The batch holds at most one write per task, so the groups can be sent in any
+     * order. If the remote data source can't be reached, the group that failed and the ones not
+     * sent yet are queued to be sent again later.
+     *
+     * @return false if some writes are queued to be sent again
+     */
+    private boolean sendBatch(Collection<TaskWrite> taskWrites) {
+        List<List<TaskWrite>> groups = new ArrayList<>();
+        List<Operation> operations = new ArrayList<>();
+        List<TaskWrite> saves = new ArrayList<>();
+        Map<Long, List<TaskWrite>> completionsByVersion = new LinkedHashMap<>();
+        List<TaskWrite> deletions = new ArrayList<>();
+        for (TaskWrite taskWrite : taskWrites) {
+            switch (taskWrite.mType) {
+                case TaskWrite.SAVE:
+                    saves.add(taskWrite);
+                    break;
+                case TaskWrite.COMPLETE:
+                    List<TaskWrite> completions = completionsByVersion.get(taskWrite.mVersion);
+                    if (completions == null) {
+                        completions = new ArrayList<>();
+                        completionsByVersion.put(taskWrite.mVersion, completions);
+                    }
+                    completions.add(taskWrite);
+                    break;
+                case TaskWrite.DELETE:
+                    deletions.add(taskWrite);
+                    break;
+                case TaskWrite.ACTIVATE:
+                default:
+                    groups.add(Collections.singletonList(taskWrite));
+                    operations.add(Operation.ACTIVATE_TASK);
+                    break;
+            }
+        }
+        groups.add(saves);
+        operations.add(saves.size() == 1 ? Operation.SAVE_TASK : Operation.SAVE_TASKS);
+        for (List<TaskWrite> completions : completionsByVersion.values()) {
+            groups.add(completions);
+            operations.add(
+                    completions.size() == 1 ? Operation.COMPLETE_TASK : Operation.COMPLETE_TASKS);
+        }
+        groups.add(deletions);
+        operations.add(deletions.size() == 1 ? Operation.DELETE_TASK : Operation.DELETE_TASKS);
+        for (int i = 0; i < groups.size(); i++) {
+            Throwable unreachable = sendGroup(groups.get(i), operations.get(i));
+            if (unreachable != null) {
+                Map<String, TaskWrite> unsent = new LinkedHashMap<>();
+                for (List<TaskWrite> group : groups.subList(i, groups.size())) {
+                    for (TaskWrite taskWrite : group) {
+                        unsent.put(taskWrite.mTaskId, taskWrite);
+                    }
+                }
+                retryLater(unsent, unreachable);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends writes of a single kind in one request, a bulk one if there are several, and reports
+     * the outcome to the listener, unless the remote data source couldn't be reached.
+     *
+     * @return the error the write failed with if the remote data source couldn't be reached,
+     * null otherwise
+     */
+    @Nullable
+    private Throwable sendGroup(List<TaskWrite> group, Operation operation) {
+        if (group.isEmpty()) {
+            return null;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            await(group.size() == 1
+                    ? group.get(0).sendTo(mTasksRemoteDataSource)
+                    : TaskWrite.sendAllTo(mTasksRemoteDataSource, group));
+        } catch (RuntimeException e) {
+            if (RemoteUnavailableException.isUnreachable(e)) {
+                return e;
+            }
+            Listener listener = mListener;
+            if (listener != null) {
+                for (TaskWrite taskWrite : group) {
+                    listener.onTaskWritesFailed(taskWrite.mTaskId, taskWrite.mCount, e);
+                }
+            }
+            return null;
+        }
+        recordLatency(operation, startNanos);
+        Listener listener = mListener;
+        if (listener != null) {
+            for (TaskWrite taskWrite : group) {
+                listener.onTaskWritesSent(taskWrite.mTaskId, taskWrite.mCount);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts {@code unsent} back first in the queue and schedules the flush that sends it again:
+     * when the remote data source says it will be called again if it did, otherwise after a delay
+     * that doubles with every flush in a row that couldn't reach it. Whatever is queued meanwhile
+     * is sent after it, and collapsed with it if it can be.
+     */
+    private void retryLater(Object unsent, Throwable error) {
+        mUnreachableCount++;
+        long delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS,
+                INITIAL_RETRY_DELAY_MILLIS << Math.min(mUnreachableCount - 1, 16));
+        RemoteUnavailableException unavailable =
+                RemoteUnavailableException.causeOfType(error, RemoteUnavailableException.class);
+        if (unavailable != null && unavailable.getRetryAfterMillis() > 0) {
+            delayMillis = unavailable.getRetryAfterMillis();
+        }
+        synchronized (mLock) {
+            mQueue.addFirst(unsent);
+            mWaitingToRetry = true;
+            // Nothing can be sent until then, so whoever waits for the queue shouldn't wait.
+            mIdle.onNext(true);
+        }
+        mWorker.schedule(mFlushAction, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a write to the remote data source to be stored, throwing the error it failed with
+     * if it didn't. Writes are sent one at a time so they can't overtake one another.
+     */
+    private static void await(Observable<Void> written) {
+        written.toBlocking().lastOrDefault(null);
+    }
+
+    private void recordLatency(Operation operation, long startNanos) {
+        mMetricsSink.recordLatency(operation, Source.REMOTE, System.nanoTime() - startNanos);
+    }
+
+    private enum GlobalWrite {
+        CLEAR_COMPLETED(Operation.CLEAR_COMPLETED_TASKS, PendingWrite.Type.CLEAR_COMPLETED),
+        DELETE_ALL(Operation.DELETE_ALL_TASKS, PendingWrite.Type.DELETE_ALL);
+
+        final Operation mOperation;
+
+        final PendingWrite.Type mType;
+
+        GlobalWrite(Operation operation, PendingWrite.Type type) {
+            mOperation = operation;
+            mType = type;
+        }
+
+        Observable<Void> sendTo(TasksDataSource dataSource) {
+            if (this == CLEAR_COMPLETED) {
+                return dataSource.clearCompletedTasks();
+            }
+            return dataSource.deleteAllTasks();
+        }
+    }
+
+    /**
+     * Pending write for a single task, already collapsed with the writes queued before it.
+     */
+    private static final class TaskWrite {
+
+        static final int SAVE = 0;
+
+        static final int COMPLETE = 1;
+
+        static final int ACTIVATE = 2;
+
+        static final int DELETE = 3;
+
+        /**
+         * Version of the deletions, which aren't versioned.
+         */
+        static final long NO_VERSION = 0;
+
+        final int mType;
+
+        final String mTaskId;
+
+        /**
+         * The task to write, or null for the writes made by id only.
+         */
+        final Task mTask;
+
+        /**
+         * Number of queued writes this one stands for.
+         */
+        final int mCount;
+
+        /**
+         * Version of the change made by the last of those writes.
+         */
+        final long mVersion;
+
+        TaskWrite(int type, Task task) {
+            this(type, task.getId(), task, 1, task.getUpdatedAt());
+        }
+
+        TaskWrite(int type, String taskId, long version) {
+            this(type, taskId, null, 1, version);
+        }
+
+        TaskWrite(int type, String taskId, Task task, int count, long version) {
+            mType = type;
+            mTaskId = taskId;
+            mTask = task;
+            mCount = count;
+            mVersion = version;
+        }
+
+        /**
+         * Returns the single write equivalent to this one followed by {@code next}.
+         */
+        TaskWrite collapse(TaskWrite next) {
+            if (mType == SAVE && (next.mType == COMPLETE || next.mType == ACTIVATE)) {
+                // Send the saved task with its final state, versioned by that change of state
+                // rather than by the time the writes are collapsed at.
+                Task task = new Task(mTask.getTitle(), mTask.getDescription(), mTaskId,
+                        next.mType == COMPLETE, Math.max(mTask.getUpdatedAt(), next.mVersion));
+                return new TaskWrite(SAVE, mTaskId, task, mCount + next.mCount, next.mVersion);
+            }
+            return new TaskWrite(next.mType, mTaskId, next.mTask, mCount + next.mCount,
+                    next.mVersion);
+        }
+
+        /**
+         * Sends writes of a single kind, other than {@link #ACTIVATE}, in one bulk request. The
+         * completions must all be of the same version.
+         */
+        static Observable<Void> sendAllTo(TasksDataSource dataSource, List<TaskWrite> taskWrites) {
+            int type = taskWrites.get(0).mType;
+            if (type == SAVE) {
+                List<Task> tasks = new ArrayList<>(taskWrites.size());
+                for (TaskWrite taskWrite : taskWrites) {
+                    tasks.add(taskWrite.mTask);
+                }
+                return dataSource.saveTasks(tasks);
+            }
+            List<String> taskIds = new ArrayList<>(taskWrites.size());
+            for (TaskWrite taskWrite : taskWrites) {
+                taskIds.add(taskWrite.mTaskId);
+            }
+            if (type == COMPLETE) {
+                return dataSource.completeTasks(taskIds, taskWrites.get(0).mVersion);
+            }
+            return dataSource.deleteTasks(taskIds);
+        }
+
+        Observable<Void> sendTo(TasksDataSource dataSource) {
+            switch (mType) {
+                case SAVE:
+                    return dataSource.saveTask(mTask);
+                case COMPLETE:
+                    if (mTask != null) {
+                        return dataSource.completeTask(mTask);
+                    }
+                    return dataSource.completeTasks(Collections.singletonList(mTaskId), mVersion);
+                case ACTIVATE:
+                    return dataSource.activateTask(mTask);
+                case DELETE:
+                default:
+                    return dataSource.deleteTask(mTaskId);
+            }
+        }
+    }
+}
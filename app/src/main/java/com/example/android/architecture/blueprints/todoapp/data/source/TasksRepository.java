@@ -20,17 +20,38 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import rx.Observable;
+import rx.Observer;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.functions.Func1;
+import rx.observables.ConnectableObservable;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -38,7 +59,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p/>
  * For simplicity, this implements a dumb synchronisation between locally persisted data and data
  * obtained from the server, by using the remote data source only if the local database doesn't
- * exist or is empty.
+ * exist or is empty. Refreshes only transfer and persist the tasks that changed remotely since the
+ * previous refresh, and a task changed both locally and remotely keeps the copy with the latest
+ * {@link Task#getUpdatedAt() version}. Writes reach the remote data source in the background,
+ * through a {@link TasksRemoteOutbox}. Those a {@link PersistentTasksDataSource} still records as
+ * pending when the process ends are sent again by the next one, before its first refresh. The
+ * cache keeps every task listed but only holds on to as many descriptions as fit in its memory
+ * budget, see {@link TasksCache}.
+ * <p/>
+ * Completing and activating tasks is optimistic: the cache shows the change right away, and if
+ * the remote data source then fails it, the task is put back in its previous state in the cache
+ * and the local data source and a {@link TaskRollback} is emitted, see {@link #getRollbacks()}.
  */
 public class TasksRepository implements TasksDataSource {
 
@@ -48,22 +79,185 @@ public class TasksRepository implements TasksDataSource {
 
     private final TasksDataSource mTasksLocalDataSource;
 
+    /**
+     * The local data source if it can store the synced changes along with their version, null
+     * otherwise.
+     */
+    @Nullable
+    private final PersistentTasksDataSource mPersistentLocalDataSource;
+
+    private final BaseSchedulerProvider mSchedulerProvider;
+
+    /**
+     * Queues the writes to the remote data source so they don't block the caller and so
+     * successive writes to the same task are sent as one. Writes are queued after the local data
+     * source has been given them, so a {@link PersistentTasksDataSource} records them as pending
+     * before they can be forgotten as sent.
+     */
+    private final TasksRemoteOutbox mRemoteOutbox;
+
+    /**
+     * Completes once the writes an earlier session left pending are queued ahead of the others.
+     */
+    private final Observable<Void> mPendingWritesReplayed;
+
     /**
      * This variable has package local visibility so it can be accessed from tests.
      */
-    Map<String, Task> mCachedTasks;
+    final TasksCache mCachedTasks = new TasksCache();
 
     /**
      * Marks the cache as invalid, to force an update the next time data is requested. This variable
      * has package local visibility so it can be accessed from tests.
      */
-    boolean mCacheIsDirty = false;
+    volatile boolean mCacheIsDirty = false;
+
+    /**
+     * Remote refresh shared by all the callers that need it while it is in flight.
+     */
+    @Nullable
+    private Observable<List<Task>> mRemoteRefresh;
+
+    /**
+     * Version of the remote data at the last sync of this session, used to only fetch what changed
+     * since. A {@link PersistentTasksDataSource} also stores it, for the next sessions.
+     */
+    private volatile long mLastSyncVersion = TasksDelta.NO_VERSION;
+
+    private final AtomicInteger mRemoteRefreshCallers = new AtomicInteger();
+
+    private final AtomicInteger mRemoteRefreshFetches = new AtomicInteger();
+
+    private volatile FetchStrategy mFetchStrategy = FetchStrategy.SEQUENTIAL;
+
+    private volatile AbandonedRefreshPolicy mAbandonedRefreshPolicy =
+            AbandonedRefreshPolicy.CANCEL;
+
+    @Nullable
+    private volatile TasksSnapshot mWarmStartSnapshot;
+
+    /**
+     * Whether no page has been read from the data sources yet, in which case the warm-start
+     * snapshot is the fastest way to show the first one.
+     */
+    private volatile boolean mWarmStarting = true;
+
+    private volatile TasksMetricsSink mMetricsSink = TasksMetricsSink.NONE;
+
+    /**
+     * Completed state of the tasks completed or activated optimistically whose remote writes
+     * aren't confirmed yet, by task id. The first state is the one last confirmed by the remote
+     * data source, followed by the one set by each write still in flight. Guarded by itself, which
+     * is also held while these tasks are written to the cache and the local data source.
+     */
+    private final Map<String, List<Boolean>> mUnconfirmedCompletions = new HashMap<>();
+
+    /**
+     * Serialized as rollbacks are emitted from the threads the local writes complete on.
+     */
+    private final Subject<TaskRollback, TaskRollback> mRollbacks =
+            PublishSubject.<TaskRollback>create().toSerialized();
 
     // Prevent direct instantiation.
     private TasksRepository(@NonNull TasksDataSource tasksRemoteDataSource,
-                            @NonNull TasksDataSource tasksLocalDataSource) {
+                            @NonNull TasksDataSource tasksLocalDataSource,
+                            @NonNull BaseSchedulerProvider schedulerProvider) {
         mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
         mTasksLocalDataSource = checkNotNull(tasksLocalDataSource);
+        mPersistentLocalDataSource = tasksLocalDataSource instanceof PersistentTasksDataSource
+                ? (PersistentTasksDataSource) tasksLocalDataSource : null;
+        mSchedulerProvider = checkNotNull(schedulerProvider);
+        mRemoteOutbox = new TasksRemoteOutbox(mTasksRemoteDataSource, mSchedulerProvider.io());
+        mRemoteOutbox.setListener(new TasksRemoteOutbox.Listener() {
+            @Override
+            public void onTaskWritesSent(@NonNull String taskId, int writeCount) {
+                confirmCompletions(taskId, writeCount);
+                forgetTaskWrites(taskId, writeCount);
+            }
+
+            @Override
+            public void onTaskWritesFailed(@NonNull String taskId, int writeCount,
+                                           @NonNull Throwable error) {
+                rollBackCompletions(taskId, writeCount, error);
+                forgetTaskWrites(taskId, writeCount);
+            }
+
+            @Override
+            public void onGlobalWriteDone(@NonNull PendingWrite.Type type) {
+                if (mPersistentLocalDataSource != null) {
+                    mPersistentLocalDataSource.forgetGlobalWrite(type);
+                }
+            }
+        });
+        if (mPersistentLocalDataSource != null) {
+            mRemoteOutbox.holdUntilReplayed();
+            mPendingWritesReplayed = replayPendingWrites(mPersistentLocalDataSource);
+            // Started right away, so the writes are sent even if nothing is ever refreshed.
+            mPendingWritesReplayed.subscribe();
+        } else {
+            mPendingWritesReplayed = Observable.empty();
+        }
+    }
+
+    /**
+     * Hands the outbox the writes an earlier session left pending, along with the stored copies of
+     * the tasks they save. Those are cached unless a newer copy already is, so a sync doesn't
+     * delete them before they are sent. If the pending writes can't be read, the outbox sends the
+     * writes of this session alone.
+     */
+    private Observable<Void> replayPendingWrites(final PersistentTasksDataSource localDataSource) {
+        return localDataSource.getPendingWrites()
+                .flatMap(new Func1<List<PendingWrite>, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(final List<PendingWrite> pendingWrites) {
+                        List<String> savedTaskIds = new ArrayList<>();
+                        for (PendingWrite pendingWrite : pendingWrites) {
+                            if (pendingWrite.getType() == PendingWrite.Type.SAVE) {
+                                savedTaskIds.add(pendingWrite.getTaskId());
+                            }
+                        }
+                        Observable<List<Task>> storedTasks = savedTaskIds.isEmpty()
+                                ? Observable.just(Collections.<Task>emptyList())
+                                : localDataSource.getStoredTasks(savedTaskIds);
+                        return storedTasks.map(new Func1<List<Task>, Void>() {
+                            @Override
+                            public Void call(List<Task> tasks) {
+                                queuePendingWrites(localDataSource, pendingWrites, tasks);
+                                return null;
+                            }
+                        });
+                    }
+                })
+                .onErrorResumeNext(new Func1<Throwable, Observable<Void>>() {
+                    @Override
+                    public Observable<Void> call(Throwable e) {
+                        mRemoteOutbox.replay(Collections.<PendingWrite>emptyList(),
+                                Collections.<String, Task>emptyMap());
+                        return Observable.empty();
+                    }
+                })
+                .ignoreElements()
+                .cache();
+    }
+
+    private void queuePendingWrites(PersistentTasksDataSource localDataSource,
+                                    List<PendingWrite> pendingWrites, List<Task> storedTasks) {
+        Map<String, Task> storedTasksById = new HashMap<>();
+        for (Task task : storedTasks) {
+            storedTasksById.put(task.getId(), task);
+            if (mCachedTasks.peek(task.getId()) == null) {
+                mCachedTasks.put(task);
+            }
+        }
+        for (PendingWrite pendingWrite : pendingWrites) {
+            if (pendingWrite.getType() == PendingWrite.Type.SAVE
+                    && !storedTasksById.containsKey(pendingWrite.getTaskId())) {
+                // Cleared since, along with the other completed tasks, which is sent on its own.
+                localDataSource.forgetTaskWrites(pendingWrite.getTaskId(),
+                        pendingWrite.getWriteCount());
+            }
+        }
+        mRemoteOutbox.replay(pendingWrites, storedTasksById);
     }
 
     /**
@@ -71,217 +265,1122 @@ public class TasksRepository implements TasksDataSource {
      *
      * @param tasksRemoteDataSource the backend data source
      * @param tasksLocalDataSource  the device storage data source
+     * @param schedulerProvider     the schedulers background work is done on
      * @return the {@link TasksRepository} instance
      */
     public static TasksRepository getInstance(TasksDataSource tasksRemoteDataSource,
-                                              TasksDataSource tasksLocalDataSource) {
+                                              TasksDataSource tasksLocalDataSource,
+                                              BaseSchedulerProvider schedulerProvider) {
         if (INSTANCE == null) {
-            INSTANCE = new TasksRepository(tasksRemoteDataSource, tasksLocalDataSource);
+            INSTANCE = new TasksRepository(tasksRemoteDataSource, tasksLocalDataSource,
+                    schedulerProvider);
         }
         return INSTANCE;
     }
 
     /**
-     * Used to force {@link #getInstance(TasksDataSource, TasksDataSource)} to create a new instance
-     * next time it's called.
+     * Used to force {@link #getInstance(TasksDataSource, TasksDataSource, BaseSchedulerProvider)}
+     * to create a new instance next time it's called.
      */
     public static void destroyInstance() {
         INSTANCE = null;
     }
 
+    /**
+     * Sets how the data sources are read when the cache can't answer. Defaults to
+     * {@link FetchStrategy#SEQUENTIAL}. A {@link ResilientTasksDataSource} given as the remote
+     * data source applies the remote deadline itself, so that its circuit breaker counts the
+     * reads that miss it as failures.
+     */
+    public void setFetchStrategy(@NonNull FetchStrategy fetchStrategy) {
+        mFetchStrategy = checkNotNull(fetchStrategy);
+        if (mTasksRemoteDataSource instanceof ResilientTasksDataSource) {
+            ((ResilientTasksDataSource) mTasksRemoteDataSource).setReadDeadline(
+                    fetchStrategy.getRemoteDeadlineMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sets what happens to a remote refresh nobody waits for anymore. Defaults to
+     * {@link AbandonedRefreshPolicy#CANCEL}. Only applies to the refreshes started afterwards.
+     */
+    public void setAbandonedRefreshPolicy(@NonNull AbandonedRefreshPolicy policy) {
+        mAbandonedRefreshPolicy = checkNotNull(policy);
+    }
+
+    /**
+     * Sets how long writes wait before being sent to the remote data source, so the writes made
+     * meanwhile are sent with them. Defaults to no delay. A refresh waits for the queued writes to
+     * be sent, so it may be delayed as much.
+     */
+    public void setRemoteWriteDelay(long delay, @NonNull TimeUnit unit) {
+        mRemoteOutbox.setFlushDelay(delay, unit);
+    }
+
+    /**
+     * Sets the sink every call, read and write is recorded to, to see where the tasks are served
+     * from and how long each data source takes. Defaults to {@link TasksMetricsSink#NONE}. A
+     * {@link ResilientTasksDataSource} given as the remote data source records its retries and
+     * circuit breaker transitions to the same sink. The local writes are recorded by the local
+     * data source if it is a {@link PersistentTasksDataSource}, and not at all otherwise.
+     */
+    public void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mMetricsSink = checkNotNull(metricsSink);
+        mRemoteOutbox.setMetricsSink(metricsSink);
+        if (mTasksRemoteDataSource instanceof ResilientTasksDataSource) {
+            ((ResilientTasksDataSource) mTasksRemoteDataSource).setMetricsSink(metricsSink);
+        }
+        if (mPersistentLocalDataSource != null) {
+            mPersistentLocalDataSource.setMetricsSink(metricsSink);
+        }
+    }
+
+    /**
+     * Same as {@link #setWarmStartSnapshot(File, long, TimeUnit)}, rewriting the snapshot without
+     * delay.
+     */
+    public void setWarmStartSnapshot(@NonNull File file) {
+        setWarmStartSnapshot(file, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps a binary snapshot of the cached tasks in {@code file}, rewritten in the background
+     * when they change, and uses it to show the first page of tasks on the next cold start, see
+     * {@link #getTasksPage(String, int)}. A rewrite waits {@code writeDelay} after the first
+     * change, so all the changes made meanwhile are written at once, and the tasks are only copied
+     * when it runs, on the io scheduler. Has no effect if a snapshot file was already set.
+     */
+    public synchronized void setWarmStartSnapshot(@NonNull File file, long writeDelay,
+                                                  @NonNull TimeUnit unit) {
+        checkNotNull(file);
+        if (mWarmStartSnapshot != null) {
+            return;
+        }
+        final TasksSnapshot snapshot = new TasksSnapshot(file, mSchedulerProvider.io());
+        snapshot.setWriteDelay(writeDelay, unit);
+        final Func0<List<Task>> cachedTasks = new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                return mCachedTasks.snapshot();
+            }
+        };
+        // The writing thread only queues the write: the tasks are copied when it runs.
+        mCachedTasks.changesAsObservable().subscribe(new Action1<Void>() {
+            @Override
+            public void call(Void ignored) {
+                snapshot.write(cachedTasks);
+            }
+        });
+        mWarmStartSnapshot = snapshot;
+    }
+
     /**
      * Gets tasks from cache, local data source (SQLite) or remote data source, whichever is
-     * available first.
+     * available first. The data sources are read according to the {@link FetchStrategy}.
      */
     @Override
     public Observable<List<Task>> getTasks() {
+        mMetricsSink.recordCall(Operation.GET_TASKS);
+        long startNanos = System.nanoTime();
         // Respond immediately with cache if available and not dirty
-        if (mCachedTasks != null && !mCacheIsDirty) {
-            return Observable.from(mCachedTasks.values()).toList();
-        } else if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+        if (mCachedTasks.isLoaded() && !mCacheIsDirty) {
+            List<Task> cachedTasks = mCachedTasks.snapshot();
+            recordLatency(Operation.GET_TASKS, Source.CACHE, startNanos);
+            return Observable.just(cachedTasks);
         }
 
-        Observable<List<Task>> remoteTasks = mTasksRemoteDataSource
-                .getTasks()
-                .flatMap(new Func1<List<Task>, Observable<Task>>() {
+        Observable<List<Task>> remoteTasks =
+                timed(getRemoteRefresh(), Operation.GET_TASKS, Source.REMOTE);
+        Func0<Observable<List<Task>>> localTasks = new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                return timed(getLocalTasks(), Operation.GET_TASKS, Source.LOCAL);
+            }
+        };
+        if (mCacheIsDirty) {
+            mMetricsSink.recordEvent(Event.FORCED_REMOTE_REFRESH);
+            return orLocalIfRemoteUnavailable(remoteTasks, localTasks);
+        } else {
+            // Query the local storage if available. If not, query the network.
+            return firstAvailable(localTasks.call(), remoteTasks);
+        }
+    }
+
+    /**
+     * Stale-while-revalidate variant of {@link #getTasks()}: emits the cached or locally persisted
+     * tasks right away, if there are any, and then the cached tasks again once they have been
+     * reconciled with the remote data source. The local read and the remote request are started
+     * together, so the time to first content only depends on the local read.
+     */
+    public Observable<List<Task>> getTasksAndRevalidate() {
+        Observable<List<Task>> staleTasks = mCachedTasks.isLoaded()
+                ? Observable.just(mCachedTasks.snapshot())
+                : getLocalTasks();
+        return Observable.concatEager(staleTasks, getRemoteRefresh());
+    }
+
+    /**
+     * Gets a page of tasks from the local data source, see
+     * {@link TasksDataSource#getTasksPage(String, int)}. Pages bypass the cache so the whole list
+     * doesn't have to be read or held in memory to show its beginning.
+     * <p/>
+     * The local data source is synced with the remote one first if it has no first page to
+     * return, using the same shared refresh as {@link #getTasks()}. If a refresh was requested, the
+     * persisted page is emitted right away and then again once synced, as with
+     * {@link #getTasksAndRevalidate()}. Until then, the first page is emitted from the warm-start
+     * snapshot first, if there is one, see {@link #setWarmStartSnapshot(File)}.
+     */
+    @Override
+    public Observable<List<Task>> getTasksPage(@Nullable String afterTaskId, int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        mMetricsSink.recordCall(Operation.GET_TASKS_PAGE);
+        Observable<List<Task>> storedPage = getStoredTasksPage(afterTaskId, pageSize);
+        final TasksSnapshot warmStartSnapshot = mWarmStartSnapshot;
+        if (afterTaskId != null || warmStartSnapshot == null || !mWarmStarting) {
+            return storedPage;
+        }
+        final int firstPageSize = pageSize;
+        Observable<List<Task>> snapshotPage = Observable.defer(
+                new Func0<Observable<List<Task>>>() {
                     @Override
-                    public Observable<Task> call(List<Task> tasks) {
-                        return Observable.from(tasks);
+                    public Observable<List<Task>> call() {
+                        List<Task> tasks = warmStartSnapshot.readPage(null, firstPageSize);
+                        return tasks.isEmpty()
+                                ? Observable.<List<Task>>empty()
+                                : Observable.just(tasks);
                     }
-                })
-                .doOnNext(new Action1<Task>() {
+                });
+        // Both are read at once, so the stored page is as fast as it would be without the snapshot.
+        return Observable.concatEager(
+                timed(snapshotPage, Operation.GET_TASKS_PAGE, Source.SNAPSHOT), storedPage
+                .doOnNext(new Action1<List<Task>>() {
                     @Override
-                    public void call(Task task) {
-                        mTasksLocalDataSource.saveTask(task);
-                        mCachedTasks.put(task.getId(), task);
+                    public void call(List<Task> tasks) {
+                        mWarmStarting = false;
                     }
-                })
-                .toList()
-                .doOnCompleted(new Action0() {
+                }));
+    }
+
+    private Observable<List<Task>> getStoredTasksPage(@Nullable final String afterTaskId,
+                                                      final int pageSize) {
+        Observable<List<Task>> syncedPage = getRemoteRefresh()
+                .flatMap(new Func1<List<Task>, Observable<List<Task>>>() {
                     @Override
-                    public void call() {
-                        mCacheIsDirty = false;
+                    public Observable<List<Task>> call(List<Task> tasks) {
+                        // Read once the synced tasks have been persisted.
+                        return getLocalTasksPage(afterTaskId, pageSize);
                     }
                 });
+        syncedPage = timed(syncedPage, Operation.GET_TASKS_PAGE, Source.REMOTE);
+        Func0<Observable<List<Task>>> localPages = new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                return timed(getLocalTasksPage(afterTaskId, pageSize), Operation.GET_TASKS_PAGE,
+                        Source.LOCAL);
+            }
+        };
+        Observable<List<Task>> localPage = localPages.call();
         if (mCacheIsDirty) {
-            return remoteTasks;
+            mMetricsSink.recordEvent(Event.FORCED_REMOTE_REFRESH);
+            Observable<List<Task>> stalePage = withLocalDeadline(localPage);
+            if (afterTaskId == null) {
+                stalePage = stalePage.filter(new Func1<List<Task>, Boolean>() {
+                    @Override
+                    public Boolean call(List<Task> tasks) {
+                        return !tasks.isEmpty();
+                    }
+                });
+            }
+            // Already emitted, the stale page is all there is if the remote data source is
+            // unavailable.
+            return Observable.concatEager(stalePage,
+                    orLocalIfRemoteUnavailable(syncedPage, new Func0<Observable<List<Task>>>() {
+                        @Override
+                        public Observable<List<Task>> call() {
+                            return Observable.empty();
+                        }
+                    }));
+        }
+        if (afterTaskId != null) {
+            return localPage;
+        }
+        // An empty first page means nothing has been persisted yet.
+        return firstAvailable(withLocalDeadline(localPage)
+                .filter(new Func1<List<Task>, Boolean>() {
+                    @Override
+                    public Boolean call(List<Task> tasks) {
+                        return !tasks.isEmpty();
+                    }
+                }), syncedPage);
+    }
+
+    /**
+     * Reads a page of the tasks persisted in the local data source once the writes queued so far
+     * have been stored, so it holds the tasks saved before it was asked for.
+     */
+    private Observable<List<Task>> getLocalTasksPage(@Nullable final String afterTaskId,
+                                                     final int pageSize) {
+        return mTasksLocalDataSource.whenWritten()
+                .lastOrDefault(null)
+                .flatMap(new Func1<Void, Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call(Void written) {
+                        return mTasksLocalDataSource.getTasksPage(afterTaskId, pageSize).take(1);
+                    }
+                });
+    }
+
+    /**
+     * Reads the tasks persisted in the local data source once, caching them unless fresher tasks
+     * made it to the cache first. Completes without emitting if there are none.
+     */
+    private Observable<List<Task>> getLocalTasks() {
+        return withLocalDeadline(mTasksLocalDataSource.getTasks().take(1))
+                .filter(new Func1<List<Task>, Boolean>() {
+                    @Override
+                    public Boolean call(List<Task> tasks) {
+                        return !tasks.isEmpty();
+                    }
+                })
+                .doOnNext(new Action1<List<Task>>() {
+                    @Override
+                    public void call(List<Task> tasks) {
+                        mCachedTasks.putAllIfNotLoaded(tasks);
+                    }
+                });
+    }
+
+    /**
+     * Returns the remote refresh currently in flight, or creates one. All concurrent callers share
+     * a single request to the remote data source and a single write-back to the local one. When
+     * the last of them unsubscribes, the refresh is cancelled or left to finish according to the
+     * {@link AbandonedRefreshPolicy}.
+     */
+    private synchronized Observable<List<Task>> getRemoteRefresh() {
+        if (mRemoteRefresh == null) {
+            // Set once built, before this lock is released and anything can clear it.
+            final AtomicReference<Observable<List<Task>>> builtRefresh = new AtomicReference<>();
+            final Action0 clearRemoteRefresh = new Action0() {
+                @Override
+                public void call() {
+                    clearRemoteRefresh(builtRefresh.get());
+                }
+            };
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            // Pending writes, those of an earlier session included, are sent first so the refresh
+            // doesn't bring back their old state.
+            ConnectableObservable<List<Task>> remoteRefresh = mPendingWritesReplayed
+                    .lastOrDefault(null)
+                    .flatMap(new Func1<Void, Observable<Boolean>>() {
+                        @Override
+                        public Observable<Boolean> call(Void replayed) {
+                            return mRemoteOutbox.whenIdle();
+                        }
+                    })
+                    .flatMap(new Func1<Boolean, Observable<Long>>() {
+                        @Override
+                        public Observable<Long> call(Boolean idle) {
+                            return getSinceVersion();
+                        }
+                    })
+                    .flatMap(new Func1<Long, Observable<List<Task>>>() {
+                        @Override
+                        public Observable<List<Task>> call(Long sinceVersion) {
+                            final boolean fullSync = sinceVersion == TasksDelta.NO_VERSION;
+                            final long syncStartMillis = System.currentTimeMillis();
+                            return timed(withRemoteDeadline(
+                                    mTasksRemoteDataSource.getTasksDelta(sinceVersion)),
+                                    Operation.GET_TASKS_DELTA, Source.REMOTE)
+                                    .filter(new Func1<TasksDelta, Boolean>() {
+                                        @Override
+                                        public Boolean call(TasksDelta delta) {
+                                            // Unsubscribing doesn't stop a delta that was already
+                                            // on its way.
+                                            return !cancelled.get();
+                                        }
+                                    })
+                                    .flatMap(new Func1<TasksDelta, Observable<List<Task>>>() {
+                                        @Override
+                                        public Observable<List<Task>> call(TasksDelta delta) {
+                                            return syncRemoteDelta(delta, fullSync,
+                                                    syncStartMillis);
+                                        }
+                                    });
+                        }
+                    })
+                    .doOnSubscribe(new Action0() {
+                        @Override
+                        public void call() {
+                            mRemoteRefreshFetches.incrementAndGet();
+                        }
+                    })
+                    .doOnCompleted(new Action0() {
+                        @Override
+                        public void call() {
+                            mCacheIsDirty = false;
+                        }
+                    })
+                    .doOnTerminate(clearRemoteRefresh)
+                    .doOnUnsubscribe(new Action0() {
+                        @Override
+                        public void call() {
+                            cancelled.set(true);
+                            clearRemoteRefresh(builtRefresh.get());
+                        }
+                    })
+                    .replay(1);
+            if (mAbandonedRefreshPolicy == AbandonedRefreshPolicy.DETACH) {
+                // Connected until it terminates, whoever is subscribed.
+                mRemoteRefresh = remoteRefresh.autoConnect();
+            } else {
+                mRemoteRefresh = remoteRefresh.refCount();
+            }
+            builtRefresh.set(mRemoteRefresh);
+        }
+        return mRemoteRefresh.doOnSubscribe(new Action0() {
+            @Override
+            public void call() {
+                mRemoteRefreshCallers.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Returns the version to ask the remote data source for the changes since: that of the last
+     * sync if the cache holds everything else, or {@link TasksDelta#NO_VERSION} to get every
+     * task. On the first sync of a session, the version is the one a
+     * {@link PersistentTasksDataSource} stored along with the tasks the cache was loaded from.
+     */
+    private Observable<Long> getSinceVersion() {
+        long lastSyncVersion = mLastSyncVersion;
+        if (!mCachedTasks.isLoaded()) {
+            return Observable.just(TasksDelta.NO_VERSION);
+        }
+        if (lastSyncVersion != TasksDelta.NO_VERSION || mPersistentLocalDataSource == null) {
+            return Observable.just(lastSyncVersion);
+        }
+        return mPersistentLocalDataSource.whenWritten()
+                .lastOrDefault(null)
+                .flatMap(new Func1<Void, Observable<Long>>() {
+                    @Override
+                    public Observable<Long> call(Void written) {
+                        return mPersistentLocalDataSource.getSyncVersion().take(1);
+                    }
+                });
+    }
+
+    /**
+     * Applies {@code delta} once the stored copies of its tasks have been read, if the cache
+     * doesn't hold them, and emits the cached tasks.
+     */
+    private Observable<List<Task>> syncRemoteDelta(final TasksDelta delta, final boolean fullSync,
+                                                   final long syncStartMillis) {
+        return getUncachedStoredTasks(delta)
+                .map(new Func1<List<Task>, List<Task>>() {
+                    @Override
+                    public List<Task> call(List<Task> storedTasks) {
+                        applyRemoteDelta(delta, storedTasks, fullSync, syncStartMillis);
+                        return mCachedTasks.snapshot();
+                    }
+                });
+    }
+
+    /**
+     * Reads the stored copies of the tasks changed in {@code delta} that the cache doesn't hold,
+     * unless it is loaded: they can only be stored if the cache isn't. Emits no tasks if the read
+     * misses the local deadline.
+     */
+    private Observable<List<Task>> getUncachedStoredTasks(TasksDelta delta) {
+        List<String> taskIds = new ArrayList<>();
+        if (!mCachedTasks.isLoaded()) {
+            for (Task remoteTask : delta.getChangedTasks()) {
+                if (mCachedTasks.peek(remoteTask.getId()) == null) {
+                    taskIds.add(remoteTask.getId());
+                }
+            }
+        }
+        if (taskIds.isEmpty()) {
+            return Observable.just(Collections.<Task>emptyList());
+        }
+        Observable<List<Task>> storedTasks;
+        if (mPersistentLocalDataSource != null) {
+            storedTasks = mPersistentLocalDataSource.getStoredTasks(taskIds);
         } else {
-            // Query the local storage if available. If not, query the network.
-            Observable<List<Task>> localTasks = mTasksLocalDataSource.getTasks();
-            return Observable.concat(localTasks, remoteTasks).first();
+            storedTasks = Observable.from(taskIds)
+                    .concatMap(new Func1<String, Observable<Task>>() {
+                        @Override
+                        public Observable<Task> call(String taskId) {
+                            return mTasksLocalDataSource.getTask(taskId).take(1);
+                        }
+                    })
+                    .filter(new Func1<Task, Boolean>() {
+                        @Override
+                        public Boolean call(Task task) {
+                            return task != null;
+                        }
+                    })
+                    .toList();
         }
+        return withLocalDeadline(storedTasks).defaultIfEmpty(Collections.<Task>emptyList());
     }
 
-    @Override
-    public void saveTask(@NonNull Task task) {
-        checkNotNull(task);
-        mTasksRemoteDataSource.saveTask(task);
-        mTasksLocalDataSource.saveTask(task);
+    /**
+     * Writes the changes reported by the remote data source to the local data source and the cache.
+     * Tasks that didn't change since the last sync are neither transferred nor written, and the
+     * others are written with one bulk call per kind of change. A
+     * {@link PersistentTasksDataSource} stores them along with the version of the delta, in a
+     * single transaction.
+     * <p/>
+     * A full sync brings every remote task, so the tasks missing from it were deleted remotely and
+     * are deleted locally too, unless they have writes still to be sent or were changed after the
+     * sync started: they are missing because the remote data source doesn't have them yet.
+     * <p/>
+     * Conflicts are resolved in a single pass over the changed tasks, each looked up in the cache,
+     * which holds the latest local copy of every task written through this repository, or else
+     * among {@code storedTasks}: a remote task only replaces the local one if its version is
+     * later, so a remote task with the same version as the local one isn't written at all.
+     * Deletions always win, as the remote data source doesn't keep the version of deleted tasks.
+     * <p/>
+     * Until the cache is loaded, which the first sync of a session does, the tasks stored by
+     * earlier sessions are only in {@code storedTasks}. A stored task newer than the remote one
+     * was changed by a session whose writes haven't reached the remote data source yet: it is
+     * kept, and cached along with the remote changes. If the stored tasks couldn't be read in
+     * time, the remote tasks are cached, but a {@link PersistentTasksDataSource} still doesn't
+     * store them over newer ones.
+     */
+    private void applyRemoteDelta(TasksDelta delta, List<Task> storedTasks, boolean fullSync,
+                                  long syncStartMillis) {
+        Map<String, Task> storedTasksById = new HashMap<>(storedTasks.size());
+        for (Task storedTask : storedTasks) {
+            storedTasksById.put(storedTask.getId(), storedTask);
+        }
+        List<Task> changedTasks = delta.getChangedTasks();
+        List<Task> newerTasks = new ArrayList<>(changedTasks.size());
+        List<Task> tasksToCache = new ArrayList<>(changedTasks.size());
+        for (Task remoteTask : changedTasks) {
+            Task localTask = mCachedTasks.peek(remoteTask.getId());
+            Task storedTask = localTask == null ? storedTasksById.get(remoteTask.getId()) : null;
+            if (storedTask != null) {
+                localTask = storedTask;
+            }
+            if (localTask == null || remoteTask.getUpdatedAt() > localTask.getUpdatedAt()) {
+                newerTasks.add(remoteTask);
+                tasksToCache.add(remoteTask);
+            } else if (storedTask != null) {
+                tasksToCache.add(storedTask);
+            }
+        }
+        List<String> deletedTaskIds = delta.getDeletedTaskIds();
+        Set<String> keptTaskIds = null;
+        if (fullSync) {
+            Set<String> remoteTaskIds = new HashSet<>(changedTasks.size());
+            for (Task remoteTask : changedTasks) {
+                remoteTaskIds.add(remoteTask.getId());
+            }
+            keptTaskIds = mRemoteOutbox.getPendingTaskIds();
+            deletedTaskIds = new ArrayList<>(deletedTaskIds);
+            for (Task cachedTask : mCachedTasks.snapshot()) {
+                String taskId = cachedTask.getId();
+                if (cachedTask.getUpdatedAt() >= syncStartMillis) {
+                    keptTaskIds.add(taskId);
+                } else if (!remoteTaskIds.contains(taskId) && !keptTaskIds.contains(taskId)) {
+                    deletedTaskIds.add(taskId);
+                }
+            }
+        }
+        if (mPersistentLocalDataSource != null) {
+            // Given every remote task, which it only stores if it is newer, so that on a full
+            // sync it can tell which stored tasks are missing.
+            mPersistentLocalDataSource.applyRemoteChanges(
+                    new TasksDelta(changedTasks, deletedTaskIds, delta.getVersion()),
+                    keptTaskIds);
+        } else {
+            if (!newerTasks.isEmpty()) {
+                mTasksLocalDataSource.saveTasks(newerTasks);
+            }
+            if (!deletedTaskIds.isEmpty()) {
+                mTasksLocalDataSource.deleteTasks(deletedTaskIds);
+            }
+        }
+        mCachedTasks.applyChanges(tasksToCache, deletedTaskIds);
+        mLastSyncVersion = delta.getVersion();
+    }
 
-        // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+    /**
+     * Forgets {@code remoteRefresh} once it has ended, unless a newer refresh has already replaced
+     * it: a refresh is unsubscribed from after it terminates, by which time another caller may
+     * have started the next one.
+     */
+    private synchronized void clearRemoteRefresh(Observable<List<Task>> remoteRefresh) {
+        if (mRemoteRefresh == remoteRefresh) {
+            mRemoteRefresh = null;
         }
-        mCachedTasks.put(task.getId(), task);
     }
 
-    @Override
-    public void completeTask(@NonNull Task task) {
-        checkNotNull(task);
-        mTasksRemoteDataSource.completeTask(task);
-        mTasksLocalDataSource.completeTask(task);
+    /**
+     * Reads the local data source instead if {@code remote} fails because the remote data source
+     * is known to be unhealthy, see {@link ResilientTasksDataSource}: stale tasks are better than
+     * none.
+     */
+    private <T> Observable<T> orLocalIfRemoteUnavailable(Observable<T> remote,
+                                                         final Func0<Observable<T>> local) {
+        return remote.onErrorResumeNext(new Func1<Throwable, Observable<? extends T>>() {
+            @Override
+            public Observable<? extends T> call(Throwable e) {
+                return e instanceof RemoteUnavailableException
+                        ? local.call() : Observable.<T>error(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the first item emitted by {@code local} or, if it has none, by {@code remote}. With a
+     * concurrent {@link FetchStrategy} both are subscribed to at once and the slower one is
+     * unsubscribed from as soon as the other one emits.
+     */
+    private <T> Observable<T> firstAvailable(Observable<T> local, Observable<T> remote) {
+        if (mFetchStrategy.isConcurrent()) {
+            // Errors are delayed so a failing source doesn't prevent the other one from winning.
+            return Observable.mergeDelayError(local, remote).first();
+        }
+        return Observable.concat(local, remote).first();
+    }
 
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
+    /**
+     * Completes {@code local} without emitting if it misses its deadline, so the remote data
+     * source gets a chance to answer instead.
+     */
+    private <T> Observable<T> withLocalDeadline(Observable<T> local) {
+        long deadlineMillis = mFetchStrategy.getLocalDeadlineMillis();
+        if (deadlineMillis == FetchStrategy.NO_DEADLINE) {
+            return local;
+        }
+        Observable<T> deadlineMissed = Observable.<T>empty().doOnCompleted(new Action0() {
+            @Override
+            public void call() {
+                mMetricsSink.recordEvent(Event.LOCAL_DEADLINE_MISSED);
+            }
+        });
+        return local.timeout(deadlineMillis, TimeUnit.MILLISECONDS, deadlineMissed,
+                mSchedulerProvider.computation());
+    }
 
-        // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+    /**
+     * Fails {@code remote} with a {@link java.util.concurrent.TimeoutException} if it misses its
+     * deadline, rather than leaving the caller waiting. A {@link ResilientTasksDataSource} already
+     * applies the deadline, see {@link #setFetchStrategy(FetchStrategy)}.
+     */
+    private <T> Observable<T> withRemoteDeadline(Observable<T> remote) {
+        long deadlineMillis = mFetchStrategy.getRemoteDeadlineMillis();
+        if (deadlineMillis == FetchStrategy.NO_DEADLINE) {
+            return remote;
         }
-        mCachedTasks.put(task.getId(), completedTask);
+        if (!(mTasksRemoteDataSource instanceof ResilientTasksDataSource)) {
+            remote = remote.timeout(deadlineMillis, TimeUnit.MILLISECONDS,
+                    mSchedulerProvider.computation());
+        }
+        return remote
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable e) {
+                        if (e instanceof TimeoutException) {
+                            mMetricsSink.recordEvent(Event.REMOTE_DEADLINE_MISSED);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Records the time {@code source} takes to emit its first item, from each subscription,
+     * as a latency of {@code dataSource} for {@code operation}.
+     */
+    private <T> Observable<T> timed(final Observable<T> source, final Operation operation,
+                                    final Source dataSource) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                final long startNanos = System.nanoTime();
+                return source.doOnNext(new Action1<T>() {
+                    private boolean mRecorded;
+
+                    @Override
+                    public void call(T item) {
+                        if (!mRecorded) {
+                            mRecorded = true;
+                            recordLatency(operation, dataSource, startNanos);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void recordLatency(Operation operation, Source source, long startNanos) {
+        mMetricsSink.recordLatency(operation, source, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns how many callers of {@link #getTasks()} joined a remote refresh that was already in
+     * flight instead of starting their own.
+     */
+    public int getCoalescedRefreshCount() {
+        return mRemoteRefreshCallers.get() - mRemoteRefreshFetches.get();
+    }
+
+    /**
+     * Returns how many {@link #getTask(String)} calls were answered by the cache.
+     */
+    public long getCacheHitCount() {
+        return mCachedTasks.getHitCount();
+    }
+
+    /**
+     * Returns how many {@link #getTask(String)} calls had to load the task from a data source,
+     * either because it wasn't cached or because its description had been evicted.
+     */
+    public long getCacheMissCount() {
+        return mCachedTasks.getMissCount();
+    }
+
+    /**
+     * Returns how many task descriptions were evicted from the cache to stay within its memory
+     * budget.
+     */
+    public long getCacheEvictionCount() {
+        return mCachedTasks.getEvictionCount();
+    }
+
+    /**
+     * Returns a long-lived stream of all the tasks that emits the cached tasks as soon as they are
+     * loaded and a new snapshot every time the cache changes. Subscribing does not trigger a load;
+     * use {@link #getTasks()} for that.
+     */
+    public Observable<List<Task>> getTasksStream() {
+        return mCachedTasks.asObservable();
+    }
+
+    /**
+     * Same as {@link #getTasksStream()}, restricted to the active tasks. The cache keeps them
+     * apart, so no filtering happens on emission.
+     */
+    public Observable<List<Task>> getActiveTasksStream() {
+        return mCachedTasks.activeAsObservable();
+    }
+
+    /**
+     * Same as {@link #getTasksStream()}, restricted to the completed tasks.
+     */
+    public Observable<List<Task>> getCompletedTasksStream() {
+        return mCachedTasks.completedAsObservable();
+    }
+
+    /**
+     * Returns a long-lived stream of the number of active and completed tasks, which emits once
+     * the tasks are loaded and again whenever the counts change. The counts are kept up to date
+     * by every write to the cache, so no task is visited to compute them.
+     */
+    public Observable<TasksStatistics> getStatisticsStream() {
+        return mCachedTasks.statisticsAsObservable();
     }
 
     @Override
-    public void completeTask(@NonNull String taskId) {
-        checkNotNull(taskId);
-        Task taskWithId = getTaskWithId(taskId);
-        if (taskWithId != null) {
-            completeTask(taskWithId);
+    public Observable<TasksDelta> getTasksDelta(long sinceVersion) {
+        mMetricsSink.recordCall(Operation.GET_TASKS_DELTA);
+        // Not required because the repository syncs the deltas itself when refreshing the tasks.
+        return Observable.empty();
+    }
+
+    /**
+     * Searches the in-memory index of the cached tasks if the cache is available, not dirty and
+     * still holds every description, otherwise the full-text index of the local data source once
+     * the queued local writes are done. The remote data source isn't searched, see
+     * {@link TasksDataSource#searchTasks(String)}.
+     */
+    @Override
+    public Observable<List<Task>> searchTasks(@NonNull final String query) {
+        checkNotNull(query);
+        mMetricsSink.recordCall(Operation.SEARCH_TASKS);
+        long startNanos = System.nanoTime();
+        if (mCachedTasks.isLoaded() && !mCacheIsDirty && mCachedTasks.holdsAllDescriptions()) {
+            List<Task> matchingTasks = mCachedTasks.search(query);
+            recordLatency(Operation.SEARCH_TASKS, Source.CACHE, startNanos);
+            return Observable.just(matchingTasks);
         }
+        Observable<List<Task>> localMatches = mTasksLocalDataSource.whenWritten()
+                .lastOrDefault(null)
+                .flatMap(new Func1<Void, Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call(Void written) {
+                        return mTasksLocalDataSource.searchTasks(query).take(1);
+                    }
+                });
+        return timed(localMatches, Operation.SEARCH_TASKS, Source.LOCAL);
     }
 
     @Override
-    public void activateTask(@NonNull Task task) {
+    public Observable<Void> saveTask(@NonNull Task task) {
         checkNotNull(task);
-        mTasksRemoteDataSource.activateTask(task);
-        mTasksLocalDataSource.activateTask(task);
-
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
+        mMetricsSink.recordCall(Operation.SAVE_TASK);
+        forgetCompletions(Collections.singletonList(task.getId()));
+        Observable<Void> written = mTasksLocalDataSource.saveTask(task);
+        mRemoteOutbox.saveTask(task);
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+        mCachedTasks.put(task);
+        return written;
+    }
+
+    @Override
+    public Observable<Void> saveTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        mMetricsSink.recordCall(Operation.SAVE_TASKS);
+        List<String> taskIds = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            taskIds.add(task.getId());
         }
-        mCachedTasks.put(task.getId(), activeTask);
+        forgetCompletions(taskIds);
+        Observable<Void> written = mTasksLocalDataSource.saveTasks(tasks);
+        mRemoteOutbox.saveTasks(tasks);
+
+        // Do in memory cache update to keep the app UI up to date
+        mCachedTasks.putTasks(tasks);
+        return written;
     }
 
     @Override
-    public void activateTask(@NonNull String taskId) {
+    public Observable<Void> completeTask(@NonNull Task task) {
+        checkNotNull(task);
+        mMetricsSink.recordCall(Operation.COMPLETE_TASK);
+        Observable<Void> written;
+        Task completedTask;
+        synchronized (mUnconfirmedCompletions) {
+            trackCompletion(task, true);
+            // Do in memory cache update first to keep the app UI up to date. The data sources
+            // are then written the version the cache stamped.
+            completedTask = mCachedTasks.setCompleted(task, true);
+            written = mTasksLocalDataSource.completeTask(completedTask);
+        }
+        mRemoteOutbox.completeTask(completedTask);
+        return written;
+    }
+
+    /**
+     * Completes the cached task with the given id, as a version stamped by the cache, see
+     * {@link #completeTask(Task)}. Does nothing if the task isn't cached.
+     */
+    public Observable<Void> completeTask(@NonNull String taskId) {
         checkNotNull(taskId);
-        Task taskWithId = getTaskWithId(taskId);
+        Task taskWithId = mCachedTasks.peek(taskId);
         if (taskWithId != null) {
-            activateTask(taskWithId);
+            // Recorded as a call to completeTask(Task).
+            return completeTask(taskWithId);
         }
+        return Observable.empty();
+    }
+
+    /**
+     * Completes all the tasks with the given ids at once, as a single version stamped now.
+     */
+    public Observable<Void> completeTasks(@NonNull Collection<String> taskIds) {
+        return completeTasks(taskIds, System.currentTimeMillis());
     }
 
     @Override
-    public void clearCompletedTasks() {
-        mTasksRemoteDataSource.clearCompletedTasks();
-        mTasksLocalDataSource.clearCompletedTasks();
+    public Observable<Void> completeTasks(@NonNull Collection<String> taskIds, long updatedAt) {
+        checkNotNull(taskIds);
+        mMetricsSink.recordCall(Operation.COMPLETE_TASKS);
+        Observable<Void> written;
+        synchronized (mUnconfirmedCompletions) {
+            for (String taskId : taskIds) {
+                Task cachedTask = mCachedTasks.peek(taskId);
+                // Tasks that aren't cached can't be rolled back: their state isn't known.
+                if (cachedTask != null) {
+                    trackCompletion(cachedTask, true);
+                }
+            }
+            // Do in memory cache update first to keep the app UI up to date. The data sources
+            // are then written the same version.
+            mCachedTasks.setCompleted(taskIds, true, updatedAt);
+            written = mTasksLocalDataSource.completeTasks(taskIds, updatedAt);
+        }
+        mRemoteOutbox.completeTasks(taskIds, updatedAt);
+        return written;
+    }
 
-        // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+    @Override
+    public Observable<Void> activateTask(@NonNull Task task) {
+        checkNotNull(task);
+        mMetricsSink.recordCall(Operation.ACTIVATE_TASK);
+        Observable<Void> written;
+        Task activeTask;
+        synchronized (mUnconfirmedCompletions) {
+            trackCompletion(task, false);
+            // Do in memory cache update first to keep the app UI up to date. The data sources
+            // are then written the version the cache stamped.
+            activeTask = mCachedTasks.setCompleted(task, false);
+            written = mTasksLocalDataSource.activateTask(activeTask);
         }
-        Iterator<Map.Entry<String, Task>> it = mCachedTasks.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) {
-                it.remove();
+        mRemoteOutbox.activateTask(activeTask);
+        return written;
+    }
+
+    /**
+     * Activates the cached task with the given id, as a version stamped by the cache, see
+     * {@link #activateTask(Task)}. Does nothing if the task isn't cached.
+     */
+    public Observable<Void> activateTask(@NonNull String taskId) {
+        checkNotNull(taskId);
+        Task taskWithId = mCachedTasks.peek(taskId);
+        if (taskWithId != null) {
+            // Recorded as a call to activateTask(Task).
+            return activateTask(taskWithId);
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> clearCompletedTasks() {
+        mMetricsSink.recordCall(Operation.CLEAR_COMPLETED_TASKS);
+        synchronized (mUnconfirmedCompletions) {
+            // The tasks completed last are gone, rolling them back would bring them back.
+            Iterator<List<Boolean>> iterator = mUnconfirmedCompletions.values().iterator();
+            while (iterator.hasNext()) {
+                List<Boolean> states = iterator.next();
+                if (states.get(states.size() - 1)) {
+                    iterator.remove();
+                }
             }
         }
+        Observable<Void> written = mTasksLocalDataSource.clearCompletedTasks();
+        mRemoteOutbox.clearCompletedTasks();
+
+        // Do in memory cache update to keep the app UI up to date
+        mCachedTasks.removeCompleted();
+        return written;
     }
 
     /**
      * Gets tasks from local data source (sqlite) unless the table is new or empty. In that case it
-     * uses the network data source. This is done to simplify the sample.
+     * uses the network data source. This is done to simplify the sample. The data sources are read
+     * according to the {@link FetchStrategy}.
+     * <p/>
+     * Tasks whose description was evicted from the cache are reloaded the same way.
      */
     @Override
     public Observable<Task> getTask(@NonNull final String taskId) {
         checkNotNull(taskId);
+        mMetricsSink.recordCall(Operation.GET_TASK);
+        long startNanos = System.nanoTime();
 
         final Task cachedTask = getTaskWithId(taskId);
 
         // Respond immediately with cache if available
         if (cachedTask != null) {
+            recordLatency(Operation.GET_TASK, Source.CACHE, startNanos);
             return Observable.just(cachedTask);
         }
 
         // Load from server/persisted if needed.
 
         // Is the task in the local data source? If not, query the network.
-        Observable<Task> localTask = mTasksLocalDataSource
-                .getTask(taskId)
+        Observable<Task> localTask = withLocalDeadline(
+                mTasksLocalDataSource.getTask(taskId).take(1))
+                .filter(new Func1<Task, Boolean>() {
+                    @Override
+                    public Boolean call(Task task) {
+                        return task != null;
+                    }
+                })
                 .doOnNext(new Action1<Task>() {
                     @Override
                     public void call(Task task) {
-                        mCachedTasks.put(taskId, task);
+                        mCachedTasks.put(task);
                     }
                 });
-        Observable<Task> remoteTask = mTasksRemoteDataSource
-                .getTask(taskId)
+        Observable<Task> remoteTask = withRemoteDeadline(mTasksRemoteDataSource.getTask(taskId))
                 .doOnNext(new Action1<Task>() {
                     @Override
                     public void call(Task task) {
-                        mTasksLocalDataSource.saveTask(task);
-                        mCachedTasks.put(task.getId(), task);
+                        if (mPersistentLocalDataSource != null) {
+                            // Not stored over a newer copy the local read didn't find in time.
+                            mPersistentLocalDataSource.applyRemoteChanges(new TasksDelta(
+                                    Collections.singletonList(task),
+                                    Collections.<String>emptyList(), TasksDelta.NO_VERSION),
+                                    null);
+                        } else {
+                            mTasksLocalDataSource.saveTask(task);
+                        }
+                        mCachedTasks.put(task);
                     }
                 });
 
-        return Observable.concat(localTask, remoteTask).first();
+        return firstAvailable(timed(localTask, Operation.GET_TASK, Source.LOCAL),
+                timed(remoteTask, Operation.GET_TASK, Source.REMOTE));
     }
 
     @Override
     public void refreshTasks() {
+        mMetricsSink.recordCall(Operation.REFRESH_TASKS);
         mCacheIsDirty = true;
     }
 
     @Override
-    public void deleteAllTasks() {
-        mTasksRemoteDataSource.deleteAllTasks();
-        mTasksLocalDataSource.deleteAllTasks();
-
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+    public Observable<Void> deleteAllTasks() {
+        mMetricsSink.recordCall(Operation.DELETE_ALL_TASKS);
+        synchronized (mUnconfirmedCompletions) {
+            mUnconfirmedCompletions.clear();
         }
+        Observable<Void> written = mTasksLocalDataSource.deleteAllTasks();
+        mRemoteOutbox.deleteAllTasks();
+
         mCachedTasks.clear();
+        return written;
     }
 
     @Override
-    public void deleteTask(@NonNull String taskId) {
-        mTasksRemoteDataSource.deleteTask(checkNotNull(taskId));
-        mTasksLocalDataSource.deleteTask(checkNotNull(taskId));
+    public Observable<Void> deleteTask(@NonNull String taskId) {
+        mMetricsSink.recordCall(Operation.DELETE_TASK);
+        forgetCompletions(Collections.singletonList(checkNotNull(taskId)));
+        Observable<Void> written = mTasksLocalDataSource.deleteTask(checkNotNull(taskId));
+        mRemoteOutbox.deleteTask(checkNotNull(taskId));
 
         mCachedTasks.remove(taskId);
+        return written;
+    }
+
+    @Override
+    public Observable<Void> deleteTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        mMetricsSink.recordCall(Operation.DELETE_TASKS);
+        forgetCompletions(taskIds);
+        Observable<Void> written = mTasksLocalDataSource.deleteTasks(taskIds);
+        mRemoteOutbox.deleteTasks(taskIds);
+
+        mCachedTasks.removeAll(taskIds);
+        return written;
+    }
+
+    @Override
+    public Observable<Void> whenWritten() {
+        return mTasksLocalDataSource.whenWritten();
+    }
+
+    /**
+     * Returns a stream of the completions and activations rolled back because the remote data
+     * source failed them, emitted once the task is back in its previous state in the cache and the
+     * local write putting it back has ended, whether or not it succeeded. Rollbacks happen on a
+     * background thread.
+     */
+    public Observable<TaskRollback> getRollbacks() {
+        return mRollbacks.asObservable();
+    }
+
+    /**
+     * Records that {@code task} is being completed or activated, along with its current state if
+     * no other write to it is in flight. Called holding {@link #mUnconfirmedCompletions}.
+     */
+    private void trackCompletion(Task task, boolean completed) {
+        List<Boolean> states = mUnconfirmedCompletions.get(task.getId());
+        if (states == null) {
+            Task cachedTask = mCachedTasks.peek(task.getId());
+            states = new ArrayList<>();
+            states.add((cachedTask == null ? task : cachedTask).isCompleted());
+            mUnconfirmedCompletions.put(task.getId(), states);
+        }
+        states.add(completed);
+    }
+
+    /**
+     * Stops tracking the completions of tasks that are being saved or deleted, which sets their
+     * state whatever became of the completions.
+     */
+    private void forgetCompletions(Collection<String> taskIds) {
+        synchronized (mUnconfirmedCompletions) {
+            for (String taskId : taskIds) {
+                mUnconfirmedCompletions.remove(taskId);
+            }
+        }
+    }
+
+    private void confirmCompletions(String taskId, int writeCount) {
+        synchronized (mUnconfirmedCompletions) {
+            List<Boolean> states = mUnconfirmedCompletions.get(taskId);
+            if (states == null) {
+                return;
+            }
+            if (writeCount >= states.size() - 1) {
+                mUnconfirmedCompletions.remove(taskId);
+            } else {
+                // The state set by the last confirmed write is now the confirmed one.
+                states.subList(0, writeCount).clear();
+            }
+        }
+    }
+
+    /**
+     * Puts a task back in its last confirmed state if the failed writes were the last ones in
+     * flight for it. Otherwise the writes still in flight set its state anyway.
+     */
+    private void rollBackCompletions(String taskId, int writeCount, Throwable error) {
+        boolean completed;
+        Observable<Void> written;
+        synchronized (mUnconfirmedCompletions) {
+            List<Boolean> states = mUnconfirmedCompletions.get(taskId);
+            if (states == null) {
+                return;
+            }
+            if (writeCount < states.size() - 1) {
+                states.subList(1, writeCount + 1).clear();
+                return;
+            }
+            mUnconfirmedCompletions.remove(taskId);
+            completed = states.get(0);
+            Task cachedTask = mCachedTasks.peek(taskId);
+            if (cachedTask == null) {
+                // Deleted meanwhile, the rollback is still reported as the change failed.
+                written = Observable.empty();
+            } else {
+                // Written to the local data source as the version the cache stamps.
+                Task rolledBackTask = mCachedTasks.setCompleted(cachedTask, completed);
+                written = completed
+                        ? mTasksLocalDataSource.completeTask(rolledBackTask)
+                        : mTasksLocalDataSource.activateTask(rolledBackTask);
+                // It puts back what the remote data source has, there is nothing to send.
+                forgetTaskWrites(taskId, 1);
+            }
+        }
+        final TaskRollback rollback = new TaskRollback(taskId, completed, error);
+        written.subscribe(new Observer<Void>() {
+            @Override
+            public void onCompleted() {
+                mRollbacks.onNext(rollback);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                // The cache is rolled back all the same, so the task is shown in its previous
+                // state until the next sync from the local data source.
+                mRollbacks.onNext(rollback);
+            }
+
+            @Override
+            public void onNext(Void ignored) {
+            }
+        });
+    }
+
+    /**
+     * Forgets the writes to a task the remote data source has stored or rejected, so the next
+     * session doesn't send them again.
+     */
+    private void forgetTaskWrites(String taskId, int writeCount) {
+        if (mPersistentLocalDataSource != null) {
+            mPersistentLocalDataSource.forgetTaskWrites(taskId, writeCount);
+        }
     }
 
     @Nullable
     private Task getTaskWithId(@NonNull String id) {
-        checkNotNull(id);
-        if (mCachedTasks == null || mCachedTasks.isEmpty()) {
-            return null;
-        } else {
-            return mCachedTasks.get(id);
-        }
+        return mCachedTasks.get(checkNotNull(id));
     }
 }
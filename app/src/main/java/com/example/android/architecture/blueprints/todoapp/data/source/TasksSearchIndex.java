@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Inverted index of the words in the titles and descriptions of the tasks held by the
+ * {@link TasksCache}, so they can be searched as the user types without reading the local
+ * database.
+ * <p/>
+ * Words are split the same way as by the "simple" tokenizer of the SQLite full-text search table
+ * kept by the local data source, see {@link #tokenize(String)}, so both find the same tasks. Every
+ * term of a query is matched as a prefix of a word, and a task must match all of them.
+ * <p/>
+ * Words are kept sorted, so the words starting with a term are found by a range lookup. Not
+ * thread-safe.
+ */
+public final class TasksSearchIndex {
+
+    /**
+     * Ids of the tasks each word appears in.
+     */
+    private final TreeMap<String, Set<String>> mTaskIdsByWord = new TreeMap<>();
+
+    /**
+     * Words of each task, to remove it from the index.
+     */
+    private final Map<String, String[]> mWordsByTaskId = new HashMap<>();
+
+    TasksSearchIndex() {
+    }
+
+    /**
+     * Indexes the words of {@code task}, replacing those of the previous version of it.
+     */
+    void put(@NonNull Task task) {
+        String taskId = task.getId();
+        remove(taskId);
+        Set<String> words = new LinkedHashSet<>(tokenize(task.getTitle()));
+        words.addAll(tokenize(task.getDescription()));
+        for (String word : words) {
+            Set<String> taskIds = mTaskIdsByWord.get(word);
+            if (taskIds == null) {
+                taskIds = new HashSet<>();
+                mTaskIdsByWord.put(word, taskIds);
+            }
+            taskIds.add(taskId);
+        }
+        mWordsByTaskId.put(taskId, words.toArray(new String[words.size()]));
+    }
+
+    void remove(@NonNull String taskId) {
+        String[] words = mWordsByTaskId.remove(taskId);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Set<String> taskIds = mTaskIdsByWord.get(word);
+            taskIds.remove(taskId);
+            if (taskIds.isEmpty()) {
+                mTaskIdsByWord.remove(word);
+            }
+        }
+    }
+
+    void clear() {
+        mTaskIdsByWord.clear();
+        mWordsByTaskId.clear();
+    }
+
+    /**
+     * Returns the ids of the tasks with a word starting with each term of {@code query}. A query
+     * without any term matches nothing.
+     */
+    @NonNull
+    Set<String> search(@NonNull String query) {
+        Set<String> matches = null;
+        for (String term : tokenize(checkNotNull(query))) {
+            Set<String> termMatches = new HashSet<>();
+            // Every word starting with the term sorts between the term and the term followed by
+            // the highest char.
+            for (Set<String> taskIds : mTaskIdsByWord
+                    .subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                if (matches == null) {
+                    termMatches.addAll(taskIds);
+                } else {
+                    for (String taskId : taskIds) {
+                        if (matches.contains(taskId)) {
+                            termMatches.add(taskId);
+                        }
+                    }
+                }
+            }
+            matches = termMatches;
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        return matches == null ? Collections.<String>emptySet() : matches;
+    }
+
+    /**
+     * Splits {@code text} into lower case words the way the "simple" tokenizer of SQLite does:
+     * words are made of ASCII letters and digits and of any non-ASCII char, and only ASCII letters
+     * are lower-cased. As nothing else is kept, the words can't hold any full-text query syntax.
+     */
+    @NonNull
+    public static List<String> tokenize(@Nullable String text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        List<String> words = new ArrayList<>();
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && isWordChar(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(toLowerCaseAscii(text, start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
+    }
+
+    private static String toLowerCaseAscii(String text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            chars[i - start] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(chars);
+    }
+}
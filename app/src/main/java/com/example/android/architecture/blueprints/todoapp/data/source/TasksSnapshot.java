@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func0;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Binary copy of the cached tasks kept in a file, so the {@link TasksRepository} can show tasks on
+ * a cold start before the local database is even opened.
+ * <p/>
+ * The file holds a header, a table with the offset of each task, then the tasks themselves in
+ * the order they were written in, which is the order of the task list, each as a completed flag
+ * and a version followed by its length-prefixed id, title and description. It is memory-mapped
+ * when first read, and a page only decodes the tasks it returns, found through the offset table.
+ * <p/>
+ * Writes happen on a background {@link Scheduler}, replacing the file atomically. A write waits a
+ * delay after the first change queued for it, see {@link #setWriteDelay(long, TimeUnit)}, and
+ * tasks queued while it is pending are only written once, with the latest tasks. Bursts of
+ * changes, such as a sync, cost a single write rather than one per change. The tasks can be
+ * given as a {@link Func0} called when the write runs, so queueing a write costs the writing
+ * thread nothing but a lock.
+ */
+final class TasksSnapshot {
+
+    private static final int MAGIC = 0x54534b53;
+
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Magic number, format version and task count.
+     */
+    private static final int HEADER_BYTES = 12;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+
+    private final Scheduler.Worker mWorker;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Returns the tasks waiting to be written, or null if there are none. Guarded by
+     * {@link #mLock}.
+     */
+    @Nullable
+    private Func0<List<Task>> mPendingTasks;
+
+    private volatile long mWriteDelayMillis = 0;
+
+    /**
+     * Contents of the file as it was when first read, or null if it hasn't been read yet.
+     */
+    @Nullable
+    private ByteBuffer mBuffer;
+
+    private final Action0 mWriteAction = new Action0() {
+        @Override
+        public void call() {
+            writePendingTasks();
+        }
+    };
+
+    TasksSnapshot(@NonNull File file, @NonNull Scheduler scheduler) {
+        mFile = checkNotNull(file);
+        mWorker = checkNotNull(scheduler).createWorker();
+    }
+
+    /**
+     * Returns up to {@code pageSize} tasks of the file, in the order they were written in,
+     * starting after the task with id {@code afterTaskId}, or with the first task if it is null.
+     * Returns an empty page if the file is missing or unreadable. The descriptions of the tasks
+     * may be missing.
+     */
+    @NonNull
+    List<Task> readPage(@Nullable String afterTaskId, int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        ByteBuffer buffer = map();
+        if (buffer == null) {
+            return Collections.emptyList();
+        }
+        try {
+            int count = buffer.getInt(8);
+            int first = afterTaskId == null ? 0 : indexAfter(buffer, count, afterTaskId);
+            int last = Math.min(count, first + pageSize);
+            List<Task> page = new ArrayList<>(Math.max(0, last - first));
+            for (int i = first; i < last; i++) {
+                page.add(readTask(buffer, i));
+            }
+            return page;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            // A corrupt snapshot only means that the tasks will show up later.
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Sets how long a write waits after the first tasks queued for it. Defaults to no delay. Only
+     * applies to the writes scheduled afterwards.
+     */
+    void setWriteDelay(long delay, @NonNull TimeUnit unit) {
+        checkArgument(delay >= 0, "delay must not be negative");
+        mWriteDelayMillis = checkNotNull(unit).toMillis(delay);
+    }
+
+    /**
+     * Queues the given tasks to replace the contents of the file.
+     */
+    void write(@NonNull final List<Task> tasks) {
+        checkNotNull(tasks);
+        write(new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                return tasks;
+            }
+        });
+    }
+
+    /**
+     * Queues a write of the tasks returned by {@code tasks}, which is only called once the write
+     * runs, on the background {@link Scheduler}.
+     */
+    void write(@NonNull Func0<List<Task>> tasks) {
+        checkNotNull(tasks);
+        boolean scheduleWrite;
+        synchronized (mLock) {
+            scheduleWrite = mPendingTasks == null;
+            mPendingTasks = tasks;
+        }
+        if (scheduleWrite) {
+            mWorker.schedule(mWriteAction, mWriteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Nullable
+    private synchronized ByteBuffer map() {
+        if (mBuffer == null && mFile.exists()) {
+            try {
+                RandomAccessFile file = new RandomAccessFile(mFile, "r");
+                try {
+                    ByteBuffer buffer = file.getChannel()
+                            .map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                    if (buffer.limit() >= HEADER_BYTES && buffer.getInt(0) == MAGIC
+                            && buffer.getInt(4) == FORMAT_VERSION) {
+                        mBuffer = buffer;
+                    }
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                // Same as having no snapshot.
+            }
+        }
+        return mBuffer;
+    }
+
+    /**
+     * Returns the index of the task following the one with id {@code taskId}, or {@code count} if
+     * there is no such task. Only the ids are decoded on the way, and only the first page is read
+     * on a cold start.
+     */
+    private static int indexAfter(ByteBuffer buffer, int count, String taskId) {
+        for (int i = 0; i < count; i++) {
+            if (readId(buffer, i).equals(taskId)) {
+                return i + 1;
+            }
+        }
+        return count;
+    }
+
+    private static String readId(ByteBuffer buffer, int index) {
+        ByteBuffer record = record(buffer, index);
+        record.get();
+        record.getLong();
+        return readString(record);
+    }
+
+    private static Task readTask(ByteBuffer buffer, int index) {
+        ByteBuffer record = record(buffer, index);
+        boolean completed = record.get() != 0;
+        long updatedAt = record.getLong();
+        String id = readString(record);
+        String title = readString(record);
+        String description = readString(record);
+        return new Task(title, description, id, completed, updatedAt);
+    }
+
+    private static ByteBuffer record(ByteBuffer buffer, int index) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(buffer.getInt(HEADER_BYTES + 4 * index));
+        return record;
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private void writePendingTasks() {
+        Func0<List<Task>> pendingTasks;
+        synchronized (mLock) {
+            pendingTasks = mPendingTasks;
+            mPendingTasks = null;
+        }
+        // Taken after clearing the pending write, so the changes made from now on queue another.
+        List<Task> tasks = new ArrayList<>(pendingTasks.call());
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            writeTo(tempFile, tasks);
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Couldn't rename " + tempFile + " to " + mFile);
+            }
+        } catch (IOException e) {
+            // The previous snapshot, if any, is left as it was: it's still a valid starting point.
+            tempFile.delete();
+        }
+    }
+
+    private static void writeTo(File file, List<Task> tasks) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        int[] offsets = new int[tasks.size()];
+        int recordsStart = HEADER_BYTES + 4 * tasks.size();
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            offsets[i] = recordsStart + recordsOut.size();
+            recordsOut.writeByte(task.isCompleted() ? 1 : 0);
+            recordsOut.writeLong(task.getUpdatedAt());
+            writeString(recordsOut, task.getId());
+            writeString(recordsOut, task.getTitle());
+            writeString(recordsOut, task.getDescription());
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(tasks.size());
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            records.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String string)
+            throws IOException {
+        if (string == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            byte[] bytes = string.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+/**
+ * Immutable number of active and completed tasks, as emitted by
+ * {@link TasksRepository#getStatisticsStream()}.
+ */
+public final class TasksStatistics {
+
+    private final int mActiveCount;
+
+    private final int mCompletedCount;
+
+    public TasksStatistics(int activeCount, int completedCount) {
+        mActiveCount = activeCount;
+        mCompletedCount = completedCount;
+    }
+
+    public int getActiveCount() {
+        return mActiveCount;
+    }
+
+    public int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TasksStatistics statistics = (TasksStatistics) o;
+        return mActiveCount == statistics.mActiveCount
+                && mCompletedCount == statistics.mCompletedCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mActiveCount + mCompletedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TasksStatistics with " + mActiveCount + " active and " + mCompletedCount
+                + " completed tasks";
+    }
+}
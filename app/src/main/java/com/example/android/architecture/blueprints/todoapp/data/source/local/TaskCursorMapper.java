@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.database.Cursor;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.TaskEntry;
+
+import rx.functions.Func1;
+
+/**
+ * Maps a row of the tasks table to a {@link Task}, reading the columns by their position in
+ * {@link #COLUMNS} rather than looking each one up by name for every row. Only for cursors that
+ * select exactly these columns, in this order.
+ */
+public final class TaskCursorMapper implements Func1<Cursor, Task> {
+
+    /**
+     * Columns to select, separated by commas.
+     */
+    public static final String COLUMNS = TaskEntry.COLUMN_NAME_ENTRY_ID + ","
+            + TaskEntry.COLUMN_NAME_TITLE + ","
+            + TaskEntry.COLUMN_NAME_DESCRIPTION + ","
+            + TaskEntry.COLUMN_NAME_COMPLETED + ","
+            + TaskEntry.COLUMN_NAME_UPDATED_AT;
+
+    private static final int ENTRY_ID_INDEX = 0;
+
+    private static final int TITLE_INDEX = 1;
+
+    private static final int DESCRIPTION_INDEX = 2;
+
+    private static final int COMPLETED_INDEX = 3;
+
+    private static final int UPDATED_AT_INDEX = 4;
+
+    @Override
+    public Task call(Cursor cursor) {
+        return new Task(cursor.getString(TITLE_INDEX), cursor.getString(DESCRIPTION_INDEX),
+                cursor.getString(ENTRY_ID_INDEX), cursor.getInt(COMPLETED_INDEX) == 1,
+                cursor.getLong(UPDATED_AT_INDEX));
+    }
+}
@@ -19,9 +19,10 @@ package com.example.android.architecture.blueprints.todoapp.data.source.local;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 public class TasksDbHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 8;
 
     public static final String DATABASE_NAME = "Tasks.db";
 
@@ -29,30 +30,243 @@ public class TasksDbHelper extends SQLiteOpenHelper {
 
     private static final String BOOLEAN_TYPE = " INTEGER";
 
+    private static final String TIMESTAMP_TYPE = " INTEGER NOT NULL DEFAULT 0";
+
+    private static final String SEQUENCE_TYPE = " INTEGER NOT NULL DEFAULT 0";
+
     private static final String COMMA_SEP = ",";
 
+    private static final String ENTRY_COLUMNS =
+            TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_UPDATED_AT;
+
+    /**
+     * The id is the primary key, so looking a task up and replacing a task go through its unique
+     * index.
+     */
     private static final String SQL_CREATE_ENTRIES =
-            "CREATE TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME + " (" +
-                    TasksPersistenceContract.TaskEntry._ID + TEXT_TYPE + " PRIMARY KEY," +
-                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + COMMA_SEP +
-                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
-                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
-                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + BOOLEAN_TYPE +
-            " )";
+            createEntriesSql(TasksPersistenceContract.TaskEntry.TABLE_NAME);
+
+    /**
+     * Tasks stored before versions were tracked get the oldest version, so any other copy wins.
+     */
+    private static final String SQL_ADD_UPDATED_AT =
+            "ALTER TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME + " ADD COLUMN " +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_UPDATED_AT + TIMESTAMP_TYPE;
+
+    /**
+     * Tasks stored before version 6 are numbered in the order of their rows, the order they were
+     * last written in.
+     */
+    private static final String SQL_ADD_CREATED_SEQ =
+            "ALTER TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME + " ADD COLUMN " +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_CREATED_SEQ + SEQUENCE_TYPE;
+
+    private static final String SQL_NUMBER_CREATED_SEQ =
+            "UPDATE " + TasksPersistenceContract.TaskEntry.TABLE_NAME + " SET " +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_CREATED_SEQ + " = rowid";
+
+    /**
+     * Takes the list straight to a page and gives the next task its sequence number, see
+     * {@link TasksLocalDataSource}.
+     */
+    private static final String SQL_CREATE_CREATED_SEQ_INDEX =
+            "CREATE UNIQUE INDEX " + TasksPersistenceContract.TaskEntry.INDEX_NAME_CREATED_SEQ +
+                    " ON " + TasksPersistenceContract.TaskEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_CREATED_SEQ + ")";
+
+    /**
+     * Lets the completed tasks be cleared without scanning the whole table.
+     */
+    private static final String SQL_CREATE_COMPLETED_INDEX =
+            "CREATE INDEX " + TasksPersistenceContract.TaskEntry.INDEX_NAME_COMPLETED + " ON " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + ")";
+
+    private static final String MIGRATED_TABLE_NAME =
+            TasksPersistenceContract.TaskEntry.TABLE_NAME + "_v5";
+
+    /**
+     * Before version 5, nothing kept a task from being stored more than once, so only the row
+     * written last is kept for each id.
+     */
+    private static final String SQL_MIGRATE_ENTRIES =
+            "INSERT INTO " + MIGRATED_TABLE_NAME + " (" + ENTRY_COLUMNS + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_CREATED_SEQ + ") SELECT " +
+                    ENTRY_COLUMNS + COMMA_SEP + "rowid FROM " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                    " WHERE rowid IN (SELECT MAX(rowid) FROM " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME + " WHERE " +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + " IS NOT NULL" +
+                    " GROUP BY " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + ")";
+
+    /**
+     * Kept up to date by the triggers below, so writes to the tasks don't have to know about it.
+     * <p/>
+     * FTS3 rather than FTS4 because the SQLite shipped before Honeycomb doesn't have FTS4, and
+     * the plain MATCH lookup done on this table doesn't need anything FTS4 adds.
+     */
+    private static final String SQL_CREATE_FTS_ENTRIES =
+            "CREATE VIRTUAL TABLE " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME +
+                    " USING fts3(" +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION +
+            ")";
+
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME + "_insert" +
+                    " AFTER INSERT ON " + TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME +
+                    " (docid, " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE +
+                    COMMA_SEP + TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + ")" +
+                    " VALUES (new.rowid, new." +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + ", new." +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + "); END";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME + "_update" +
+                    " AFTER UPDATE OF " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE +
+                    COMMA_SEP + TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION +
+                    " ON " + TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                    " BEGIN UPDATE " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME +
+                    " SET " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + " = new." +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + " = new." +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION +
+                    " WHERE docid = new.rowid; END";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME + "_delete" +
+                    " AFTER DELETE ON " + TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME +
+                    " WHERE docid = old.rowid; END";
+
+    private static final String SQL_POPULATE_FTS_ENTRIES =
+            "INSERT INTO " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME + " (docid, " +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + ")" +
+                    " SELECT rowid, " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE +
+                    COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + " FROM " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME;
+
+    /**
+     * Holds a value per name, written in the transaction of the tasks it describes.
+     */
+    private static final String SQL_CREATE_SYNC_STATE =
+            "CREATE TABLE " + TasksPersistenceContract.SyncStateEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.SyncStateEntry.COLUMN_NAME_NAME + TEXT_TYPE +
+                    " PRIMARY KEY NOT NULL" + COMMA_SEP +
+                    TasksPersistenceContract.SyncStateEntry.COLUMN_NAME_VALUE +
+                    " INTEGER NOT NULL )";
+
+    /**
+     * Holds a row per task with writes not sent yet, and one per write to all the tasks, whose
+     * null ids the unique constraint lets through.
+     */
+    private static final String SQL_CREATE_PENDING_WRITES =
+            "CREATE TABLE " + TasksPersistenceContract.PendingWriteEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.PendingWriteEntry.COLUMN_NAME_SEQ +
+                    " INTEGER PRIMARY KEY" + COMMA_SEP +
+                    TasksPersistenceContract.PendingWriteEntry.COLUMN_NAME_TASK_ID + TEXT_TYPE +
+                    " UNIQUE" + COMMA_SEP +
+                    TasksPersistenceContract.PendingWriteEntry.COLUMN_NAME_TYPE + TEXT_TYPE +
+                    " NOT NULL" + COMMA_SEP +
+                    TasksPersistenceContract.PendingWriteEntry.COLUMN_NAME_WRITE_COUNT +
+                    " INTEGER NOT NULL )";
 
     public TasksDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Readers get their own connections and see the last commit while a write is going.
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_COMPLETED_INDEX);
+        db.execSQL(SQL_CREATE_CREATED_SEQ_INDEX);
+        createFtsEntries(db);
+        db.execSQL(SQL_CREATE_SYNC_STATE);
+        db.execSQL(SQL_CREATE_PENDING_WRITES);
     }
 
+    /**
+     * Runs in a single transaction, as {@link SQLiteOpenHelper} wraps it in one, so a database
+     * that fails to upgrade is left at its previous version.
+     */
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        if (oldVersion < 3) {
+            db.execSQL(SQL_ADD_UPDATED_AT);
+        }
+        if (oldVersion < 5) {
+            // The table is rebuilt with its new keys, which makes the index added in version 2
+            // and the full-text table added in version 4 obsolete.
+            db.execSQL(createEntriesSql(MIGRATED_TABLE_NAME));
+            db.execSQL(SQL_MIGRATE_ENTRIES);
+            db.execSQL("DROP TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME);
+            db.execSQL("ALTER TABLE " + MIGRATED_TABLE_NAME + " RENAME TO " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME);
+            db.execSQL(SQL_CREATE_COMPLETED_INDEX);
+            db.execSQL("DROP TABLE IF EXISTS " + TasksPersistenceContract.TaskEntry.FTS_TABLE_NAME);
+            createFtsEntries(db);
+            db.execSQL(SQL_POPULATE_FTS_ENTRIES);
+        } else if (oldVersion < 6) {
+            // A table rebuilt above already has the column.
+            db.execSQL(SQL_ADD_CREATED_SEQ);
+            db.execSQL(SQL_NUMBER_CREATED_SEQ);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(SQL_CREATE_CREATED_SEQ_INDEX);
+        }
+        if (oldVersion < 7) {
+            // Without a stored version, the next sync asks for every task.
+            db.execSQL(SQL_CREATE_SYNC_STATE);
+        }
+        if (oldVersion < 8) {
+            // The writes queued by the sessions before weren't recorded, there is none to send.
+            db.execSQL(SQL_CREATE_PENDING_WRITES);
+        }
     }
 
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        // Not required as at version 8
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            // Replacing a task deletes its previous row, which only fires the trigger removing it
+            // from the full-text table when recursive triggers are on. This is only set on the
+            // primary connection, but that is the one all the writes go through.
+            db.execSQL("PRAGMA recursive_triggers = ON");
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                db.enableWriteAheadLogging();
+            }
+        }
+    }
+
+    private static String createEntriesSql(String tableName) {
+        return "CREATE TABLE " + tableName + " (" +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE +
+                " PRIMARY KEY NOT NULL" + COMMA_SEP +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + BOOLEAN_TYPE +
+                COMMA_SEP + TasksPersistenceContract.TaskEntry.COLUMN_NAME_UPDATED_AT +
+                TIMESTAMP_TYPE + COMMA_SEP +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_CREATED_SEQ + SEQUENCE_TYPE + " )";
+    }
+
+    private static void createFtsEntries(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_FTS_ENTRIES);
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
     }
 }
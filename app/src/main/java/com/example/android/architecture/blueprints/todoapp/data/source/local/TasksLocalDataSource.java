@@ -19,52 +19,205 @@ package com.example.android.architecture.blueprints.todoapp.data.source.local;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
-import android.text.TextUtils;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
-import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.PendingWrite;
+import com.example.android.architecture.blueprints.todoapp.data.source.PersistentTasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDelta;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksSearchIndex;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.PendingWriteEntry;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.SyncStateEntry;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.TaskEntry;
+import com.google.common.collect.Iterables;
 import com.squareup.sqlbrite.BriteDatabase;
 import com.squareup.sqlbrite.SqlBrite;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
 
 import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
 /**
  * Concrete implementation of a data source as a db.
+ * <p/>
+ * Writes don't wait for the database: they are queued on a {@link TasksLocalWriter} and committed
+ * in the background. The database is in write-ahead logging mode where available, so reads run
+ * concurrently with the writer and see the last commit: to read the writes queued so far, wait for
+ * {@link #whenWritten()} first. Queries that stay subscribed see them anyway, once committed.
+ * <p/>
+ * Each write also records itself as a {@link PendingWrite}, in the same action, so it is
+ * committed or rolled back with it, see {@link PersistentTasksDataSource}.
  */
-public class TasksLocalDataSource implements TasksDataSource {
+public class TasksLocalDataSource implements PersistentTasksDataSource {
+
+    /**
+     * Maximum number of host parameters SQLite accepts in a single statement.
+     */
+    private static final int MAX_SQL_VARIABLES = 999;
+
+    /**
+     * Number of pages the write-ahead log grows to before SQLite checkpoints it, SQLite's default.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /**
+     * Number of idle checkpoints in a row that may fail before SQLite is left to checkpoint on its
+     * own again, so the write-ahead log can't grow without bound.
+     */
+    private static final int MAX_FAILED_CHECKPOINTS = 3;
+
+    /**
+     * A task keeps the sequence number it was first stored with, and a new one gets the number
+     * after the highest, read from the unique index on that column. The sequence number of the
+     * replaced row is read before it is deleted.
+     */
+    private static final String SQL_REPLACE_TASK = "INSERT OR REPLACE INTO " + TaskEntry.TABLE_NAME
+            + " (" + TaskEntry.COLUMN_NAME_ENTRY_ID + "," + TaskEntry.COLUMN_NAME_TITLE + ","
+            + TaskEntry.COLUMN_NAME_DESCRIPTION + "," + TaskEntry.COLUMN_NAME_COMPLETED + ","
+            + TaskEntry.COLUMN_NAME_UPDATED_AT + "," + TaskEntry.COLUMN_NAME_CREATED_SEQ
+            + ") VALUES (?,?,?,?,?,IFNULL((SELECT " + TaskEntry.COLUMN_NAME_CREATED_SEQ + " FROM "
+            + TaskEntry.TABLE_NAME + " WHERE " + TaskEntry.COLUMN_NAME_ENTRY_ID + " = ?),"
+            + " (SELECT IFNULL(MAX(" + TaskEntry.COLUMN_NAME_CREATED_SEQ + "), 0) + 1 FROM "
+            + TaskEntry.TABLE_NAME + ")))";
+
+    /**
+     * Same as {@link #SQL_REPLACE_TASK}, unless the stored task has the same or a later version.
+     */
+    private static final String SQL_MERGE_TASK = "INSERT OR REPLACE INTO " + TaskEntry.TABLE_NAME
+            + " (" + TaskEntry.COLUMN_NAME_ENTRY_ID + "," + TaskEntry.COLUMN_NAME_TITLE + ","
+            + TaskEntry.COLUMN_NAME_DESCRIPTION + "," + TaskEntry.COLUMN_NAME_COMPLETED + ","
+            + TaskEntry.COLUMN_NAME_UPDATED_AT + "," + TaskEntry.COLUMN_NAME_CREATED_SEQ
+            + ") SELECT ?,?,?,?,?,IFNULL((SELECT " + TaskEntry.COLUMN_NAME_CREATED_SEQ + " FROM "
+            + TaskEntry.TABLE_NAME + " WHERE " + TaskEntry.COLUMN_NAME_ENTRY_ID + " = ?),"
+            + " (SELECT IFNULL(MAX(" + TaskEntry.COLUMN_NAME_CREATED_SEQ + "), 0) + 1 FROM "
+            + TaskEntry.TABLE_NAME + ")) WHERE NOT EXISTS (SELECT 1 FROM " + TaskEntry.TABLE_NAME
+            + " WHERE " + TaskEntry.COLUMN_NAME_ENTRY_ID + " = ? AND "
+            + TaskEntry.COLUMN_NAME_UPDATED_AT + " >= ?)";
+
+    private static final String SQL_GET_TASK_IDS =
+            "SELECT " + TaskEntry.COLUMN_NAME_ENTRY_ID + " FROM " + TaskEntry.TABLE_NAME;
+
+    private static final String SQL_GET_SYNC_VERSION = "SELECT " + SyncStateEntry.COLUMN_NAME_VALUE
+            + " FROM " + SyncStateEntry.TABLE_NAME + " WHERE " + SyncStateEntry.COLUMN_NAME_NAME
+            + " = ?";
+
+    private static final String SQL_SET_SYNC_VERSION = "INSERT OR REPLACE INTO "
+            + SyncStateEntry.TABLE_NAME + " (" + SyncStateEntry.COLUMN_NAME_NAME + ","
+            + SyncStateEntry.COLUMN_NAME_VALUE + ") VALUES (?,?)";
+
+    /**
+     * Counts one more write to a task, and moves it after the writes recorded so far, as the
+     * replaced row is deleted before the new one gets the next rowid.
+     */
+    private static final String SQL_RECORD_TASK_WRITE = "INSERT OR REPLACE INTO "
+            + PendingWriteEntry.TABLE_NAME + " (" + PendingWriteEntry.COLUMN_NAME_TASK_ID + ","
+            + PendingWriteEntry.COLUMN_NAME_TYPE + "," + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT
+            + ") VALUES (?,?,IFNULL((SELECT " + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT
+            + " FROM " + PendingWriteEntry.TABLE_NAME + " WHERE "
+            + PendingWriteEntry.COLUMN_NAME_TASK_ID + " = ?), 0) + 1)";
+
+    private static final String SQL_RECORD_GLOBAL_WRITE = "INSERT INTO "
+            + PendingWriteEntry.TABLE_NAME + " (" + PendingWriteEntry.COLUMN_NAME_TYPE + ","
+            + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT + ") VALUES (?,1)";
+
+    private static final String SQL_GET_PENDING_WRITES = "SELECT "
+            + PendingWriteEntry.COLUMN_NAME_TASK_ID + "," + PendingWriteEntry.COLUMN_NAME_TYPE + ","
+            + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT + " FROM " + PendingWriteEntry.TABLE_NAME
+            + " ORDER BY " + PendingWriteEntry.COLUMN_NAME_SEQ;
+
+    private static final String SQL_FORGET_TASK_WRITES = "UPDATE " + PendingWriteEntry.TABLE_NAME
+            + " SET " + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT + " = "
+            + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT + " - ? WHERE "
+            + PendingWriteEntry.COLUMN_NAME_TASK_ID + " = ?";
+
+    private static final String SQL_FORGET_GLOBAL_WRITE = "DELETE FROM "
+            + PendingWriteEntry.TABLE_NAME + " WHERE " + PendingWriteEntry.COLUMN_NAME_SEQ
+            + " = (SELECT MIN(" + PendingWriteEntry.COLUMN_NAME_SEQ + ") FROM "
+            + PendingWriteEntry.TABLE_NAME + " WHERE " + PendingWriteEntry.COLUMN_NAME_TASK_ID
+            + " IS NULL AND " + PendingWriteEntry.COLUMN_NAME_TYPE + " = ?)";
+
+    private static final String SQL_SELECT_TASKS =
+            "SELECT " + TaskCursorMapper.COLUMNS + " FROM " + TaskEntry.TABLE_NAME;
+
+    private static final String SQL_GET_TASKS =
+            SQL_SELECT_TASKS + " ORDER BY " + TaskEntry.COLUMN_NAME_CREATED_SEQ;
+
+    private static final String SQL_GET_TASK =
+            SQL_SELECT_TASKS + " WHERE " + TaskEntry.COLUMN_NAME_ENTRY_ID + " = ?";
+
+    /**
+     * Keyset pagination: the index on the sequence number takes the query straight to the page,
+     * once the primary key has given the sequence number of the task it starts after.
+     */
+    private static final String SQL_GET_FIRST_PAGE =
+            SQL_GET_TASKS + " LIMIT ?";
+
+    private static final String SQL_GET_PAGE_AFTER =
+            SQL_SELECT_TASKS + " WHERE " + TaskEntry.COLUMN_NAME_CREATED_SEQ + " > (SELECT "
+                    + TaskEntry.COLUMN_NAME_CREATED_SEQ + " FROM " + TaskEntry.TABLE_NAME
+                    + " WHERE " + TaskEntry.COLUMN_NAME_ENTRY_ID + " = ?) ORDER BY "
+                    + TaskEntry.COLUMN_NAME_CREATED_SEQ + " LIMIT ?";
+
+    private static final String SQL_SEARCH_TASKS =
+            SQL_SELECT_TASKS + " WHERE rowid IN (SELECT docid FROM " + TaskEntry.FTS_TABLE_NAME
+                    + " WHERE " + TaskEntry.FTS_TABLE_NAME + " MATCH ?)";
+
+    private static final Func1<Cursor, Task> TASK_MAPPER = new TaskCursorMapper();
+
+    private static final Func1<Cursor, Long> VERSION_MAPPER = new Func1<Cursor, Long>() {
+        @Override
+        public Long call(Cursor cursor) {
+            return cursor.getLong(0);
+        }
+    };
 
     private static TasksLocalDataSource INSTANCE;
+    private final TasksDbHelper mDbHelper;
     private final BriteDatabase mDatabaseHelper;
-    private Func1<Cursor, Task> mTaskMapperFunction;
+    private final TasksLocalWriter mWriter;
+
+    /**
+     * Idle checkpoints that failed since the last one that didn't. Only used on the writer's
+     * thread.
+     */
+    private int mFailedCheckpoints;
+
+    private final Action0 mCheckpointAction = new Action0() {
+        @Override
+        public void call() {
+            checkpoint();
+        }
+    };
 
     // Prevent direct instantiation.
     private TasksLocalDataSource(@NonNull Context context) {
         checkNotNull(context);
-        TasksDbHelper dbHelper = new TasksDbHelper(context);
+        mDbHelper = new TasksDbHelper(context);
         SqlBrite sqlBrite = SqlBrite.create();
-        mDatabaseHelper = sqlBrite.wrapDatabaseHelper(dbHelper, Schedulers.io());
-        mTaskMapperFunction = new Func1<Cursor, Task>() {
-            @Override
-            public Task call(Cursor c) {
-                String itemId = c.getString(c.getColumnIndexOrThrow(TaskEntry.COLUMN_NAME_ENTRY_ID));
-                String title = c.getString(c.getColumnIndexOrThrow(TaskEntry.COLUMN_NAME_TITLE));
-                String description =
-                        c.getString(c.getColumnIndexOrThrow(TaskEntry.COLUMN_NAME_DESCRIPTION));
-                boolean completed =
-                        c.getInt(c.getColumnIndexOrThrow(TaskEntry.COLUMN_NAME_COMPLETED)) == 1;
-                return new Task(title, description, itemId, completed);
-            }
-        };
+        mDatabaseHelper = sqlBrite.wrapDatabaseHelper(mDbHelper, Schedulers.io());
+        mWriter = new TasksLocalWriter(mDatabaseHelper,
+                Schedulers.from(Executors.newSingleThreadExecutor()));
     }
 
     public static TasksLocalDataSource getInstance(@NonNull Context context) {
@@ -76,77 +229,270 @@ public class TasksLocalDataSource implements TasksDataSource {
 
     @Override
     public Observable<List<Task>> getTasks() {
-        String[] projection = {
-                TaskEntry.COLUMN_NAME_ENTRY_ID,
-                TaskEntry.COLUMN_NAME_TITLE,
-                TaskEntry.COLUMN_NAME_DESCRIPTION,
-                TaskEntry.COLUMN_NAME_COMPLETED
-        };
-        String sql = String.format("SELECT %s FROM %s", TextUtils.join(",", projection), TaskEntry.TABLE_NAME);
-        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql)
-                .mapToList(mTaskMapperFunction);
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, SQL_GET_TASKS)
+                .mapToList(TASK_MAPPER);
     }
 
     @Override
     public Observable<Task> getTask(@NonNull String taskId) {
-        String[] projection = {
-                TaskEntry.COLUMN_NAME_ENTRY_ID,
-                TaskEntry.COLUMN_NAME_TITLE,
-                TaskEntry.COLUMN_NAME_DESCRIPTION,
-                TaskEntry.COLUMN_NAME_COMPLETED
-        };
-        String sql = String.format("SELECT %s FROM %s WHERE %s LIKE ?",
-                TextUtils.join(",", projection), TaskEntry.TABLE_NAME, TaskEntry.COLUMN_NAME_ENTRY_ID);
-        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql, taskId)
-                .mapToOneOrDefault(mTaskMapperFunction, null);
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, SQL_GET_TASK, taskId)
+                .mapToOneOrDefault(TASK_MAPPER, null);
     }
 
     @Override
-    public void saveTask(@NonNull Task task) {
+    public Observable<List<Task>> getTasksPage(@Nullable String afterTaskId, int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        if (afterTaskId == null) {
+            return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, SQL_GET_FIRST_PAGE,
+                    String.valueOf(pageSize))
+                    .mapToList(TASK_MAPPER);
+        }
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, SQL_GET_PAGE_AFTER, afterTaskId,
+                String.valueOf(pageSize))
+                .mapToList(TASK_MAPPER);
+    }
+
+    @Override
+    public Observable<TasksDelta> getTasksDelta(long sinceVersion) {
+        // Not required because the {@link TasksRepository} only syncs changes from the remote data
+        // source into this one.
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<List<Task>> getStoredTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        final List<String> idsToRead = new ArrayList<>(taskIds);
+        return Observable.defer(new Func0<Observable<List<Task>>>() {
+            @Override
+            public Observable<List<Task>> call() {
+                List<Task> tasks = new ArrayList<>(idsToRead.size());
+                for (List<String> ids : Iterables.partition(idsToRead, MAX_SQL_VARIABLES)) {
+                    Cursor cursor = mDatabaseHelper.query(
+                            SQL_SELECT_TASKS + " WHERE " + entryIdIn(ids.size()),
+                            ids.toArray(new String[ids.size()]));
+                    try {
+                        while (cursor.moveToNext()) {
+                            tasks.add(TASK_MAPPER.call(cursor));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                return Observable.just(tasks);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    public Observable<Long> getSyncVersion() {
+        return mDatabaseHelper.createQuery(SyncStateEntry.TABLE_NAME, SQL_GET_SYNC_VERSION,
+                SyncStateEntry.NAME_SYNC_VERSION)
+                .mapToOneOrDefault(VERSION_MAPPER, TasksDelta.NO_VERSION);
+    }
+
+    @Override
+    public Observable<List<Task>> searchTasks(@NonNull String query) {
+        checkNotNull(query);
+        List<String> terms = TasksSearchIndex.tokenize(query);
+        if (terms.isEmpty()) {
+            return Observable.just(Collections.<Task>emptyList());
+        }
+        // The terms can't hold any query syntax, so each one is simply matched as a prefix.
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            match.append(match.length() == 0 ? "" : " ").append(term).append('*');
+        }
+        // The full-text table only changes along with the tasks table, through its triggers.
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, SQL_SEARCH_TASKS,
+                match.toString())
+                .mapToList(TASK_MAPPER);
+    }
+
+    @Override
+    public Observable<Void> saveTask(@NonNull Task task) {
         checkNotNull(task);
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_ENTRY_ID, task.getId());
-        values.put(TaskEntry.COLUMN_NAME_TITLE, task.getTitle());
-        values.put(TaskEntry.COLUMN_NAME_DESCRIPTION, task.getDescription());
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, task.isCompleted());
-        mDatabaseHelper.insert(TaskEntry.TABLE_NAME, values, SQLiteDatabase.CONFLICT_REPLACE);
+        final Object[] args = replaceArgs(task);
+        final List<String> taskIds = Collections.singletonList(task.getId());
+        return mWriter.enqueue(Operation.SAVE_TASK, new Action0() {
+            @Override
+            public void call() {
+                mDatabaseHelper.executeAndTrigger(TaskEntry.TABLE_NAME, SQL_REPLACE_TASK, args);
+                recordTaskWrites(PendingWrite.Type.SAVE, taskIds);
+            }
+        });
     }
 
     @Override
-    public void completeTask(@NonNull Task task) {
-        completeTask(task.getId());
+    public Observable<Void> saveTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        if (tasks.isEmpty()) {
+            return Observable.empty();
+        }
+        final List<Task> tasksToSave = new ArrayList<>(tasks);
+        return mWriter.enqueue(Operation.SAVE_TASKS, new Action0() {
+            @Override
+            public void call() {
+                writeTasks(tasksToSave);
+                List<String> taskIds = new ArrayList<>(tasksToSave.size());
+                for (Task task : tasksToSave) {
+                    taskIds.add(task.getId());
+                }
+                recordTaskWrites(PendingWrite.Type.SAVE, taskIds);
+            }
+        });
+    }
+
+    /**
+     * Writes all the {@code tasks} in a single transaction, so the queries on the tasks are only
+     * re-run once, when it commits.
+     * <p/>
+     * The first task goes through SQLBrite, which queues that notification until the commit. The
+     * others are written with a statement compiled once and bound again for each task, without
+     * going through {@link ContentValues} or SQLBrite.
+     */
+    private void writeTasks(List<Task> tasks) {
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            Iterator<Task> iterator = tasks.iterator();
+            Task first = iterator.next();
+            mDatabaseHelper.executeAndTrigger(TaskEntry.TABLE_NAME, SQL_REPLACE_TASK,
+                    replaceArgs(first));
+            // SQLBrite opens the transaction on the same database, on this thread.
+            SQLiteStatement statement = mDbHelper.getWritableDatabase()
+                    .compileStatement(SQL_REPLACE_TASK);
+            try {
+                while (iterator.hasNext()) {
+                    bind(statement, iterator.next());
+                    statement.executeInsert();
+                }
+            } finally {
+                statement.close();
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
     }
 
     @Override
-    public void completeTask(@NonNull String taskId) {
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, true);
+    public Observable<Void> applyRemoteChanges(@NonNull TasksDelta delta,
+                                               @Nullable Collection<String> keptTaskIds) {
+        checkNotNull(delta);
+        final List<Task> changedTasks = delta.getChangedTasks();
+        final List<String> deletedTaskIds = delta.getDeletedTaskIds();
+        final Set<String> keptIds = keptTaskIds == null ? null : new HashSet<>(keptTaskIds);
+        final long version = delta.getVersion();
+        return mWriter.enqueue(Operation.SAVE_TASKS, new Action0() {
+            @Override
+            public void call() {
+                BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+                try {
+                    if (keptIds != null) {
+                        deleteMissingTasks(changedTasks, keptIds);
+                    }
+                    if (!changedTasks.isEmpty()) {
+                        mergeTasks(changedTasks);
+                    }
+                    for (List<String> ids : Iterables.partition(deletedTaskIds,
+                            MAX_SQL_VARIABLES)) {
+                        mDatabaseHelper.delete(TaskEntry.TABLE_NAME, entryIdIn(ids.size()),
+                                ids.toArray(new String[ids.size()]));
+                    }
+                    if (version != TasksDelta.NO_VERSION) {
+                        mDatabaseHelper.executeAndTrigger(SyncStateEntry.TABLE_NAME,
+                                SQL_SET_SYNC_VERSION, SyncStateEntry.NAME_SYNC_VERSION, version);
+                    }
+                    transaction.markSuccessful();
+                } finally {
+                    transaction.end();
+                }
+            }
+        });
+    }
 
-        String selection = TaskEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = {taskId};
-        mDatabaseHelper.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs);
+    /**
+     * Deletes the stored tasks that are neither in {@code remoteTasks} nor kept. Run in the
+     * writer's transaction, so no task can be stored between the read and the deletion.
+     */
+    private void deleteMissingTasks(List<Task> remoteTasks, Set<String> keptIds) {
+        Set<String> remoteIds = new HashSet<>(remoteTasks.size());
+        for (Task task : remoteTasks) {
+            remoteIds.add(task.getId());
+        }
+        List<String> missingIds = new ArrayList<>();
+        Cursor cursor = mDatabaseHelper.query(SQL_GET_TASK_IDS);
+        try {
+            while (cursor.moveToNext()) {
+                String taskId = cursor.getString(0);
+                if (!remoteIds.contains(taskId) && !keptIds.contains(taskId)) {
+                    missingIds.add(taskId);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (List<String> ids : Iterables.partition(missingIds, MAX_SQL_VARIABLES)) {
+            mDatabaseHelper.delete(TaskEntry.TABLE_NAME, entryIdIn(ids.size()),
+                    ids.toArray(new String[ids.size()]));
+        }
+    }
+
+    /**
+     * Same as {@link #writeTasks(List)}, leaving the stored tasks with the same or a later version
+     * as they are.
+     */
+    private void mergeTasks(List<Task> tasks) {
+        Iterator<Task> iterator = tasks.iterator();
+        Task first = iterator.next();
+        mDatabaseHelper.executeAndTrigger(TaskEntry.TABLE_NAME, SQL_MERGE_TASK,
+                mergeArgs(first));
+        SQLiteStatement statement = mDbHelper.getWritableDatabase()
+                .compileStatement(SQL_MERGE_TASK);
+        try {
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                bind(statement, task);
+                statement.bindString(7, task.getId());
+                statement.bindLong(8, task.getUpdatedAt());
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
     }
 
     @Override
-    public void activateTask(@NonNull Task task) {
-        activateTask(task.getId());
+    public Observable<Void> completeTask(@NonNull Task task) {
+        checkNotNull(task);
+        return setCompleted(Operation.COMPLETE_TASK, Collections.singletonList(task.getId()), true,
+                task.getUpdatedAt());
     }
 
     @Override
-    public void activateTask(@NonNull String taskId) {
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, false);
+    public Observable<Void> completeTasks(@NonNull Collection<String> taskIds, long updatedAt) {
+        checkNotNull(taskIds);
+        return setCompleted(Operation.COMPLETE_TASKS, new ArrayList<>(taskIds), true, updatedAt);
+    }
 
-        String selection = TaskEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = {taskId};
-        mDatabaseHelper.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs);
+    @Override
+    public Observable<Void> activateTask(@NonNull Task task) {
+        checkNotNull(task);
+        return setCompleted(Operation.ACTIVATE_TASK, Collections.singletonList(task.getId()),
+                false, task.getUpdatedAt());
     }
 
     @Override
-    public void clearCompletedTasks() {
-        String selection = TaskEntry.COLUMN_NAME_COMPLETED + " LIKE ?";
-        String[] selectionArgs = {"1"};
-        mDatabaseHelper.delete(TaskEntry.TABLE_NAME, selection, selectionArgs);
+    public Observable<Void> clearCompletedTasks() {
+        return mWriter.enqueue(Operation.CLEAR_COMPLETED_TASKS, new Action0() {
+            @Override
+            public void call() {
+                String selection = TaskEntry.COLUMN_NAME_COMPLETED + " = ?";
+                String[] selectionArgs = {"1"};
+                mDatabaseHelper.delete(TaskEntry.TABLE_NAME, selection, selectionArgs);
+                recordGlobalWrite(PendingWrite.Type.CLEAR_COMPLETED);
+            }
+        });
     }
 
     @Override
@@ -156,14 +502,257 @@ public class TasksLocalDataSource implements TasksDataSource {
     }
 
     @Override
-    public void deleteAllTasks() {
-        mDatabaseHelper.delete(TaskEntry.TABLE_NAME, null);
+    public Observable<Void> deleteAllTasks() {
+        return mWriter.enqueue(Operation.DELETE_ALL_TASKS, new Action0() {
+            @Override
+            public void call() {
+                mDatabaseHelper.delete(TaskEntry.TABLE_NAME, null);
+                // Nothing written before would survive the deletion.
+                mDatabaseHelper.delete(PendingWriteEntry.TABLE_NAME, null);
+                recordGlobalWrite(PendingWrite.Type.DELETE_ALL);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> deleteTask(@NonNull String taskId) {
+        checkNotNull(taskId);
+        return delete(Operation.DELETE_TASK, Collections.singletonList(taskId));
     }
 
     @Override
-    public void deleteTask(@NonNull String taskId) {
-        String selection = TaskEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = {taskId};
-        mDatabaseHelper.delete(TaskEntry.TABLE_NAME, selection, selectionArgs);
+    public Observable<Void> deleteTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        return delete(Operation.DELETE_TASKS, new ArrayList<>(taskIds));
+    }
+
+    /**
+     * Queues the deletion of the tasks with the given ids.
+     */
+    private Observable<Void> delete(Operation operation, final List<String> idsToDelete) {
+        return mWriter.enqueue(operation, new Action0() {
+            @Override
+            public void call() {
+                for (List<String> ids : Iterables.partition(idsToDelete, MAX_SQL_VARIABLES)) {
+                    mDatabaseHelper.delete(TaskEntry.TABLE_NAME, entryIdIn(ids.size()),
+                            ids.toArray(new String[ids.size()]));
+                }
+                recordTaskWrites(PendingWrite.Type.DELETE, idsToDelete);
+            }
+        });
+    }
+
+    @Override
+    public Observable<List<PendingWrite>> getPendingWrites() {
+        return Observable.defer(new Func0<Observable<List<PendingWrite>>>() {
+            @Override
+            public Observable<List<PendingWrite>> call() {
+                List<PendingWrite> writes = new ArrayList<>();
+                Cursor cursor = mDatabaseHelper.query(SQL_GET_PENDING_WRITES);
+                try {
+                    while (cursor.moveToNext()) {
+                        writes.add(new PendingWrite(PendingWrite.Type.valueOf(cursor.getString(1)),
+                                cursor.isNull(0) ? null : cursor.getString(0),
+                                cursor.getInt(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return Observable.just(writes);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    public Observable<Void> forgetTaskWrites(@NonNull final String taskId, final int writeCount) {
+        checkNotNull(taskId);
+        return mWriter.enqueue(new Action0() {
+            @Override
+            public void call() {
+                mDatabaseHelper.executeAndTrigger(PendingWriteEntry.TABLE_NAME,
+                        SQL_FORGET_TASK_WRITES, writeCount, taskId);
+                // More writes may be forgotten than were recorded, if some were rolled back.
+                mDatabaseHelper.delete(PendingWriteEntry.TABLE_NAME,
+                        PendingWriteEntry.COLUMN_NAME_TASK_ID + " = ? AND "
+                                + PendingWriteEntry.COLUMN_NAME_WRITE_COUNT + " <= 0", taskId);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> forgetGlobalWrite(@NonNull PendingWrite.Type type) {
+        final String typeName = checkNotNull(type).name();
+        return mWriter.enqueue(new Action0() {
+            @Override
+            public void call() {
+                mDatabaseHelper.executeAndTrigger(PendingWriteEntry.TABLE_NAME,
+                        SQL_FORGET_GLOBAL_WRITE, typeName);
+            }
+        });
+    }
+
+    @Override
+    public Observable<Void> whenWritten() {
+        return mWriter.whenWritten();
+    }
+
+    @Override
+    public void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mWriter.setMetricsSink(metricsSink);
+    }
+
+    /**
+     * Queues {@code write} with the writes of this data source, to run in the transaction of the
+     * writes queued with it. Lets tests hold that transaction open.
+     */
+    @VisibleForTesting
+    public Observable<Void> enqueueWrite(@NonNull Action0 write) {
+        return mWriter.enqueue(checkNotNull(write));
+    }
+
+    /**
+     * Sets when the write-ahead log is checkpointed. Defaults to
+     * {@link WalCheckpointPolicy#AUTOMATIC}. Applies from the writes queued afterwards.
+     */
+    public void setWalCheckpointPolicy(@NonNull WalCheckpointPolicy policy) {
+        checkNotNull(policy);
+        final int autoCheckpointPages =
+                policy == WalCheckpointPolicy.AUTOMATIC ? WAL_AUTOCHECKPOINT_PAGES : 0;
+        mWriter.enqueue(new Action0() {
+            @Override
+            public void call() {
+                // Run in the writer's transaction, so on the connection the writes go through.
+                runPragma("PRAGMA wal_autocheckpoint = " + autoCheckpointPages);
+            }
+        });
+        mWriter.setIdleAction(policy == WalCheckpointPolicy.WHEN_IDLE ? mCheckpointAction : null);
+    }
+
+    /**
+     * Checkpoints the write-ahead log from the writer's thread, between batches. Falls back to
+     * {@link WalCheckpointPolicy#AUTOMATIC} once {@link #MAX_FAILED_CHECKPOINTS} fail in a row.
+     */
+    private void checkpoint() {
+        try {
+            // A compiled statement runs on the connection the writes go through, where a query
+            // could be given a read-only one.
+            SQLiteStatement statement = mDbHelper.getWritableDatabase()
+                    .compileStatement("PRAGMA wal_checkpoint");
+            try {
+                statement.simpleQueryForLong();
+            } finally {
+                statement.close();
+            }
+            mFailedCheckpoints = 0;
+        } catch (SQLiteException e) {
+            mFailedCheckpoints++;
+            if (mFailedCheckpoints >= MAX_FAILED_CHECKPOINTS) {
+                mFailedCheckpoints = 0;
+                setWalCheckpointPolicy(WalCheckpointPolicy.AUTOMATIC);
+            }
+        }
+    }
+
+    /**
+     * Runs a pragma that returns a row, which {@link BriteDatabase#execute(String)} can't run.
+     */
+    private void runPragma(String sql) {
+        Cursor cursor = mDatabaseHelper.query(sql);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Queues the update of the completed state of the tasks with the given ids, as version
+     * {@code updatedAt}.
+     */
+    private Observable<Void> setCompleted(Operation operation, final List<String> taskIds,
+                                          boolean completed, long updatedAt) {
+        final ContentValues values = new ContentValues();
+        values.put(TaskEntry.COLUMN_NAME_COMPLETED, completed);
+        values.put(TaskEntry.COLUMN_NAME_UPDATED_AT, updatedAt);
+        return mWriter.enqueue(operation, new Action0() {
+            @Override
+            public void call() {
+                for (List<String> ids : Iterables.partition(taskIds, MAX_SQL_VARIABLES)) {
+                    mDatabaseHelper.update(TaskEntry.TABLE_NAME, values, entryIdIn(ids.size()),
+                            ids.toArray(new String[ids.size()]));
+                }
+                recordTaskWrites(PendingWrite.Type.SAVE, taskIds);
+            }
+        });
+    }
+
+    /**
+     * Records a write of the given type to each of the tasks with the given ids, on the
+     * connection and in the transaction of the write, as SQLBrite runs it on this thread.
+     */
+    private void recordTaskWrites(PendingWrite.Type type, List<String> taskIds) {
+        SQLiteStatement statement = mDbHelper.getWritableDatabase()
+                .compileStatement(SQL_RECORD_TASK_WRITE);
+        try {
+            for (String taskId : taskIds) {
+                statement.bindString(1, taskId);
+                statement.bindString(2, type.name());
+                statement.bindString(3, taskId);
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void recordGlobalWrite(PendingWrite.Type type) {
+        mDatabaseHelper.executeAndTrigger(PendingWriteEntry.TABLE_NAME, SQL_RECORD_GLOBAL_WRITE,
+                type.name());
+    }
+
+    /**
+     * Returns the arguments of {@link #SQL_REPLACE_TASK} for {@code task}.
+     */
+    private static Object[] replaceArgs(Task task) {
+        return new Object[]{task.getId(), task.getTitle(), task.getDescription(),
+                task.isCompleted() ? 1 : 0, task.getUpdatedAt(), task.getId()};
+    }
+
+    /**
+     * Returns the arguments of {@link #SQL_MERGE_TASK} for {@code task}.
+     */
+    private static Object[] mergeArgs(Task task) {
+        return new Object[]{task.getId(), task.getTitle(), task.getDescription(),
+                task.isCompleted() ? 1 : 0, task.getUpdatedAt(), task.getId(), task.getId(),
+                task.getUpdatedAt()};
+    }
+
+    /**
+     * Binds {@code task} to the arguments of {@link #SQL_REPLACE_TASK}.
+     */
+    private static void bind(SQLiteStatement statement, Task task) {
+        statement.clearBindings();
+        statement.bindString(1, task.getId());
+        if (task.getTitle() != null) {
+            statement.bindString(2, task.getTitle());
+        }
+        if (task.getDescription() != null) {
+            statement.bindString(3, task.getDescription());
+        }
+        statement.bindLong(4, task.isCompleted() ? 1 : 0);
+        statement.bindLong(5, task.getUpdatedAt());
+        statement.bindString(6, task.getId());
+    }
+
+    /**
+     * Returns a selection matching the tasks whose id is one of {@code count} arguments.
+     */
+    private static String entryIdIn(int count) {
+        StringBuilder selection = new StringBuilder(TaskEntry.COLUMN_NAME_ENTRY_ID)
+                .append(" IN (?");
+        for (int i = 1; i < count; i++) {
+            selection.append(",?");
+        }
+        return selection.append(')').toString();
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
+import com.squareup.sqlbrite.BriteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.subjects.AsyncSubject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Single-writer queue for the writes of the {@link TasksLocalDataSource}, so callers never wait
+ * for the database.
+ * <p/>
+ * Writes run in order on a serial {@link Scheduler}. Everything queued while a batch is pending or
+ * being written goes into the next batch, which is written in a single transaction, so the queries
+ * on the tasks are only re-run once per batch. If any write of a batch fails the whole transaction
+ * rolls back, so the writes are then replayed one transaction each: only the write that failed is
+ * lost, and only its caller hears about it.
+ * <p/>
+ * The latency of each write, from the time it is queued, is recorded once its batch commits, and
+ * each write that fails is recorded too, so no caller has to watch the writes for that.
+ */
+final class TasksLocalWriter {
+
+    private final BriteDatabase mDatabase;
+
+    private final Scheduler.Worker mWorker;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Writes queued for the next batch. Guarded by {@link #mLock}.
+     */
+    private List<Write> mPendingWrites = new ArrayList<>();
+
+    /**
+     * Completes once the next batch is written. Guarded by {@link #mLock}.
+     */
+    private AsyncSubject<Void> mPendingCompletion = AsyncSubject.create();
+
+    /**
+     * Completes once the batch being written is, or null if none is. Guarded by {@link #mLock}.
+     */
+    @Nullable
+    private AsyncSubject<Void> mWritingCompletion;
+
+    @Nullable
+    private volatile Action0 mIdleAction;
+
+    private volatile TasksMetricsSink mMetricsSink = TasksMetricsSink.NONE;
+
+    private final Action0 mFlushAction = new Action0() {
+        @Override
+        public void call() {
+            flush();
+        }
+    };
+
+    TasksLocalWriter(@NonNull BriteDatabase database, @NonNull Scheduler scheduler) {
+        mDatabase = checkNotNull(database);
+        mWorker = checkNotNull(scheduler).createWorker();
+    }
+
+    /**
+     * Queues {@code write} and returns an observable that completes once it is committed, or
+     * fails with the error it threw. Its latency isn't recorded, see
+     * {@link #enqueue(Operation, Action0)}.
+     */
+    Observable<Void> enqueue(@NonNull Action0 write) {
+        return enqueue(null, write);
+    }
+
+    /**
+     * Same as {@link #enqueue(Action0)}, recording the latency of the write as {@code operation}
+     * once it is committed, unless that is null.
+     */
+    Observable<Void> enqueue(@Nullable Operation operation, @NonNull Action0 write) {
+        Write queued = new Write(operation, checkNotNull(write), System.nanoTime());
+        boolean scheduleFlush;
+        synchronized (mLock) {
+            scheduleFlush = mPendingWrites.isEmpty();
+            mPendingWrites.add(queued);
+        }
+        if (scheduleFlush) {
+            mWorker.schedule(mFlushAction);
+        }
+        return queued.mCompletion.asObservable();
+    }
+
+    /**
+     * Sets an action run on the writer's {@link Scheduler}, outside of any transaction, every time
+     * a batch is written and no other write is queued.
+     */
+    void setIdleAction(@Nullable Action0 idleAction) {
+        mIdleAction = idleAction;
+    }
+
+    void setMetricsSink(@NonNull TasksMetricsSink metricsSink) {
+        mMetricsSink = checkNotNull(metricsSink);
+    }
+
+    /**
+     * Returns an observable that completes once every write queued so far is written, whether or
+     * not they all succeeded.
+     */
+    Observable<Void> whenWritten() {
+        synchronized (mLock) {
+            if (!mPendingWrites.isEmpty()) {
+                return mPendingCompletion.asObservable();
+            } else if (mWritingCompletion != null) {
+                return mWritingCompletion.asObservable();
+            }
+        }
+        return Observable.empty();
+    }
+
+    private void flush() {
+        List<Write> writes;
+        AsyncSubject<Void> completion;
+        synchronized (mLock) {
+            writes = mPendingWrites;
+            completion = mPendingCompletion;
+            mPendingWrites = new ArrayList<>();
+            mPendingCompletion = AsyncSubject.create();
+            mWritingCompletion = completion;
+        }
+        try {
+            if (!writeAll(writes) && writes.size() > 1) {
+                // Nothing of the batch was committed, find out which writes can be.
+                for (Write write : writes) {
+                    writeAll(Collections.singletonList(write));
+                }
+            }
+        } finally {
+            synchronized (mLock) {
+                mWritingCompletion = null;
+            }
+        }
+        completion.onCompleted();
+        runIdleActionIfIdle();
+    }
+
+    /**
+     * Runs {@code writes} in a single transaction. Returns whether it was committed, if not none
+     * of them were: a lone write is then failed with the error, a batch is left to be replayed.
+     */
+    private boolean writeAll(List<Write> writes) {
+        try {
+            BriteDatabase.Transaction transaction = mDatabase.newTransaction();
+            try {
+                for (Write write : writes) {
+                    write.mAction.call();
+                }
+                transaction.markSuccessful();
+            } finally {
+                transaction.end();
+            }
+        } catch (RuntimeException e) {
+            if (writes.size() == 1) {
+                mMetricsSink.recordEvent(Event.LOCAL_WRITE_FAILED);
+                writes.get(0).mCompletion.onError(e);
+            }
+            return false;
+        }
+        TasksMetricsSink metricsSink = mMetricsSink;
+        long committedNanos = System.nanoTime();
+        for (Write write : writes) {
+            if (write.mOperation != null) {
+                metricsSink.recordLatency(write.mOperation, Source.LOCAL,
+                        committedNanos - write.mQueuedNanos);
+            }
+            write.mCompletion.onCompleted();
+        }
+        return true;
+    }
+
+    private void runIdleActionIfIdle() {
+        Action0 idleAction = mIdleAction;
+        if (idleAction == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mPendingWrites.isEmpty()) {
+                // The next batch runs it.
+                return;
+            }
+        }
+        try {
+            idleAction.call();
+        } catch (RuntimeException e) {
+            // It is only housekeeping, the writes themselves are committed.
+        }
+    }
+
+    private static final class Write {
+
+        @Nullable
+        final Operation mOperation;
+
+        final Action0 mAction;
+
+        final long mQueuedNanos;
+
+        final AsyncSubject<Void> mCompletion = AsyncSubject.create();
+
+        Write(@Nullable Operation operation, Action0 action, long queuedNanos) {
+            mOperation = operation;
+            mAction = action;
+            mQueuedNanos = queuedNanos;
+        }
+    }
+}
@@ -34,5 +34,43 @@ public final class TasksPersistenceContract {
         public static final String COLUMN_NAME_TITLE = "title";
         public static final String COLUMN_NAME_DESCRIPTION = "description";
         public static final String COLUMN_NAME_COMPLETED = "completed";
+        public static final String COLUMN_NAME_UPDATED_AT = "updatedat";
+        /**
+         * Sequence number given to a task when it is first stored, which orders the task list.
+         */
+        public static final String COLUMN_NAME_CREATED_SEQ = "createdseq";
+        public static final String INDEX_NAME_COMPLETED = "task_completed";
+        public static final String INDEX_NAME_CREATED_SEQ = "task_createdseq";
+        /**
+         * Full-text index of the titles and descriptions, whose rows have the rowid of the task
+         * they index as docid.
+         */
+        public static final String FTS_TABLE_NAME = "task_fts";
+    }
+
+    /* Inner class that defines the state of the sync with the remote data source */
+    public static abstract class SyncStateEntry implements BaseColumns {
+        public static final String TABLE_NAME = "syncstate";
+        public static final String COLUMN_NAME_NAME = "name";
+        public static final String COLUMN_NAME_VALUE = "value";
+        /**
+         * Version of the remote data the stored tasks were last synced with.
+         */
+        public static final String NAME_SYNC_VERSION = "syncversion";
+    }
+
+    /* Inner class that defines the writes not sent to the remote data source yet */
+    public static abstract class PendingWriteEntry implements BaseColumns {
+        public static final String TABLE_NAME = "pendingwrite";
+        /**
+         * Rowid alias, renumbered when a task is written again, which orders the writes.
+         */
+        public static final String COLUMN_NAME_SEQ = "seq";
+        /**
+         * Id of the task written, null for the writes to all the tasks.
+         */
+        public static final String COLUMN_NAME_TASK_ID = "taskid";
+        public static final String COLUMN_NAME_TYPE = "type";
+        public static final String COLUMN_NAME_WRITE_COUNT = "writecount";
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source.local;
+
+/**
+ * When the {@link TasksLocalDataSource} copies the write-ahead log back into the database. Until
+ * it does, the log keeps growing and every read has to look through it.
+ */
+public enum WalCheckpointPolicy {
+
+    /**
+     * Lets SQLite checkpoint whenever a commit takes the log past a thousand pages, so the write
+     * that happens to cross that limit pays for it.
+     */
+    AUTOMATIC,
+
+    /**
+     * Checkpoints whenever the writer runs out of queued writes, and never during a burst of
+     * writes such as a bulk sync. The checkpoint doesn't wait for the reads in progress, and
+     * what it couldn't copy because of them is left for the next one. If several checkpoints in a
+     * row fail, it falls back to {@link #AUTOMATIC}.
+     */
+    WHEN_IDLE
+}
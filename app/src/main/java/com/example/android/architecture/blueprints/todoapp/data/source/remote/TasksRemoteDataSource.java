@@ -18,18 +18,24 @@ package com.example.android.architecture.blueprints.todoapp.data.source.remote;
 
 import android.os.Handler;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
-import com.google.common.collect.Lists;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDelta;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
+import rx.functions.Func0;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Implementation of the data source that adds a latency simulating network.
@@ -42,6 +48,18 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     private final static Map<String, Task> TASKS_SERVICE_DATA;
 
+    /**
+     * Version at which each task was last created or modified.
+     */
+    private final static Map<String, Long> TASK_VERSIONS = new HashMap<>();
+
+    /**
+     * Version at which each task was deleted, so deletions can be reported in deltas.
+     */
+    private final static Map<String, Long> DELETED_TASK_VERSIONS = new HashMap<>();
+
+    private static long sVersion = TasksDelta.NO_VERSION;
+
     static {
         TASKS_SERVICE_DATA = new LinkedHashMap<>(2);
         addTask("Build tower in Pisa", "Ground looks good, no foundation work required.");
@@ -60,20 +78,83 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     private static void addTask(String title, String description) {
         Task newTask = new Task(title, description);
-        TASKS_SERVICE_DATA.put(newTask.getId(), newTask);
+        putTask(newTask);
+    }
+
+    /**
+     * Returns a copy of the tasks, which the outbox may be changing on another thread.
+     */
+    private static synchronized List<Task> copyTasks() {
+        return new ArrayList<>(TASKS_SERVICE_DATA.values());
+    }
+
+    @Nullable
+    private static synchronized Task findTask(String taskId) {
+        return TASKS_SERVICE_DATA.get(taskId);
+    }
+
+    private static synchronized void putTask(Task task) {
+        sVersion++;
+        TASKS_SERVICE_DATA.put(task.getId(), task);
+        TASK_VERSIONS.put(task.getId(), sVersion);
+        DELETED_TASK_VERSIONS.remove(task.getId());
+    }
+
+    private static synchronized void removeTask(String taskId) {
+        if (TASKS_SERVICE_DATA.remove(taskId) != null) {
+            sVersion++;
+            TASK_VERSIONS.remove(taskId);
+            DELETED_TASK_VERSIONS.put(taskId, sVersion);
+        }
+    }
+
+    private static synchronized List<Task> computePage(@Nullable String afterTaskId,
+                                                       int pageSize) {
+        // The tasks are kept in the order they were added, which updates don't change.
+        boolean pageStarted = afterTaskId == null;
+        List<Task> page = new ArrayList<>(Math.min(pageSize, TASKS_SERVICE_DATA.size()));
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (page.size() == pageSize) {
+                break;
+            }
+            if (pageStarted) {
+                page.add(task);
+            } else {
+                pageStarted = task.getId().equals(afterTaskId);
+            }
+        }
+        return page;
+    }
+
+    private static synchronized TasksDelta computeDelta(long sinceVersion) {
+        List<Task> changedTasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (TASK_VERSIONS.get(task.getId()) > sinceVersion) {
+                changedTasks.add(task);
+            }
+        }
+        List<String> deletedTaskIds = new ArrayList<>();
+        if (sinceVersion != TasksDelta.NO_VERSION) {
+            for (Map.Entry<String, Long> entry : DELETED_TASK_VERSIONS.entrySet()) {
+                if (entry.getValue() > sinceVersion) {
+                    deletedTaskIds.add(entry.getKey());
+                }
+            }
+        }
+        return new TasksDelta(changedTasks, deletedTaskIds, sVersion);
     }
 
     @Override
     public Observable<List<Task>> getTasks() {
         return Observable
-                .from(TASKS_SERVICE_DATA.values())
+                .from(copyTasks())
                 .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS)
                 .toList();
     }
 
     @Override
     public Observable<Task> getTask(@NonNull String taskId) {
-        final Task task = TASKS_SERVICE_DATA.get(taskId);
+        final Task task = findTask(taskId);
         if(task != null) {
             return Observable.just(task).delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
         } else {
@@ -82,45 +163,103 @@ public class TasksRemoteDataSource implements TasksDataSource {
     }
 
     @Override
-    public void saveTask(Task task) {
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+    public Observable<List<Task>> getTasksPage(@Nullable final String afterTaskId,
+                                               final int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        return Observable
+                .defer(new Func0<Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call() {
+                        return Observable.just(computePage(afterTaskId, pageSize));
+                    }
+                })
+                .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public void completeTask(Task task) {
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(task.getId(), completedTask);
+    public Observable<TasksDelta> getTasksDelta(final long sinceVersion) {
+        return Observable
+                .defer(new Func0<Observable<TasksDelta>>() {
+                    @Override
+                    public Observable<TasksDelta> call() {
+                        return Observable.just(computeDelta(sinceVersion));
+                    }
+                })
+                .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public void completeTask(@NonNull String taskId) {
-        // Not required for the remote data source because the {@link TasksRepository} handles
-        // converting from a {@code taskId} to a {@link task} using its cached data.
+    public Observable<List<Task>> searchTasks(@NonNull String query) {
+        // Not required because the {@link TasksRepository} only searches the tasks it holds
+        // locally.
+        return Observable.empty();
     }
 
     @Override
-    public void activateTask(Task task) {
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(task.getId(), activeTask);
+    public Observable<Void> saveTask(Task task) {
+        putTask(task);
+        return Observable.empty();
     }
 
     @Override
-    public void activateTask(@NonNull String taskId) {
-        // Not required for the remote data source because the {@link TasksRepository} handles
-        // converting from a {@code taskId} to a {@link task} using its cached data.
+    public Observable<Void> saveTasks(@NonNull Collection<Task> tasks) {
+        // Applied atomically, as a single request would be.
+        synchronized (TasksRemoteDataSource.class) {
+            for (Task task : tasks) {
+                putTask(task);
+            }
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> completeTask(Task task) {
+        setCompleted(task.getId(), true, task.getUpdatedAt());
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> completeTasks(@NonNull Collection<String> taskIds, long updatedAt) {
+        synchronized (TasksRemoteDataSource.class) {
+            for (String taskId : taskIds) {
+                setCompleted(taskId, true, updatedAt);
+            }
+        }
+        return Observable.empty();
     }
 
     @Override
-    public void clearCompletedTasks() {
-        Iterator<Map.Entry<String, Task>> it = TASKS_SERVICE_DATA.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) {
-                it.remove();
+    public Observable<Void> activateTask(Task task) {
+        setCompleted(task.getId(), false, task.getUpdatedAt());
+        return Observable.empty();
+    }
+
+    /**
+     * Sets the completed state of the stored task with the given id, as version {@code updatedAt}.
+     */
+    private static void setCompleted(String taskId, boolean completed, long updatedAt) {
+        // Read and written atomically, so a concurrent write to the task isn't lost.
+        synchronized (TasksRemoteDataSource.class) {
+            Task task = findTask(taskId);
+            if (task != null) {
+                putTask(new Task(task.getTitle(), task.getDescription(), task.getId(), completed,
+                        updatedAt));
             }
         }
     }
 
+    @Override
+    public Observable<Void> clearCompletedTasks() {
+        synchronized (TasksRemoteDataSource.class) {
+            for (Task task : copyTasks()) {
+                if (task.isCompleted()) {
+                    removeTask(task.getId());
+                }
+            }
+        }
+        return Observable.empty();
+    }
+
     @Override
     public void refreshTasks() {
         // Not required because the {@link TasksRepository} handles the logic of refreshing the
@@ -128,12 +267,34 @@ public class TasksRemoteDataSource implements TasksDataSource {
     }
 
     @Override
-    public void deleteAllTasks() {
-        TASKS_SERVICE_DATA.clear();
+    public Observable<Void> deleteAllTasks() {
+        synchronized (TasksRemoteDataSource.class) {
+            for (Task task : copyTasks()) {
+                removeTask(task.getId());
+            }
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> deleteTask(String taskId) {
+        removeTask(taskId);
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> deleteTasks(@NonNull Collection<String> taskIds) {
+        synchronized (TasksRemoteDataSource.class) {
+            for (String taskId : taskIds) {
+                removeTask(taskId);
+            }
+        }
+        return Observable.empty();
     }
 
     @Override
-    public void deleteTask(String taskId) {
-        TASKS_SERVICE_DATA.remove(taskId);
+    public Observable<Void> whenWritten() {
+        // Writes are stored by the time they return.
+        return Observable.empty();
     }
 }
@@ -30,6 +30,7 @@ import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.tasks.TasksActivity;
 import com.example.android.architecture.blueprints.todoapp.util.ActivityUtils;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.SchedulerProvider;
 
 /**
  * Show statistics for tasks.
@@ -69,7 +70,8 @@ public class StatisticsActivity extends AppCompatActivity {
         }
 
         new StatisticsPresenter(
-                Injection.provideTasksRepository(getApplicationContext()), statisticsFragment);
+                Injection.provideTasksRepository(getApplicationContext()), statisticsFragment,
+                SchedulerProvider.getInstance());
     }
 
     @Override
@@ -17,22 +17,18 @@
 package com.example.android.architecture.blueprints.todoapp.statistics;
 
 import android.support.annotation.NonNull;
-import android.support.v4.util.Pair;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksStatistics;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import java.util.List;
 
-import rx.Observable;
+import rx.Observer;
 import rx.Subscription;
-import rx.android.schedulers.AndroidSchedulers;
-import rx.functions.Action0;
 import rx.functions.Action1;
-import rx.functions.Func1;
-import rx.functions.Func2;
-import rx.schedulers.Schedulers;
 import rx.subscriptions.CompositeSubscription;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,12 +42,18 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
     private final TasksRepository mTasksRepository;
 
     private final StatisticsContract.View mStatisticsView;
+
+    @NonNull
+    private final BaseSchedulerProvider mSchedulerProvider;
+
     private CompositeSubscription mSubscriptions;
 
     public StatisticsPresenter(@NonNull TasksRepository tasksRepository,
-                               @NonNull StatisticsContract.View statisticsView) {
+                               @NonNull StatisticsContract.View statisticsView,
+                               @NonNull BaseSchedulerProvider schedulerProvider) {
         mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
         mStatisticsView = checkNotNull(statisticsView, "StatisticsView cannot be null!");
+        mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
         mSubscriptions = new CompositeSubscription();
         mStatisticsView.setPresenter(this);
     }
@@ -73,51 +75,43 @@ public class StatisticsPresenter implements StatisticsContract.Presenter {
         // that the app is busy until the response is handled.
         EspressoIdlingResource.increment(); // App is busy until further notice
 
-        Observable<Task> tasks = mTasksRepository
-                .getTasks()
-                .flatMap(new Func1<List<Task>, Observable<Task>>() {
+        mSubscriptions.clear();
+        // The repository keeps the counts up to date, so they are shown again after every change
+        // without reloading the tasks.
+        Subscription statisticsSubscription = mTasksRepository
+                .getStatisticsStream()
+                .observeOn(mSchedulerProvider.ui())
+                .subscribe(new Action1<TasksStatistics>() {
                     @Override
-                    public Observable<Task> call(List<Task> tasks) {
-                        return null;
+                    public void call(TasksStatistics statistics) {
+                        mStatisticsView.showStatistics(statistics.getActiveCount(),
+                                statistics.getCompletedCount());
                     }
                 });
-        Observable<Integer> completedTasks = tasks.filter(new Func1<Task, Boolean>() {
-            @Override
-            public Boolean call(Task task) {
-                return task.isCompleted();
-            }
-        }).count();
-        Observable<Integer> activeTasks = tasks.filter(new Func1<Task, Boolean>() {
-            @Override
-            public Boolean call(Task task) {
-                return task.isActive();
-            }
-        }).count();
-        Subscription subscription = Observable
-                .zip(completedTasks, activeTasks, new Func2<Integer, Integer, Pair<Integer, Integer>>() {
-                    @Override
-                    public Pair<Integer, Integer> call(Integer completed, Integer active) {
-                        return Pair.create(completed, active);
-                    }
-                })
-                .subscribeOn(Schedulers.computation())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(new Action1<Pair<Integer, Integer>>() {
+        mSubscriptions.add(statisticsSubscription);
+
+        // Only the loading state is handled here, the counts reach the view through the stream.
+        Subscription loadSubscription = mTasksRepository
+                .getTasks()
+                .subscribeOn(mSchedulerProvider.io())
+                .observeOn(mSchedulerProvider.ui())
+                .subscribe(new Observer<List<Task>>() {
                     @Override
-                    public void call(Pair<Integer, Integer> stats) {
-                        mStatisticsView.showStatistics(stats.first, stats.second);
+                    public void onCompleted() {
+                        mStatisticsView.setProgressIndicator(false);
                     }
-                }, new Action1<Throwable>() {
+
                     @Override
-                    public void call(Throwable throwable) {
+                    public void onError(Throwable e) {
+                        mStatisticsView.setProgressIndicator(false);
                         mStatisticsView.showLoadingStatisticsError();
                     }
-                }, new Action0() {
+
                     @Override
-                    public void call() {
-                        mStatisticsView.setProgressIndicator(false);
+                    public void onNext(List<Task> tasks) {
+                        // Delivered by the statistics stream.
                     }
                 });
-        mSubscriptions.add(subscription);
+        mSubscriptions.add(loadSubscription);
     }
 }
@@ -33,6 +33,7 @@ import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.statistics.StatisticsActivity;
 import com.example.android.architecture.blueprints.todoapp.util.ActivityUtils;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.SchedulerProvider;
 
 public class TasksActivity extends AppCompatActivity {
 
@@ -73,7 +74,8 @@ public class TasksActivity extends AppCompatActivity {
 
         // Create the presenter
         mTasksPresenter = new TasksPresenter(
-                Injection.provideTasksRepository(getApplicationContext()), tasksFragment);
+                Injection.provideTasksRepository(getApplicationContext()), tasksFragment,
+                SchedulerProvider.getInstance());
 
         // Load previously saved state, if available.
         if (savedInstanceState != null) {
@@ -45,6 +45,10 @@ public interface TasksContract {
 
         void showCompletedTasksCleared();
 
+        void showTaskChangeReverted();
+
+        void showTasksNotSaved();
+
         void showLoadingTasksError();
 
         void showNoTasks();
@@ -72,6 +76,11 @@ public interface TasksContract {
 
         void loadTasks(boolean forceUpdate);
 
+        /**
+         * Loads the next page of tasks, if any, when the user scrolls to the end of the list.
+         */
+        void loadMoreTasks();
+
         void addNewTask();
 
         void openTaskDetails(@NonNull Task requestedTask);
@@ -84,6 +93,12 @@ public interface TasksContract {
 
         void setFiltering(TasksFilterType requestType);
 
+        /**
+         * Shows the tasks matching {@code query} instead of the loaded ones, or the loaded ones
+         * again if it is blank. Meant to be called on every keystroke.
+         */
+        void searchTasks(@NonNull String query);
+
         TasksFilterType getFiltering();
     }
 }
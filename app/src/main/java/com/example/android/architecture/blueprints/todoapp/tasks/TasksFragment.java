@@ -24,14 +24,17 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.SearchView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.ImageView;
@@ -54,6 +57,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class TasksFragment extends Fragment implements TasksContract.View {
 
+    /**
+     * How many rows before the end of the list the next page starts loading.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
     private TasksContract.Presenter mPresenter;
 
     private TasksAdapter mListAdapter;
@@ -115,6 +123,21 @@ public class TasksFragment extends Fragment implements TasksContract.View {
         // Set up tasks view
         ListView listView = (ListView) root.findViewById(R.id.tasks_list);
         listView.setAdapter(mListAdapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0
+                        && firstVisibleItem + visibleItemCount + LOAD_MORE_THRESHOLD
+                        >= totalItemCount) {
+                    mPresenter.loadMoreTasks();
+                }
+            }
+        });
         mFilteringLabelView = (TextView) root.findViewById(R.id.filteringLabel);
         mTasksView = (LinearLayout) root.findViewById(R.id.tasksLL);
 
@@ -184,6 +207,22 @@ public class TasksFragment extends Fragment implements TasksContract.View {
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.tasks_fragment_menu, menu);
+        SearchView searchView =
+                (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.menu_search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mPresenter.searchTasks(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Also called with an empty query when the search is closed.
+                mPresenter.searchTasks(newText);
+                return true;
+            }
+        });
         super.onCreateOptionsMenu(menu, inflater);
     }
 
@@ -345,6 +384,16 @@ public class TasksFragment extends Fragment implements TasksContract.View {
         showMessage(getString(R.string.completed_tasks_cleared));
     }
 
+    @Override
+    public void showTaskChangeReverted() {
+        showMessage(getString(R.string.task_change_reverted));
+    }
+
+    @Override
+    public void showTasksNotSaved() {
+        showMessage(getString(R.string.tasks_not_saved));
+    }
+
     @Override
     public void showLoadingTasksError() {
         showMessage(getString(R.string.loading_tasks_error));
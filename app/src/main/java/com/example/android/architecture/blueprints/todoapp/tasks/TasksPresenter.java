@@ -18,22 +18,29 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.app.Activity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
+import com.example.android.architecture.blueprints.todoapp.data.CompactTaskList;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskRollback;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.EspressoIdlingResource;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
 import rx.Observer;
+import rx.Subscriber;
 import rx.Subscription;
-import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
 import rx.functions.Func1;
-import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
 import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -43,29 +50,126 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class TasksPresenter implements TasksContract.Presenter {
 
+    /**
+     * Number of tasks read from the repository at a time.
+     */
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * How long the user has to stop typing before the tasks are searched.
+     */
+    static final long SEARCH_DEBOUNCE_MILLIS = 300;
+
     private final TasksRepository mTasksRepository;
 
     private final TasksContract.View mTasksView;
 
+    @NonNull
+    private final BaseSchedulerProvider mSchedulerProvider;
+
     private TasksFilterType mCurrentFiltering = TasksFilterType.ALL_TASKS;
 
     private boolean mFirstLoad = true;
     private CompositeSubscription mSubscriptions;
 
-    public TasksPresenter(@NonNull TasksRepository tasksRepository, @NonNull TasksContract.View tasksView) {
+    /**
+     * Tasks of every page loaded so far, whatever the filter. Stored compactly since they can add
+     * up to many more tasks than are on screen.
+     */
+    private final CompactTaskList mLoadedTasks = new CompactTaskList();
+
+    /**
+     * Id of the last loaded task, where the next page starts.
+     */
+    @Nullable
+    private String mLastLoadedTaskId;
+
+    private boolean mAllPagesLoaded;
+
+    private boolean mLoadingPage;
+
+    /**
+     * Latest tasks matching the filter pushed by the repository, or null until its cache is
+     * loaded. Once they are known, the pages are read from them rather than from the repository,
+     * and follow every change made to the tasks.
+     */
+    @Nullable
+    private List<Task> mStreamedTasks;
+
+    /**
+     * How many of {@link #mStreamedTasks} are shown.
+     */
+    private int mStreamedTaskCount;
+
+    /**
+     * Kept apart from {@link #mSubscriptions}, which is cleared on every reload.
+     */
+    private Subscription mRollbacksSubscription = Subscriptions.unsubscribed();
+
+    /**
+     * Writes made from this screen whose results haven't arrived yet. Also kept apart from
+     * {@link #mSubscriptions} so that reloading doesn't lose their failures.
+     */
+    private final CompositeSubscription mWriteSubscriptions = new CompositeSubscription();
+
+    private final PublishSubject<String> mSearchQueries = PublishSubject.create();
+
+    private Subscription mSearchSubscription = Subscriptions.unsubscribed();
+
+    /**
+     * Tasks matching the last search, shown instead of the loaded tasks, or null if there is no
+     * search.
+     */
+    @Nullable
+    private CompactTaskList mSearchResults;
+
+    public TasksPresenter(@NonNull TasksRepository tasksRepository,
+                          @NonNull TasksContract.View tasksView,
+                          @NonNull BaseSchedulerProvider schedulerProvider) {
         mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
         mTasksView = checkNotNull(tasksView, "tasksView cannot be null!");
+        mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
         mSubscriptions = new CompositeSubscription();
         mTasksView.setPresenter(this);
     }
 
     @Override
     public void subscribe() {
+        mRollbacksSubscription = mTasksRepository
+                .getRollbacks()
+                .observeOn(mSchedulerProvider.ui())
+                .subscribe(new Action1<TaskRollback>() {
+                    @Override
+                    public void call(TaskRollback rollback) {
+                        processRollback(rollback);
+                    }
+                });
+        mSearchSubscription = mSearchQueries
+                .debounce(SEARCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS,
+                        mSchedulerProvider.computation())
+                .observeOn(mSchedulerProvider.ui())
+                // Unsubscribes from the search of the previous query if it's still running.
+                .switchMap(new Func1<String, Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call(String query) {
+                        return search(query);
+                    }
+                })
+                .subscribe(new Action1<List<Task>>() {
+                    @Override
+                    public void call(List<Task> tasks) {
+                        mSearchResults = new CompactTaskList(tasks);
+                        processTasks(filterTasks(mSearchResults));
+                    }
+                });
         loadTasks(false);
     }
 
     @Override
     public void unsubscribe() {
+        mRollbacksSubscription.unsubscribe();
+        mSearchSubscription.unsubscribe();
+        mWriteSubscriptions.clear();
         mSubscriptions.clear();
     }
 
@@ -88,7 +192,7 @@ public class TasksPresenter implements TasksContract.Presenter {
      * @param forceUpdate   Pass in true to refresh the data in the {@link TasksDataSource}
      * @param showLoadingUI Pass in true to display a loading icon in the UI
      */
-    private void loadTasks(boolean forceUpdate, final boolean showLoadingUI) {
+    private void loadTasks(boolean forceUpdate, boolean showLoadingUI) {
         if (showLoadingUI) {
             mTasksView.setLoadingIndicator(true);
         }
@@ -96,53 +200,246 @@ public class TasksPresenter implements TasksContract.Presenter {
             mTasksRepository.refreshTasks();
         }
 
-        // The network request might be handled in a different thread so make sure Espresso knows
-        // that the app is busy until the response is handled.
-        EspressoIdlingResource.increment(); // App is busy until further notice
-
         mSubscriptions.clear();
-        Subscription subscription = mTasksRepository
-                .getTasks()
-                .flatMap(new Func1<List<Task>, Observable<Task>>() {
-                    @Override
-                    public Observable<Task> call(List<Task> tasks) {
-                        return Observable.from(tasks);
-                    }
-                })
-                .filter(new Func1<Task, Boolean>() {
+        mLoadedTasks.clear();
+        mLastLoadedTaskId = null;
+        mAllPagesLoaded = false;
+        mLoadingPage = false;
+        mStreamedTasks = null;
+        mStreamedTaskCount = PAGE_SIZE;
+        // The first page is read from the repository even if the stream follows right away, as
+        // reading it runs the refresh.
+        loadNextPage();
+        subscribeToTasksStream();
+    }
+
+    /**
+     * Follows the tasks matching the current filter, which the repository pushes once its cache
+     * is loaded and again after every change.
+     */
+    private void subscribeToTasksStream() {
+        Observable<List<Task>> tasksStream;
+        switch (mCurrentFiltering) {
+            case ACTIVE_TASKS:
+                tasksStream = mTasksRepository.getActiveTasksStream();
+                break;
+            case COMPLETED_TASKS:
+                tasksStream = mTasksRepository.getCompletedTasksStream();
+                break;
+            default:
+                tasksStream = mTasksRepository.getTasksStream();
+                break;
+        }
+        Subscription streamSubscription = tasksStream
+                .observeOn(mSchedulerProvider.ui())
+                .subscribe(new Action1<List<Task>>() {
                     @Override
-                    public Boolean call(Task task) {
-                        switch (mCurrentFiltering) {
-                            case ACTIVE_TASKS:
-                                return task.isActive();
-                            case COMPLETED_TASKS:
-                                return task.isCompleted();
-                            case ALL_TASKS:
-                            default:
-                                return true;
+                    public void call(List<Task> tasks) {
+                        if (mStreamedTasks == null) {
+                            // Keep showing at least as many tasks as were read page by page.
+                            mStreamedTaskCount = Math.max(mStreamedTaskCount, mLoadedTasks.size());
                         }
+                        mStreamedTasks = tasks;
+                        showStreamedTasks();
                     }
-                })
-                .toList()
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
+                });
+        mSubscriptions.add(streamSubscription);
+    }
+
+    /**
+     * Shows the first pages of {@link #mStreamedTasks}, as many as were loaded.
+     */
+    private void showStreamedTasks() {
+        int shownCount = Math.min(mStreamedTasks.size(), mStreamedTaskCount);
+        mLoadedTasks.clear();
+        mLoadedTasks.addAll(mStreamedTasks.subList(0, shownCount));
+        mAllPagesLoaded = shownCount == mStreamedTasks.size();
+        updateLastLoadedTaskId();
+        processTasks(filterTasks(mSearchResults != null ? mSearchResults : mLoadedTasks));
+    }
+
+    @Override
+    public void loadMoreTasks() {
+        loadNextPage();
+    }
+
+    /**
+     * Loads the page following the ones already loaded, unless it's already loading or there is
+     * none.
+     */
+    private void loadNextPage() {
+        if (mStreamedTasks != null) {
+            // Already in memory.
+            if (!mAllPagesLoaded) {
+                mStreamedTaskCount += PAGE_SIZE;
+                showStreamedTasks();
+            }
+            return;
+        }
+        if (mLoadingPage || mAllPagesLoaded) {
+            return;
+        }
+        mLoadingPage = true;
+
+        // The network request might be handled in a different thread so make sure Espresso knows
+        // that the app is busy until the response is handled.
+        EspressoIdlingResource.increment(); // App is busy until further notice
+
+        final int pageStart = mLoadedTasks.size();
+        Subscription pageSubscription = mTasksRepository
+                .getTasksPage(mLastLoadedTaskId, PAGE_SIZE)
+                .subscribeOn(mSchedulerProvider.io())
+                .observeOn(mSchedulerProvider.ui())
                 .subscribe(new Observer<List<Task>>() {
                     @Override
                     public void onCompleted() {
+                        mLoadingPage = false;
                         mTasksView.setLoadingIndicator(false);
+                        if (filterTasks(mLoadedTasks).isEmpty()) {
+                            // Nothing to scroll through, so keep loading until some task passes
+                            // the filter.
+                            loadNextPage();
+                        }
                     }
 
                     @Override
                     public void onError(Throwable e) {
+                        mLoadingPage = false;
+                        mTasksView.setLoadingIndicator(false);
                         mTasksView.showLoadingTasksError();
                     }
 
                     @Override
-                    public void onNext(List<Task> tasks) {
-                        processTasks(tasks);
+                    public void onNext(List<Task> page) {
+                        processPage(pageStart, page);
+                    }
+                });
+        mSubscriptions.add(pageSubscription);
+    }
+
+    /**
+     * Shows the given page, replacing the previous version of it if the repository emitted one,
+     * such as the warm-start snapshot of the first page.
+     */
+    private void processPage(int pageStart, List<Task> page) {
+        if (mStreamedTasks != null) {
+            // The streamed tasks are at least as recent.
+            return;
+        }
+        mLoadedTasks.subList(pageStart, mLoadedTasks.size()).clear();
+        mLoadedTasks.addAll(page);
+        mAllPagesLoaded = page.size() < PAGE_SIZE;
+        updateLastLoadedTaskId();
+        processTasks(filterTasks(mSearchResults != null ? mSearchResults : mLoadedTasks));
+    }
+
+    @Override
+    public void searchTasks(@NonNull String query) {
+        mSearchQueries.onNext(checkNotNull(query));
+    }
+
+    /**
+     * Returns the tasks matching {@code query}, or shows the loaded tasks again and returns
+     * nothing if it is blank.
+     */
+    private Observable<List<Task>> search(String query) {
+        if (query.trim().isEmpty()) {
+            mSearchResults = null;
+            processTasks(filterTasks(mLoadedTasks));
+            return Observable.empty();
+        }
+        return mTasksRepository
+                .searchTasks(query)
+                .subscribeOn(mSchedulerProvider.io())
+                .observeOn(mSchedulerProvider.ui())
+                .onErrorResumeNext(new Func1<Throwable, Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call(Throwable error) {
+                        // Keeps the searches going for the next queries.
+                        mTasksView.showLoadingTasksError();
+                        return Observable.empty();
                     }
                 });
-        mSubscriptions.add(subscription);
+    }
+
+    /**
+     * Returns the loaded tasks that match the current filter.
+     */
+    private List<Task> filterTasks(CompactTaskList tasks) {
+        if (mCurrentFiltering == TasksFilterType.ALL_TASKS) {
+            return new CompactTaskList(tasks);
+        }
+        return tasks.filterByCompleted(mCurrentFiltering == TasksFilterType.COMPLETED_TASKS);
+    }
+
+    /**
+     * Updates the loaded tasks and the search results after a change made from this screen, and
+     * shows them again.
+     *
+     * @param task the changed task, or null if the completed tasks were cleared
+     */
+    private void updateLoadedTasks(@Nullable Task task) {
+        if (mSearchResults != null) {
+            applyChange(mSearchResults, task);
+            applyChange(mLoadedTasks, task);
+            updateLastLoadedTaskId();
+            processTasks(filterTasks(mSearchResults));
+            return;
+        }
+        if (mLoadedTasks.isEmpty()) {
+            // Nothing shown yet, the first page will include the change.
+            return;
+        }
+        applyChange(mLoadedTasks, task);
+        updateLastLoadedTaskId();
+        List<Task> tasksToShow = filterTasks(mLoadedTasks);
+        processTasks(tasksToShow);
+        if (tasksToShow.isEmpty()) {
+            // Nothing to scroll through, so keep loading until some task passes the filter.
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Keeps the next page starting after a task that still exists, as there is no page after a
+     * deleted one.
+     */
+    private void updateLastLoadedTaskId() {
+        mLastLoadedTaskId = mLoadedTasks.isEmpty()
+                ? null : mLoadedTasks.get(mLoadedTasks.size() - 1).getId();
+    }
+
+    /**
+     * @param task the changed task, or null if the completed tasks were cleared
+     */
+    private static void applyChange(CompactTaskList tasks, @Nullable Task task) {
+        if (task == null) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if (tasks.isCompleted(i)) {
+                    tasks.remove(i);
+                }
+            }
+        } else {
+            int index = tasks.indexOfId(task.getId());
+            if (index >= 0) {
+                tasks.set(index, task);
+            }
+        }
+    }
+
+    /**
+     * Shows a task completed or activated from this screen back in its previous state, the
+     * change having failed to reach the server.
+     */
+    private void processRollback(TaskRollback rollback) {
+        mTasksView.showTaskChangeReverted();
+        CompactTaskList tasks = mSearchResults != null ? mSearchResults : mLoadedTasks;
+        int index = tasks.indexOfId(rollback.getTaskId());
+        if (index >= 0) {
+            Task task = tasks.get(index);
+            updateLoadedTasks(new Task(task.getTitle(), task.getDescription(), task.getId(),
+                    rollback.isCompleted()));
+        }
     }
 
     private void processTasks(List<Task> tasks) {
@@ -199,24 +496,53 @@ public class TasksPresenter implements TasksContract.Presenter {
     @Override
     public void completeTask(@NonNull Task completedTask) {
         checkNotNull(completedTask, "completedTask cannot be null!");
-        mTasksRepository.completeTask(completedTask);
+        subscribeToWrite(mTasksRepository.completeTask(completedTask));
         mTasksView.showTaskMarkedComplete();
-        loadTasks(false, false);
+        updateLoadedTasks(new Task(completedTask.getTitle(), completedTask.getDescription(),
+                completedTask.getId(), true));
     }
 
     @Override
     public void activateTask(@NonNull Task activeTask) {
         checkNotNull(activeTask, "activeTask cannot be null!");
-        mTasksRepository.activateTask(activeTask);
+        subscribeToWrite(mTasksRepository.activateTask(activeTask));
         mTasksView.showTaskMarkedActive();
-        loadTasks(false, false);
+        updateLoadedTasks(new Task(activeTask.getTitle(), activeTask.getDescription(),
+                activeTask.getId(), false));
     }
 
     @Override
     public void clearCompletedTasks() {
-        mTasksRepository.clearCompletedTasks();
+        subscribeToWrite(mTasksRepository.clearCompletedTasks());
         mTasksView.showCompletedTasksCleared();
-        loadTasks(false, false);
+        updateLoadedTasks(null);
+    }
+
+    /**
+     * Tells the user if a write made from this screen fails, and shows the tasks as the repository
+     * has them since they may no longer match what is on screen.
+     */
+    private void subscribeToWrite(Observable<Void> written) {
+        Subscriber<Void> writeSubscriber = new Subscriber<Void>() {
+            @Override
+            public void onCompleted() {
+                mWriteSubscriptions.remove(this);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                mWriteSubscriptions.remove(this);
+                mTasksView.showTasksNotSaved();
+                loadTasks(false, false);
+            }
+
+            @Override
+            public void onNext(Void ignored) {
+            }
+        };
+        // Added before subscribing, as a write that has already ended reports it right away.
+        mWriteSubscriptions.add(writeSubscriber);
+        written.observeOn(mSchedulerProvider.ui()).subscribe(writeSubscriber);
     }
 
     /**
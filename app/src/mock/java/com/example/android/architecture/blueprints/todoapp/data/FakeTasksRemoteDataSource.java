@@ -17,17 +17,23 @@
 package com.example.android.architecture.blueprints.todoapp.data;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksDelta;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import rx.Observable;
+import rx.functions.Func0;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * Implementation of a remote data source with static access to the data for easy testing.
@@ -38,6 +44,12 @@ public class FakeTasksRemoteDataSource implements TasksDataSource {
 
     private static final Map<String, Task> TASKS_SERVICE_DATA = new LinkedHashMap<>();
 
+    private static final Map<String, Long> TASK_VERSIONS = new HashMap<>();
+
+    private static final Map<String, Long> DELETED_TASK_VERSIONS = new HashMap<>();
+
+    private static long sVersion = TasksDelta.NO_VERSION;
+
     // Prevent direct instantiation.
     private FakeTasksRemoteDataSource() {
     }
@@ -51,56 +63,107 @@ public class FakeTasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public Observable<List<Task>> getTasks() {
-        Collection<Task> values = TASKS_SERVICE_DATA.values();
-        return Observable.from(values).toList();
+        return Observable.from(copyTasks()).toList();
     }
 
     @Override
     public Observable<Task> getTask(@NonNull String taskId) {
-        Task task = TASKS_SERVICE_DATA.get(taskId);
-        return Observable.just(task);
+        return Observable.just(findTask(taskId));
     }
 
     @Override
-    public void saveTask(@NonNull Task task) {
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+    public Observable<List<Task>> getTasksPage(@Nullable final String afterTaskId,
+                                               final int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        return Observable
+                .defer(new Func0<Observable<List<Task>>>() {
+                    @Override
+                    public Observable<List<Task>> call() {
+                        return Observable.just(computePage(afterTaskId, pageSize));
+                    }
+                });
+    }
+
+    @Override
+    public Observable<TasksDelta> getTasksDelta(final long sinceVersion) {
+        return Observable.defer(new Func0<Observable<TasksDelta>>() {
+            @Override
+            public Observable<TasksDelta> call() {
+                return Observable.just(computeDelta(sinceVersion));
+            }
+        });
     }
 
     @Override
-    public void completeTask(@NonNull Task task) {
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(task.getId(), completedTask);
+    public Observable<List<Task>> searchTasks(@NonNull String query) {
+        // Not required because the {@link TasksRepository} only searches the tasks it holds
+        // locally.
+        return Observable.empty();
     }
 
     @Override
-    public void completeTask(@NonNull String taskId) {
-        Task task = TASKS_SERVICE_DATA.get(taskId);
-        Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(taskId, completedTask);
+    public Observable<Void> saveTask(@NonNull Task task) {
+        putTask(task);
+        return Observable.empty();
     }
 
     @Override
-    public void activateTask(@NonNull Task task) {
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(task.getId(), activeTask);
+    public Observable<Void> saveTasks(@NonNull Collection<Task> tasks) {
+        // Applied atomically, as a single request would be.
+        synchronized (FakeTasksRemoteDataSource.class) {
+            for (Task task : tasks) {
+                putTask(task);
+            }
+        }
+        return Observable.empty();
     }
 
     @Override
-    public void activateTask(@NonNull String taskId) {
-        Task task = TASKS_SERVICE_DATA.get(taskId);
-        Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(taskId, activeTask);
+    public Observable<Void> completeTask(@NonNull Task task) {
+        setCompleted(task.getId(), true, task.getUpdatedAt());
+        return Observable.empty();
     }
 
     @Override
-    public void clearCompletedTasks() {
-        Iterator<Map.Entry<String, Task>> it = TASKS_SERVICE_DATA.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) {
-                it.remove();
+    public Observable<Void> completeTasks(@NonNull Collection<String> taskIds, long updatedAt) {
+        synchronized (FakeTasksRemoteDataSource.class) {
+            for (String taskId : taskIds) {
+                setCompleted(taskId, true, updatedAt);
             }
         }
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> activateTask(@NonNull Task task) {
+        setCompleted(task.getId(), false, task.getUpdatedAt());
+        return Observable.empty();
+    }
+
+    /**
+     * Sets the completed state of the stored task with the given id, as version {@code updatedAt}.
+     */
+    private static void setCompleted(String taskId, boolean completed, long updatedAt) {
+        // Read and written atomically, so a concurrent write to the task isn't lost.
+        synchronized (FakeTasksRemoteDataSource.class) {
+            Task task = findTask(taskId);
+            if (task != null) {
+                putTask(new Task(task.getTitle(), task.getDescription(), task.getId(), completed,
+                        updatedAt));
+            }
+        }
+    }
+
+    @Override
+    public Observable<Void> clearCompletedTasks() {
+        synchronized (FakeTasksRemoteDataSource.class) {
+            for (Task task : copyTasks()) {
+                if (task.isCompleted()) {
+                    removeTask(task.getId());
+                }
+            }
+        }
+        return Observable.empty();
     }
 
     public void refreshTasks() {
@@ -109,19 +172,104 @@ public class FakeTasksRemoteDataSource implements TasksDataSource {
     }
 
     @Override
-    public void deleteTask(@NonNull String taskId) {
-        TASKS_SERVICE_DATA.remove(taskId);
+    public Observable<Void> deleteTask(@NonNull String taskId) {
+        removeTask(taskId);
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> deleteTasks(@NonNull Collection<String> taskIds) {
+        synchronized (FakeTasksRemoteDataSource.class) {
+            for (String taskId : taskIds) {
+                removeTask(taskId);
+            }
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> whenWritten() {
+        // Writes are stored by the time they return.
+        return Observable.empty();
     }
 
     @Override
-    public void deleteAllTasks() {
-        TASKS_SERVICE_DATA.clear();
+    public Observable<Void> deleteAllTasks() {
+        synchronized (FakeTasksRemoteDataSource.class) {
+            for (Task task : copyTasks()) {
+                removeTask(task.getId());
+            }
+        }
+        return Observable.empty();
     }
 
     @VisibleForTesting
     public void addTasks(Task... tasks) {
         for (Task task : tasks) {
-            TASKS_SERVICE_DATA.put(task.getId(), task);
+            putTask(task);
+        }
+    }
+
+    /**
+     * Returns a copy of the tasks, which the outbox may be changing on another thread.
+     */
+    private static synchronized List<Task> copyTasks() {
+        return new ArrayList<>(TASKS_SERVICE_DATA.values());
+    }
+
+    @Nullable
+    private static synchronized Task findTask(String taskId) {
+        return TASKS_SERVICE_DATA.get(taskId);
+    }
+
+    private static synchronized void putTask(Task task) {
+        sVersion++;
+        TASKS_SERVICE_DATA.put(task.getId(), task);
+        TASK_VERSIONS.put(task.getId(), sVersion);
+        DELETED_TASK_VERSIONS.remove(task.getId());
+    }
+
+    private static synchronized void removeTask(String taskId) {
+        if (TASKS_SERVICE_DATA.remove(taskId) != null) {
+            sVersion++;
+            TASK_VERSIONS.remove(taskId);
+            DELETED_TASK_VERSIONS.put(taskId, sVersion);
+        }
+    }
+
+    private static synchronized List<Task> computePage(@Nullable String afterTaskId,
+                                                       int pageSize) {
+        // The tasks are kept in the order they were added, which updates don't change.
+        boolean pageStarted = afterTaskId == null;
+        List<Task> page = new ArrayList<>(Math.min(pageSize, TASKS_SERVICE_DATA.size()));
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (page.size() == pageSize) {
+                break;
+            }
+            if (pageStarted) {
+                page.add(task);
+            } else {
+                pageStarted = task.getId().equals(afterTaskId);
+            }
+        }
+        return page;
+    }
+
+    private static synchronized TasksDelta computeDelta(long sinceVersion) {
+        List<Task> changedTasks = new ArrayList<>();
+        for (Task task : TASKS_SERVICE_DATA.values()) {
+            if (TASK_VERSIONS.get(task.getId()) > sinceVersion) {
+                changedTasks.add(task);
+            }
+        }
+        List<String> deletedTaskIds = new ArrayList<>();
+        if (sinceVersion != TasksDelta.NO_VERSION) {
+            for (Map.Entry<String, Long> entry : DELETED_TASK_VERSIONS.entrySet()) {
+                if (entry.getValue() > sinceVersion) {
+                    deletedTaskIds.add(entry.getKey());
+                }
+            }
         }
+        return new TasksDelta(changedTasks, deletedTaskIds, sVersion);
     }
 }
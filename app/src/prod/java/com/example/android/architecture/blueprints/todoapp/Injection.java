@@ -19,10 +19,19 @@ package com.example.android.architecture.blueprints.todoapp;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.AbandonedRefreshPolicy;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
+import com.example.android.architecture.blueprints.todoapp.data.source.InMemoryTasksMetricsSink;
+import com.example.android.architecture.blueprints.todoapp.data.source.ResilientTasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.WalCheckpointPolicy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.remote.TasksRemoteDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.SchedulerProvider;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -32,9 +41,83 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
-    public static TasksRepository provideTasksRepository(@NonNull Context context) {
+    private static final long LOCAL_DEADLINE_MILLIS = 2000;
+
+    private static final long REMOTE_DEADLINE_MILLIS = 10000;
+
+    private static final long REMOTE_WRITE_DELAY_MILLIS = 500;
+
+    private static final String WARM_START_SNAPSHOT_FILE_NAME = "tasks.snapshot";
+
+    private static final long WARM_START_SNAPSHOT_WRITE_DELAY_MILLIS = 2000;
+
+    private static final InMemoryTasksMetricsSink METRICS_SINK = new InMemoryTasksMetricsSink();
+
+    private static ResilientTasksDataSource sTasksRemoteDataSource;
+
+    private static TasksLocalDataSource sTasksLocalDataSource;
+
+    /**
+     * The repository last configured, so it isn't configured again by every screen.
+     */
+    private static TasksRepository sTasksRepository;
+
+    public static synchronized TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
-        return TasksRepository.getInstance(TasksRemoteDataSource.getInstance(),
-                TasksLocalDataSource.getInstance(context));
+        TasksRepository tasksRepository = TasksRepository.getInstance(
+                provideTasksRemoteDataSource(), provideTasksLocalDataSource(context),
+                SchedulerProvider.getInstance());
+        if (tasksRepository != sTasksRepository) {
+            configure(tasksRepository, context);
+            sTasksRepository = tasksRepository;
+        }
+        return tasksRepository;
+    }
+
+    /**
+     * Returns the counts and latencies recorded by the repository since the app started.
+     */
+    public static InMemoryTasksMetricsSink provideTasksMetricsSink() {
+        return METRICS_SINK;
+    }
+
+    private static void configure(TasksRepository tasksRepository, Context context) {
+        // Also reaches the retries and the circuit breaker of the remote data source.
+        tasksRepository.setMetricsSink(METRICS_SINK);
+        // Don't let a slow backend keep the app loading forever.
+        tasksRepository.setFetchStrategy(
+                FetchStrategy.concurrent(LOCAL_DEADLINE_MILLIS, REMOTE_DEADLINE_MILLIS));
+        // A rotation joins the refresh started before it rather than starting over; the remote
+        // deadline bounds how long it can run unobserved.
+        tasksRepository.setAbandonedRefreshPolicy(AbandonedRefreshPolicy.DETACH);
+        // Tasks toggled one tap after another are sent to the backend together.
+        tasksRepository.setRemoteWriteDelay(REMOTE_WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        // Show the tasks of the previous session while the database opens. The snapshot is only
+        // rewritten once the changes of a sync or of a few taps are all in.
+        tasksRepository.setWarmStartSnapshot(
+                new File(context.getFilesDir(), WARM_START_SNAPSHOT_FILE_NAME),
+                WARM_START_SNAPSHOT_WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static TasksLocalDataSource provideTasksLocalDataSource(Context context) {
+        if (sTasksLocalDataSource == null) {
+            sTasksLocalDataSource = TasksLocalDataSource.getInstance(context);
+            // Keep checkpoints out of the way of syncs, which write many tasks in a row.
+            sTasksLocalDataSource.setWalCheckpointPolicy(WalCheckpointPolicy.WHEN_IDLE);
+        }
+        return sTasksLocalDataSource;
+    }
+
+    /**
+     * Created once, as the state of its circuit breaker has to outlive each screen.
+     */
+    private static TasksDataSource provideTasksRemoteDataSource() {
+        if (sTasksRemoteDataSource == null) {
+            // Retry failed reads and stop calling the backend while it is down.
+            sTasksRemoteDataSource = new ResilientTasksDataSource(
+                    TasksRemoteDataSource.getInstance(),
+                    SchedulerProvider.getInstance().computation());
+        }
+        return sTasksRemoteDataSource;
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the storage of {@link CompactTaskList}.
+ */
+public class CompactTaskListTest {
+
+    private final static Task UUID_TASK = new Task("Title1", "Description1", true);
+
+    private final static Task OTHER_ID_TASK = new Task("Title2", null, "2", false);
+
+    private final static Task UPPER_CASE_UUID_TASK =
+            new Task(null, "Description3", "0F0E0D0C-0B0A-0908-0706-050403020100", false);
+
+    @Test
+    public void tasks_areReadBackWithAllTheirFields() {
+        CompactTaskList tasks = new CompactTaskList(
+                Lists.newArrayList(UUID_TASK, OTHER_ID_TASK, UPPER_CASE_UUID_TASK));
+
+        assertThat(tasks, is((List<Task>) Lists.newArrayList(
+                UUID_TASK, OTHER_ID_TASK, UPPER_CASE_UUID_TASK)));
+        assertThat(tasks.get(0).getId(), is(UUID_TASK.getId()));
+        assertThat(tasks.get(0).isCompleted(), is(true));
+        assertThat(tasks.get(1).getDescription(), is(nullValue()));
+        assertThat(tasks.get(2).getId(), is(UPPER_CASE_UUID_TASK.getId()));
+        assertThat(tasks.get(2).getTitle(), is(nullValue()));
+    }
+
+    @Test
+    public void indexOfId_findsTasksWhateverTheirId() {
+        CompactTaskList tasks = new CompactTaskList(
+                Lists.newArrayList(UUID_TASK, OTHER_ID_TASK, UPPER_CASE_UUID_TASK));
+
+        assertThat(tasks.indexOfId(UUID_TASK.getId()), is(0));
+        assertThat(tasks.indexOfId("2"), is(1));
+        assertThat(tasks.indexOfId(UPPER_CASE_UUID_TASK.getId()), is(2));
+        assertThat(tasks.indexOfId(new Task("Title", "Description").getId()), is(-1));
+    }
+
+    @Test
+    public void replacedAndRemovedTasks_areCompactedAway() {
+        CompactTaskList tasks = new CompactTaskList();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(new Task("Title" + i, "Some long description of the task " + i));
+        }
+
+        for (int i = 0; i < 100; i += 2) {
+            Task task = tasks.get(i);
+            tasks.set(i, new Task("New title", task.getDescription(), task.getId(), true));
+        }
+        tasks.subList(0, 50).clear();
+        tasks.remove(0);
+
+        assertThat(tasks.size(), is(49));
+        assertThat(tasks.get(0).getTitle(), is("Title51"));
+        assertThat(tasks.get(1).getTitle(), is("New title"));
+        assertThat(tasks.isCompleted(1), is(true));
+        assertThat(tasks.filterByCompleted(true).size(), is(24));
+        assertThat(tasks.filterByCompleted(false).get(0).getTitle(), is("Title51"));
+    }
+
+    @Test
+    public void tasksSharingStrings_keepThemWhenOthersAreRemoved() {
+        CompactTaskList tasks = new CompactTaskList();
+        for (int i = 0; i < 200; i++) {
+            tasks.add(new Task("Title" + i % 2, "A description shared by half of the tasks "
+                    + i % 2));
+        }
+
+        tasks.subList(0, 150).clear();
+        for (int i = 0; i < 50; i += 2) {
+            Task task = tasks.get(i);
+            tasks.set(i, new Task(task.getTitle(), "", task.getId(), true));
+        }
+
+        assertThat(tasks.size(), is(50));
+        assertThat(tasks.get(0).getTitle(), is("Title0"));
+        assertThat(tasks.get(0).getDescription(), is(""));
+        assertThat(tasks.get(1).getTitle(), is("Title1"));
+        assertThat(tasks.get(1).getDescription(),
+                is("A description shared by half of the tasks 1"));
+        assertThat(new CompactTaskList(tasks).get(49).getTitle(), is("Title1"));
+    }
+}
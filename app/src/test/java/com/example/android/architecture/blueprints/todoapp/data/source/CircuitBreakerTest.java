@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the outcomes reported to a {@link CircuitBreaker} through its permits.
+ */
+public class CircuitBreakerTest {
+
+    private final static int FAILURE_THRESHOLD = 2;
+
+    private final static long OPEN_MILLIS = 1000;
+
+    private TestScheduler mScheduler;
+
+    private CircuitBreaker mCircuitBreaker;
+
+    @Before
+    public void setupCircuitBreaker() {
+        mScheduler = new TestScheduler();
+        mCircuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, mScheduler);
+    }
+
+    @Test
+    public void callAllowedBeforeOpening_doesNotCloseCircuitBySucceeding() {
+        CircuitBreaker.Permit slowCall = mCircuitBreaker.allowRequest();
+        openCircuit();
+
+        slowCall.onSuccess();
+
+        assertThat(mCircuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void callAllowedBeforeOpening_doesNotFreeTheTrialByEnding() {
+        CircuitBreaker.Permit slowCall = mCircuitBreaker.allowRequest();
+        openCircuit();
+        mScheduler.advanceTimeBy(OPEN_MILLIS, TimeUnit.MILLISECONDS);
+        CircuitBreaker.Permit trialCall = mCircuitBreaker.allowRequest();
+
+        slowCall.onCancel();
+
+        assertThat(trialCall, is(notNullValue()));
+        assertThat(mCircuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(mCircuitBreaker.allowRequest(), is(nullValue()));
+    }
+
+    @Test
+    public void permit_onlyCountsItsFirstOutcome() {
+        CircuitBreaker.Permit call = mCircuitBreaker.allowRequest();
+
+        call.onFailure();
+        call.onFailure();
+
+        assertThat(mCircuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void cancelledTrial_letsAnotherTrialThrough() {
+        openCircuit();
+        mScheduler.advanceTimeBy(OPEN_MILLIS, TimeUnit.MILLISECONDS);
+
+        mCircuitBreaker.allowRequest().onCancel();
+
+        assertThat(mCircuitBreaker.allowRequest(), is(notNullValue()));
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            mCircuitBreaker.allowRequest().onFailure();
+        }
+        assertThat(mCircuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import rx.Observable;
+import rx.functions.Func0;
+
+/**
+ * In-memory remote data source that fails on demand, to test how failures of the backend are
+ * handled. Every call counts as one request, reads when subscribed to. Calls fail through the
+ * observable they return.
+ */
+class FaultInjectingTasksDataSource implements TasksDataSource {
+
+    private final Map<String, Task> mTasks = new TreeMap<>();
+
+    private int mFailuresLeft;
+
+    private int mRequestCount;
+
+    /**
+     * Makes the next {@code count} requests fail.
+     */
+    synchronized void failNextRequests(int count) {
+        mFailuresLeft = count;
+    }
+
+    /**
+     * Makes every request fail, or none.
+     */
+    synchronized void setFailing(boolean failing) {
+        mFailuresLeft = failing ? Integer.MAX_VALUE : 0;
+    }
+
+    synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    @Override
+    public Observable<List<Task>> getTasks() {
+        return read(new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                return new ArrayList<>(mTasks.values());
+            }
+        });
+    }
+
+    @Override
+    public Observable<Task> getTask(@NonNull final String taskId) {
+        return read(new Func0<Task>() {
+            @Override
+            public Task call() {
+                return mTasks.get(taskId);
+            }
+        });
+    }
+
+    @Override
+    public Observable<List<Task>> getTasksPage(@Nullable final String afterTaskId,
+                                               final int pageSize) {
+        return read(new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                List<Task> page = new ArrayList<>();
+                for (Task task : mTasks.values()) {
+                    if (page.size() < pageSize
+                            && (afterTaskId == null || task.getId().compareTo(afterTaskId) > 0)) {
+                        page.add(task);
+                    }
+                }
+                return page;
+            }
+        });
+    }
+
+    @Override
+    public Observable<TasksDelta> getTasksDelta(long sinceVersion) {
+        return read(new Func0<TasksDelta>() {
+            @Override
+            public TasksDelta call() {
+                return new TasksDelta(new ArrayList<>(mTasks.values()),
+                        Collections.<String>emptyList(), mTasks.size());
+            }
+        });
+    }
+
+    @Override
+    public Observable<List<Task>> searchTasks(@NonNull final String query) {
+        return read(new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                TasksSearchIndex index = new TasksSearchIndex();
+                for (Task task : mTasks.values()) {
+                    index.put(task);
+                }
+                Set<String> matchingIds = index.search(query);
+                List<Task> matches = new ArrayList<>();
+                for (Task task : mTasks.values()) {
+                    if (matchingIds.contains(task.getId())) {
+                        matches.add(task);
+                    }
+                }
+                return matches;
+            }
+        });
+    }
+
+    @Override
+    public synchronized Observable<Void> saveTask(@NonNull Task task) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        mTasks.put(task.getId(), task);
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> saveTasks(@NonNull Collection<Task> tasks) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        for (Task task : tasks) {
+            mTasks.put(task.getId(), task);
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> completeTask(@NonNull Task task) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        setCompleted(task.getId(), true, task.getUpdatedAt());
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> completeTasks(@NonNull Collection<String> taskIds,
+                                                       long updatedAt) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        for (String taskId : taskIds) {
+            setCompleted(taskId, true, updatedAt);
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> activateTask(@NonNull Task task) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        setCompleted(task.getId(), false, task.getUpdatedAt());
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> clearCompletedTasks() {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        for (Task task : new ArrayList<>(mTasks.values())) {
+            if (task.isCompleted()) {
+                mTasks.remove(task.getId());
+            }
+        }
+        return Observable.empty();
+    }
+
+    @Override
+    public void refreshTasks() {
+        // Not required because the repository handles the logic of refreshing the tasks.
+    }
+
+    @Override
+    public synchronized Observable<Void> deleteAllTasks() {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        mTasks.clear();
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> deleteTask(@NonNull String taskId) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        mTasks.remove(taskId);
+        return Observable.empty();
+    }
+
+    @Override
+    public synchronized Observable<Void> deleteTasks(@NonNull Collection<String> taskIds) {
+        if (failsRequest()) {
+            return injectedFailure();
+        }
+        mTasks.keySet().removeAll(taskIds);
+        return Observable.empty();
+    }
+
+    @Override
+    public Observable<Void> whenWritten() {
+        // Writes are stored by the time they return.
+        return Observable.empty();
+    }
+
+    private <T> Observable<T> read(final Func0<T> result) {
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                synchronized (FaultInjectingTasksDataSource.this) {
+                    if (failsRequest()) {
+                        return injectedFailure();
+                    }
+                    return Observable.just(result.call());
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts a request, and returns whether it has to fail. Called holding this.
+     */
+    private boolean failsRequest() {
+        mRequestCount++;
+        if (mFailuresLeft > 0) {
+            mFailuresLeft--;
+            return true;
+        }
+        return false;
+    }
+
+    private static <T> Observable<T> injectedFailure() {
+        // Like a dropped connection, the kind of failure the circuit breaker counts.
+        return Observable.error(new IOException("Injected failure"));
+    }
+
+    private void setCompleted(String taskId, boolean completed, long updatedAt) {
+        Task task = mTasks.get(taskId);
+        if (task != null) {
+            mTasks.put(taskId, new Task(task.getTitle(), task.getDescription(), taskId, completed,
+                    updatedAt));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the counters and histograms of {@link InMemoryTasksMetricsSink}.
+ */
+public class InMemoryTasksMetricsSinkTest {
+
+    private final InMemoryTasksMetricsSink mMetricsSink = new InMemoryTasksMetricsSink();
+
+    @Test
+    public void callsAndEvents_areCountedSeparately() {
+        mMetricsSink.recordCall(Operation.GET_TASKS);
+        mMetricsSink.recordCall(Operation.GET_TASKS);
+        mMetricsSink.recordCall(Operation.SAVE_TASK);
+        mMetricsSink.recordEvent(Event.LOCAL_DEADLINE_MISSED);
+
+        assertThat(mMetricsSink.getCallCount(Operation.GET_TASKS), is(2L));
+        assertThat(mMetricsSink.getCallCount(Operation.SAVE_TASK), is(1L));
+        assertThat(mMetricsSink.getCallCount(Operation.GET_TASK), is(0L));
+        assertThat(mMetricsSink.getEventCount(Event.LOCAL_DEADLINE_MISSED), is(1L));
+        assertThat(mMetricsSink.getEventCount(Event.REMOTE_DEADLINE_MISSED), is(0L));
+    }
+
+    @Test
+    public void latencies_areCountedInPowerOfTwoMicrosecondBuckets() {
+        mMetricsSink.recordLatency(Operation.GET_TASKS, Source.LOCAL, 500);
+        mMetricsSink.recordLatency(Operation.GET_TASKS, Source.LOCAL, 1500);
+        mMetricsSink.recordLatency(Operation.GET_TASKS, Source.LOCAL, 3000);
+        mMetricsSink.recordLatency(Operation.GET_TASKS, Source.LOCAL, Long.MAX_VALUE);
+
+        long[] histogram = mMetricsSink.getLatencyHistogram(Operation.GET_TASKS, Source.LOCAL);
+        assertThat(histogram[0], is(1L));
+        assertThat(histogram[1], is(1L));
+        assertThat(histogram[2], is(1L));
+        assertThat(histogram[InMemoryTasksMetricsSink.BUCKET_COUNT - 1], is(1L));
+        assertThat(mMetricsSink.getLatencyCount(Operation.GET_TASKS, Source.LOCAL), is(4L));
+        assertThat(mMetricsSink.getLatencyCount(Operation.GET_TASKS, Source.REMOTE), is(0L));
+    }
+
+    @Test
+    public void latencyPercentile_isUpperBoundOfItsBucket() {
+        for (int i = 0; i < 9; i++) {
+            mMetricsSink.recordLatency(Operation.GET_TASK, Source.CACHE, 1500);
+        }
+        mMetricsSink.recordLatency(Operation.GET_TASK, Source.CACHE, 100000);
+
+        assertThat(mMetricsSink.getLatencyPercentileNanos(Operation.GET_TASK, Source.CACHE, 50),
+                is(2000L));
+        assertThat(mMetricsSink.getLatencyPercentileNanos(Operation.GET_TASK, Source.CACHE, 99),
+                is(128000L));
+        assertThat(mMetricsSink.getTotalLatencyNanos(Operation.GET_TASK, Source.CACHE),
+                is(9 * 1500L + 100000L));
+        assertThat(mMetricsSink.getLatencyPercentileNanos(Operation.GET_TASK, Source.LOCAL, 50),
+                is(0L));
+    }
+}
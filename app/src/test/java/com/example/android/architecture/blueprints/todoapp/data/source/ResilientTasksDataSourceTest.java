@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the retries and the circuit breaker of {@link ResilientTasksDataSource}, against
+ * a remote data source failing on demand.
+ */
+public class ResilientTasksDataSourceTest {
+
+    private final static Task TASK = new Task("Title", "Description", "1", false);
+
+    private FaultInjectingTasksDataSource mFaultyRemoteDataSource;
+
+    private TestScheduler mScheduler;
+
+    private InMemoryTasksMetricsSink mMetricsSink;
+
+    private ResilientTasksDataSource mResilientDataSource;
+
+    @Before
+    public void setupResilientDataSource() {
+        mFaultyRemoteDataSource = new FaultInjectingTasksDataSource();
+        mFaultyRemoteDataSource.saveTask(TASK);
+        mScheduler = new TestScheduler();
+        mMetricsSink = new InMemoryTasksMetricsSink();
+        mResilientDataSource = new ResilientTasksDataSource(mFaultyRemoteDataSource, mScheduler);
+        mResilientDataSource.setMetricsSink(mMetricsSink);
+    }
+
+    @Test
+    public void failedRead_isRetriedWithBackoffUntilItSucceeds() {
+        mFaultyRemoteDataSource.failNextRequests(2);
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+
+        mResilientDataSource.getTasks().subscribe(testSubscriber);
+        testSubscriber.assertNoValues();
+        advanceThroughBackoff(2);
+
+        testSubscriber.assertValueCount(1);
+        testSubscriber.assertCompleted();
+        assertThat(mMetricsSink.getEventCount(Event.REMOTE_RETRY), is(2L));
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void readFailingEveryRetry_fails() {
+        mFaultyRemoteDataSource.setFailing(true);
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+
+        mResilientDataSource.getTasks().subscribe(testSubscriber);
+        advanceThroughBackoff(ResilientTasksDataSource.MAX_RETRIES);
+
+        testSubscriber.assertError(IOException.class);
+        assertThat(mFaultyRemoteDataSource.getRequestCount(),
+                is(2 + ResilientTasksDataSource.MAX_RETRIES));
+    }
+
+    @Test
+    public void repeatedFailures_openCircuitAndShortCircuitCalls() {
+        mFaultyRemoteDataSource.setFailing(true);
+        openCircuit();
+        int requestCount = mFaultyRemoteDataSource.getRequestCount();
+
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mResilientDataSource.getTasks().subscribe(testSubscriber);
+        TestSubscriber<Void> writeSubscriber = new TestSubscriber<>();
+        mResilientDataSource.completeTask(TASK).subscribe(writeSubscriber);
+
+        testSubscriber.assertError(RemoteUnavailableException.class);
+        writeSubscriber.assertError(RemoteUnavailableException.class);
+        RemoteUnavailableException error =
+                (RemoteUnavailableException) writeSubscriber.getOnErrorEvents().get(0);
+        assertThat(error.getRetryAfterMillis(), is(ResilientTasksDataSource.OPEN_MILLIS));
+        assertThat(mFaultyRemoteDataSource.getRequestCount(), is(requestCount));
+        assertThat(mMetricsSink.getEventCount(Event.CIRCUIT_OPENED), is(1L));
+    }
+
+    @Test
+    public void openCircuit_letsTrialCallThroughAfterCoolDownAndClosesIfItSucceeds() {
+        mFaultyRemoteDataSource.setFailing(true);
+        openCircuit();
+        mFaultyRemoteDataSource.setFailing(false);
+
+        mScheduler.advanceTimeBy(ResilientTasksDataSource.OPEN_MILLIS, TimeUnit.MILLISECONDS);
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mResilientDataSource.getTasks().subscribe(testSubscriber);
+
+        testSubscriber.assertValueCount(1);
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(mMetricsSink.getEventCount(Event.CIRCUIT_HALF_OPENED), is(1L));
+        assertThat(mMetricsSink.getEventCount(Event.CIRCUIT_CLOSED), is(1L));
+    }
+
+    @Test
+    public void failedTrialCall_reopensCircuit() {
+        mFaultyRemoteDataSource.setFailing(true);
+        openCircuit();
+
+        mScheduler.advanceTimeBy(ResilientTasksDataSource.OPEN_MILLIS, TimeUnit.MILLISECONDS);
+        TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+        mResilientDataSource.saveTask(TASK).subscribe(testSubscriber);
+
+        testSubscriber.assertError(IOException.class);
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.OPEN));
+        assertThat(mMetricsSink.getEventCount(Event.CIRCUIT_OPENED), is(2L));
+    }
+
+    @Test
+    public void readsMissingTheirDeadline_openCircuit() {
+        TasksDataSource hangingRemoteDataSource = mock(TasksDataSource.class);
+        when(hangingRemoteDataSource.getTasks()).thenReturn(Observable.<List<Task>>never());
+        mResilientDataSource = new ResilientTasksDataSource(hangingRemoteDataSource, mScheduler);
+        mResilientDataSource.setReadDeadline(1, TimeUnit.SECONDS);
+
+        for (int i = 0; i < ResilientTasksDataSource.FAILURE_THRESHOLD; i++) {
+            TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+            mResilientDataSource.getTasks().subscribe(testSubscriber);
+            mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+            testSubscriber.assertError(TimeoutException.class);
+        }
+
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void writesRejectedByRemoteDataSource_dontOpenCircuit() {
+        TasksDataSource rejectingRemoteDataSource = mock(TasksDataSource.class);
+        when(rejectingRemoteDataSource.saveTask(TASK)).thenReturn(
+                Observable.<Void>error(new IllegalArgumentException("Invalid task")));
+        mResilientDataSource =
+                new ResilientTasksDataSource(rejectingRemoteDataSource, mScheduler);
+
+        for (int i = 0; i < ResilientTasksDataSource.FAILURE_THRESHOLD; i++) {
+            TestSubscriber<Void> testSubscriber = new TestSubscriber<>();
+            mResilientDataSource.saveTask(TASK).subscribe(testSubscriber);
+            testSubscriber.assertError(IllegalArgumentException.class);
+        }
+
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * Fails writes until the circuit opens.
+     */
+    private void openCircuit() {
+        for (int i = 0; i < ResilientTasksDataSource.FAILURE_THRESHOLD; i++) {
+            // Fails through the returned observable, whether or not it is subscribed to.
+            mResilientDataSource.saveTask(TASK);
+        }
+        assertThat(mResilientDataSource.getCircuitState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    private void advanceThroughBackoff(int retries) {
+        for (int i = 0; i < retries; i++) {
+            mScheduler.advanceTimeBy(ResilientTasksDataSource.MAX_BACKOFF_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the memory budget and the status partitions of {@link TasksCache}.
+ */
+public class TasksCacheTest {
+
+    /**
+     * Each description takes 20 bytes, so the cache holds two of them.
+     */
+    private final static String DESCRIPTION = "0123456789";
+
+    private final static Task TASK1 = new Task("Title1", DESCRIPTION, "1", false);
+
+    private final static Task TASK2 = new Task("Title2", DESCRIPTION, "2", false);
+
+    private final static Task TASK3 = new Task("Title3", DESCRIPTION, "3", false);
+
+    private TasksCache mCache;
+
+    @Before
+    public void setupCache() {
+        mCache = new TasksCache(40);
+    }
+
+    @Test
+    public void overBudget_evictsOldestDescriptionButKeepsTaskListed() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+
+        assertThat(mCache.getEvictionCount(), is(1L));
+        assertThat(mCache.size(), is(3));
+        assertThat(mCache.get(TASK1.getId()), is(nullValue()));
+        Task projection = mCache.snapshot().get(0);
+        assertThat(projection.getTitle(), is(TASK1.getTitle()));
+        assertThat(projection.getDescription(), is(nullValue()));
+    }
+
+    @Test
+    public void recentlyReadTask_getsSecondChance() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2));
+        mCache.get(TASK1.getId());
+
+        mCache.put(TASK3);
+
+        assertThat(mCache.get(TASK1.getId()), is(notNullValue()));
+        assertThat(mCache.get(TASK2.getId()), is(nullValue()));
+    }
+
+    @Test
+    public void taskWithoutTitle_keepsItsDescription() {
+        Task untitledTask = new Task("", DESCRIPTION, "4", false);
+        mCache.putAllIfNotLoaded(Lists.newArrayList(untitledTask, TASK1, TASK2, TASK3));
+
+        assertThat(mCache.get(untitledTask.getId()), is(untitledTask));
+    }
+
+    @Test
+    public void completingEvictedTask_keepsProjection() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+
+        mCache.setCompleted(TASK1, true);
+
+        assertThat(mCache.get(TASK1.getId()), is(nullValue()));
+        assertThat(mCache.peek(TASK1.getId()).isCompleted(), is(true));
+        assertThat(mCache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        mCache.put(TASK1);
+
+        mCache.get(TASK1.getId());
+        mCache.get(TASK2.getId());
+        mCache.get(TASK3.getId());
+
+        assertThat(mCache.getHitCount(), is(1L));
+        assertThat(mCache.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void completingTask_movesItBetweenPartitionsKeepingOrder() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+
+        mCache.setCompleted(TASK2, true);
+        mCache.setCompleted(TASK1, true);
+
+        assertThat(mCache.statistics(), is(new TasksStatistics(1, 2)));
+        assertThat(mCache.completedSnapshot().get(0).getId(), is(TASK1.getId()));
+        assertThat(mCache.completedSnapshot().get(1).getId(), is(TASK2.getId()));
+        assertThat(mCache.snapshot().get(1).getId(), is(TASK2.getId()));
+        assertThat(mCache.snapshot().get(1).isCompleted(), is(true));
+    }
+
+    @Test
+    public void completingTask_bumpsItsVersionOnlyIfItChanges() {
+        Task task = new Task("Title", "Description", "1", false, 10);
+        mCache.putAllIfNotLoaded(Lists.newArrayList(task));
+
+        long beforeCompletion = System.currentTimeMillis();
+        mCache.setCompleted(task, true);
+        long completedAt = mCache.peek(task.getId()).getUpdatedAt();
+        mCache.setCompleted(Lists.newArrayList(task.getId()), true, completedAt + 1);
+
+        assertThat(completedAt >= beforeCompletion, is(true));
+        assertThat(mCache.peek(task.getId()).getUpdatedAt(), is(completedAt));
+    }
+
+    @Test
+    public void removeCompleted_onlyLeavesActiveTasks() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+        mCache.setCompleted(TASK2, true);
+        List<Task> activeTasks = mCache.activeSnapshot();
+
+        mCache.removeCompleted();
+
+        assertThat(mCache.size(), is(2));
+        assertThat(mCache.statistics(), is(new TasksStatistics(2, 0)));
+        assertThat(mCache.completedSnapshot().isEmpty(), is(true));
+        assertThat(mCache.peek(TASK2.getId()), is(nullValue()));
+        // The active partition didn't change, so neither did its snapshot.
+        assertThat(mCache.activeSnapshot() == activeTasks, is(true));
+    }
+
+    @Test
+    public void search_findsTasksWithEvictedDescriptionByTheirTitleOnly() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+
+        List<Task> descriptionMatches = mCache.search("0123");
+        List<Task> titleMatches = mCache.search(TASK1.getTitle());
+
+        assertThat(mCache.holdsAllDescriptions(), is(false));
+        assertThat(descriptionMatches.size(), is(2));
+        assertThat(descriptionMatches.get(0).getId(), is(TASK2.getId()));
+        assertThat(titleMatches.size(), is(1));
+        assertThat(titleMatches.get(0).getDescription(), is(nullValue()));
+    }
+
+    @Test
+    public void removingEvictedTask_leavesAllDescriptionsHeld() {
+        mCache.putAllIfNotLoaded(Lists.newArrayList(TASK1, TASK2, TASK3));
+
+        mCache.remove(TASK1.getId());
+
+        assertThat(mCache.holdsAllDescriptions(), is(true));
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the implementation of the remote write queue.
+ */
+public class TasksRemoteOutboxTest {
+
+    private final static Task TASK = new Task("Title", "Description", "1", false);
+
+    private final static Task COMPLETED_TASK = new Task("Title", "Description", "1", true);
+
+    private final static Task OTHER_TASK = new Task("Title2", "Description2", "2", false);
+
+    @Mock
+    private TasksDataSource mTasksRemoteDataSource;
+
+    private TestScheduler mScheduler;
+
+    private TasksRemoteOutbox mOutbox;
+
+    @Before
+    public void setupOutbox() {
+        MockitoAnnotations.initMocks(this);
+        WriteStubs.storeWrites(mTasksRemoteDataSource);
+
+        mScheduler = new TestScheduler();
+        mOutbox = new TasksRemoteOutbox(mTasksRemoteDataSource, mScheduler);
+    }
+
+    @Test
+    public void writes_areOnlySentWhenFlushed() {
+        mOutbox.saveTask(TASK);
+
+        verifyZeroInteractions(mTasksRemoteDataSource);
+
+        mScheduler.triggerActions();
+
+        verify(mTasksRemoteDataSource).saveTask(TASK);
+    }
+
+    @Test
+    public void writesWithinTheFlushDelay_areSentTogether() {
+        mOutbox.setFlushDelay(500, TimeUnit.MILLISECONDS);
+
+        // Given a task toggled one tap after another
+        mOutbox.completeTask(TASK);
+        mScheduler.advanceTimeBy(300, TimeUnit.MILLISECONDS);
+        mOutbox.activateTask(TASK);
+        mOutbox.completeTask(OTHER_TASK);
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        // Then nothing is sent until the delay has passed since the first write
+        verifyZeroInteractions(mTasksRemoteDataSource);
+
+        mScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        // And then the writes are collapsed and sent at once
+        verify(mTasksRemoteDataSource).activateTask(TASK);
+        verify(mTasksRemoteDataSource).completeTask(OTHER_TASK);
+        verify(mTasksRemoteDataSource, never()).completeTask(TASK);
+    }
+
+    @Test
+    public void toggledTask_isWrittenOnce() {
+        mOutbox.completeTask(TASK);
+        mOutbox.activateTask(TASK);
+        mOutbox.completeTask(TASK);
+
+        mScheduler.triggerActions();
+
+        verify(mTasksRemoteDataSource).completeTask(TASK);
+        verify(mTasksRemoteDataSource, never()).activateTask(any(Task.class));
+    }
+
+    @Test
+    public void savedThenCompletedTask_isSavedOnceWithItsFinalState() {
+        mOutbox.saveTask(TASK);
+        mOutbox.completeTask(TASK);
+
+        mScheduler.triggerActions();
+
+        ArgumentCaptor<Task> taskCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksRemoteDataSource, times(1)).saveTask(taskCaptor.capture());
+        assertThat(taskCaptor.getValue().isCompleted(), is(true));
+        assertThat(taskCaptor.getValue().getDescription(), is(TASK.getDescription()));
+        verify(mTasksRemoteDataSource, never()).completeTask(any(Task.class));
+    }
+
+    @Test
+    public void savedThenCompletedTask_isVersionedByTheCompletion() {
+        mOutbox.saveTask(new Task("Title", "Description", "1", false, 10));
+        mOutbox.completeTask(new Task("Title", "Description", "1", true, 20));
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<Task> taskCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksRemoteDataSource).saveTask(taskCaptor.capture());
+        assertThat(taskCaptor.getValue().getUpdatedAt(), is(20L));
+    }
+
+    @Test
+    public void writesAroundClearCompleted_keepTheirOrder() {
+        mOutbox.activateTask(COMPLETED_TASK);
+        mOutbox.clearCompletedTasks();
+        mOutbox.deleteTask("2");
+
+        mScheduler.triggerActions();
+
+        InOrder inOrder = inOrder(mTasksRemoteDataSource);
+        inOrder.verify(mTasksRemoteDataSource).activateTask(COMPLETED_TASK);
+        inOrder.verify(mTasksRemoteDataSource).clearCompletedTasks();
+        inOrder.verify(mTasksRemoteDataSource).deleteTask("2");
+    }
+
+    @Test
+    public void deleteAll_dropsEarlierWrites() {
+        mOutbox.saveTask(TASK);
+        mOutbox.deleteTask("2");
+        mOutbox.deleteAllTasks();
+
+        mScheduler.triggerActions();
+
+        verify(mTasksRemoteDataSource, never()).saveTask(any(Task.class));
+        verify(mTasksRemoteDataSource, never()).deleteTask(anyString());
+        verify(mTasksRemoteDataSource).deleteAllTasks();
+    }
+
+    @Test
+    public void writesFlushedTogether_areGroupedIntoBulkRequests() {
+        Task otherTask = new Task("Title2", "Description2", "2", false);
+        mOutbox.saveTasks(Lists.newArrayList(TASK, otherTask));
+        mOutbox.completeTasks(Lists.newArrayList("3", "4"), 30);
+        mOutbox.deleteTask("5");
+        mOutbox.deleteTask("6");
+
+        mScheduler.triggerActions();
+
+        verify(mTasksRemoteDataSource).saveTasks(Lists.newArrayList(TASK, otherTask));
+        verify(mTasksRemoteDataSource).completeTasks(Lists.newArrayList("3", "4"), 30);
+        verify(mTasksRemoteDataSource).deleteTasks(Lists.newArrayList("5", "6"));
+        verify(mTasksRemoteDataSource, never()).saveTask(any(Task.class));
+        verify(mTasksRemoteDataSource, never()).completeTask(any(Task.class));
+        verify(mTasksRemoteDataSource, never()).deleteTask(anyString());
+    }
+
+    @Test
+    public void completionsFlushedTogether_areSentWithTheirOwnVersions() {
+        mOutbox.completeTasks(Lists.newArrayList("3", "4"), 30);
+        mOutbox.completeTasks(Lists.newArrayList("5"), 40);
+        mOutbox.completeTask(new Task("Title", "Description", "6", true, 30));
+
+        mScheduler.triggerActions();
+
+        verify(mTasksRemoteDataSource).completeTasks(Lists.newArrayList("3", "4", "6"), 30);
+        verify(mTasksRemoteDataSource).completeTasks(Lists.newArrayList("5"), 40);
+        verify(mTasksRemoteDataSource, never()).completeTask(any(Task.class));
+    }
+
+    @Test
+    public void failedWrite_isReportedWithTheWritesCollapsedIntoIt() {
+        TasksRemoteOutbox.Listener listener = mock(TasksRemoteOutbox.Listener.class);
+        mOutbox.setListener(listener);
+        IllegalStateException error = new IllegalStateException("Server unavailable");
+        doThrow(error).when(mTasksRemoteDataSource).completeTask(TASK);
+
+        mOutbox.activateTask(TASK);
+        mOutbox.completeTask(TASK);
+        mOutbox.saveTask(new Task("Title2", "Description2", "2", false));
+        mScheduler.triggerActions();
+
+        verify(listener).onTaskWritesFailed(TASK.getId(), 2, error);
+        verify(listener).onTaskWritesSent("2", 1);
+    }
+
+    @Test
+    public void writeFailedThroughItsObservable_isReportedAsFailed() {
+        TasksRemoteOutbox.Listener listener = mock(TasksRemoteOutbox.Listener.class);
+        mOutbox.setListener(listener);
+        IllegalStateException error = new IllegalStateException("Server unavailable");
+        when(mTasksRemoteDataSource.completeTask(TASK))
+                .thenReturn(Observable.<Void>error(error));
+
+        mOutbox.completeTask(TASK);
+        mScheduler.triggerActions();
+
+        verify(listener).onTaskWritesFailed(TASK.getId(), 1, error);
+        verify(listener, never()).onTaskWritesSent(anyString(), anyInt());
+    }
+
+    @Test
+    public void writeNotReachingRemote_staysQueuedUntilRemoteCanBeCalledAgain() {
+        TasksRemoteOutbox.Listener listener = mock(TasksRemoteOutbox.Listener.class);
+        mOutbox.setListener(listener);
+        when(mTasksRemoteDataSource.completeTask(TASK))
+                .thenReturn(Observable.<Void>error(new RemoteUnavailableException(1000)))
+                .thenReturn(Observable.<Void>empty());
+
+        // Given a completion sent while the remote data source can't be called
+        mOutbox.completeTask(TASK);
+        mScheduler.triggerActions();
+
+        // Then it is neither reported as failed nor sent again before it can be called
+        verify(listener, never()).onTaskWritesFailed(anyString(), anyInt(), any(Throwable.class));
+        mScheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+        verify(mTasksRemoteDataSource, times(1)).completeTask(TASK);
+
+        // And it is sent again, and reported as sent, once it can
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        verify(mTasksRemoteDataSource, times(2)).completeTask(TASK);
+        verify(listener).onTaskWritesSent(TASK.getId(), 1);
+    }
+
+    @Test
+    public void globalWrite_isReportedDoneToTheListener() {
+        TasksRemoteOutbox.Listener listener = mock(TasksRemoteOutbox.Listener.class);
+        mOutbox.setListener(listener);
+
+        mOutbox.clearCompletedTasks();
+        mScheduler.triggerActions();
+
+        verify(listener).onGlobalWriteDone(PendingWrite.Type.CLEAR_COMPLETED);
+    }
+
+    @Test
+    public void writesHeldUntilReplayed_areSentAfterTheReplayedOnes() {
+        TasksRemoteOutbox.Listener listener = mock(TasksRemoteOutbox.Listener.class);
+        mOutbox.setListener(listener);
+
+        // Given a write queued before the writes of an earlier session are replayed
+        mOutbox.holdUntilReplayed();
+        mOutbox.completeTask(TASK);
+        mScheduler.triggerActions();
+
+        // Then nothing is sent
+        verifyZeroInteractions(mTasksRemoteDataSource);
+
+        // When the earlier session left a task saved twice, a deletion and a clearing
+        mOutbox.replay(Lists.newArrayList(
+                new PendingWrite(PendingWrite.Type.SAVE, TASK.getId(), 2),
+                new PendingWrite(PendingWrite.Type.DELETE, OTHER_TASK.getId(), 1),
+                new PendingWrite(PendingWrite.Type.CLEAR_COMPLETED, null, 1)),
+                Collections.singletonMap(TASK.getId(), TASK));
+        mScheduler.triggerActions();
+
+        // Then the stored task is sent with the other replayed writes, before the held one
+        InOrder inOrder = inOrder(mTasksRemoteDataSource);
+        inOrder.verify(mTasksRemoteDataSource).saveTask(TASK);
+        inOrder.verify(mTasksRemoteDataSource).clearCompletedTasks();
+        inOrder.verify(mTasksRemoteDataSource).completeTask(TASK);
+        verify(mTasksRemoteDataSource).deleteTask(OTHER_TASK.getId());
+        verify(listener).onTaskWritesSent(TASK.getId(), 2);
+        verify(listener).onTaskWritesSent(TASK.getId(), 1);
+    }
+
+    @Test
+    public void replayedSaveOfTaskNotStored_isLeftOut() {
+        mOutbox.holdUntilReplayed();
+
+        mOutbox.replay(Lists.newArrayList(
+                new PendingWrite(PendingWrite.Type.SAVE, TASK.getId(), 1)),
+                Collections.<String, Task>emptyMap());
+        mScheduler.triggerActions();
+
+        verifyZeroInteractions(mTasksRemoteDataSource);
+    }
+
+    @Test
+    public void whenIdle_emitsWhileWritesWaitToBeSentAgain() {
+        when(mTasksRemoteDataSource.saveTask(TASK))
+                .thenReturn(Observable.<Void>error(new RemoteUnavailableException()));
+        mOutbox.saveTask(TASK);
+        mScheduler.triggerActions();
+
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
+        mOutbox.whenIdle().subscribe(testSubscriber);
+
+        testSubscriber.assertValue(true);
+    }
+
+    @Test
+    public void whenIdle_emitsOnceQueueIsFlushed() {
+        mOutbox.saveTask(TASK);
+        TestSubscriber<Boolean> testSubscriber = new TestSubscriber<>();
+        mOutbox.whenIdle().subscribe(testSubscriber);
+
+        testSubscriber.assertNoValues();
+
+        mScheduler.triggerActions();
+
+        testSubscriber.assertValue(true);
+        testSubscriber.assertCompleted();
+    }
+}
@@ -17,28 +17,61 @@
 package com.example.android.architecture.blueprints.todoapp.data.source;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Event;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Operation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksMetricsSink.Source;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
 
 /**
  * Unit tests for the implementation of the in-memory repository with cache.
@@ -65,6 +98,9 @@ public class TasksRepositoryTest {
     @Mock
     private Context mContext;
 
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
 //    @Mock
 //    private TasksDataSource.GetTaskCallback mGetTaskCallback;
 //
@@ -90,10 +126,14 @@ public class TasksRepositoryTest {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
         // inject the mocks in the test the initMocks method needs to be called.
         MockitoAnnotations.initMocks(this);
+        WriteStubs.storeWrites(mTasksRemoteDataSource);
+        WriteStubs.storeWrites(mTasksLocalDataSource);
+        // As the local data source does, emit null for the tasks that aren't stored.
+        when(mTasksLocalDataSource.getTask(anyString())).thenReturn(Observable.<Task>just(null));
 
         // Get a reference to the class under test
         mTasksRepository = TasksRepository.getInstance(
-                mTasksRemoteDataSource, mTasksLocalDataSource);
+                mTasksRemoteDataSource, mTasksLocalDataSource, new ImmediateSchedulerProvider());
     }
 
     @After
@@ -150,6 +190,26 @@ public class TasksRepositoryTest {
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(false));
     }
 
+    @Test
+    public void completeTask_writesTheVersionStampedByTheCache() {
+        // Given a stub active task at an old version in the repository
+        Task newTask = new Task(TASK_TITLE, "Some Task Description", "1", false, 10);
+        mTasksRepository.saveTask(newTask);
+
+        // When the task is completed
+        mTasksRepository.completeTask(newTask);
+
+        // Then both data sources are written the version of the completion in the cache
+        long version = mTasksRepository.mCachedTasks.peek(newTask.getId()).getUpdatedAt();
+        ArgumentCaptor<Task> localCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksLocalDataSource).completeTask(localCaptor.capture());
+        ArgumentCaptor<Task> remoteCaptor = ArgumentCaptor.forClass(Task.class);
+        verify(mTasksRemoteDataSource).completeTask(remoteCaptor.capture());
+        assertThat(version > 10, is(true));
+        assertThat(localCaptor.getValue().getUpdatedAt(), is(version));
+        assertThat(remoteCaptor.getValue().getUpdatedAt(), is(version));
+    }
+
     @Test
     public void completeTaskId_completesTaskToServiceAPIUpdatesCache() {
         // Given a stub active task with title and description added in the repository
@@ -207,6 +267,51 @@ public class TasksRepositoryTest {
         verify(mTasksLocalDataSource).getTask(eq(TASK_TITLE));
     }
 
+    @Test
+    public void completeTaskFailedRemotely_isRolledBackAndReported() {
+        // Given an active task in the repository and a remote data source failing completions
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+        doThrow(new IllegalStateException("Server unavailable"))
+                .when(mTasksRemoteDataSource).completeTask(newTask);
+        TestSubscriber<TaskRollback> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getRollbacks().subscribe(testSubscriber);
+
+        // When the task is completed
+        mTasksRepository.completeTask(newTask);
+
+        // Then the task is active again in the local data source and the cache, and the rollback
+        // is reported
+        verify(mTasksLocalDataSource).completeTask(newTask);
+        verify(mTasksLocalDataSource).activateTask(newTask);
+        assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(true));
+        testSubscriber.assertValueCount(1);
+        TaskRollback rollback = testSubscriber.getOnNextEvents().get(0);
+        assertThat(rollback.getTaskId(), is(newTask.getId()));
+        assertThat(rollback.isCompleted(), is(false));
+    }
+
+    @Test
+    public void rollbackFailedLocally_isStillReported() {
+        // Given an active task in the repository, a remote data source failing completions and a
+        // local data source failing to put the task back
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+        doThrow(new IllegalStateException("Server unavailable"))
+                .when(mTasksRemoteDataSource).completeTask(newTask);
+        when(mTasksLocalDataSource.activateTask(newTask))
+                .thenReturn(Observable.<Void>error(new IllegalStateException("Disk full")));
+        TestSubscriber<TaskRollback> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getRollbacks().subscribe(testSubscriber);
+
+        // When the task is completed
+        mTasksRepository.completeTask(newTask);
+
+        // Then the rollback of the cache is reported all the same
+        assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(true));
+        testSubscriber.assertValueCount(1);
+    }
+
     @Test
     public void deleteCompletedTasks_deleteCompletedTasksToServiceAPIUpdatesCache() {
         // Given 2 stub completed tasks and 1 stub active tasks in the repository
@@ -255,7 +360,7 @@ public class TasksRepositoryTest {
         // Given a task in the repository
         Task newTask = new Task(TASK_TITLE, "Some Task Description", true);
         mTasksRepository.saveTask(newTask);
-        assertThat(mTasksRepository.mCachedTasks.containsKey(newTask.getId()), is(true));
+        assertThat(mTasksRepository.mCachedTasks.peek(newTask.getId()), is(notNullValue()));
 
         // When deleted
         mTasksRepository.deleteTask(newTask.getId());
@@ -265,7 +370,54 @@ public class TasksRepositoryTest {
         verify(mTasksLocalDataSource).deleteTask(newTask.getId());
 
         // Verify it's removed from repository
-        assertThat(mTasksRepository.mCachedTasks.containsKey(newTask.getId()), is(false));
+        assertThat(mTasksRepository.mCachedTasks.peek(newTask.getId()), is(nullValue()));
+    }
+
+    @Test
+    public void saveTasks_savesTasksToServiceAPIInOneCall() {
+        // When several tasks are saved at once
+        mTasksRepository.saveTasks(TASKS);
+
+        // Then each data source is called once for all of them and the cache is updated
+        verify(mTasksRemoteDataSource).saveTasks(TASKS);
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+        verify(mTasksLocalDataSource, never()).saveTask(any(Task.class));
+        assertThat(mTasksRepository.mCachedTasks.size(), is(TASKS.size()));
+    }
+
+    @Test
+    public void completeTasks_completesTasksToServiceAPIInOneCall() {
+        // Given two active tasks in the repository
+        mTasksRepository.saveTasks(TASKS);
+        List<String> taskIds = Lists.newArrayList(TASKS.get(0).getId(), TASKS.get(1).getId());
+
+        // When both are completed at once
+        mTasksRepository.completeTasks(taskIds);
+
+        // Then each data source is called once for both, with the version the cache was updated
+        // with
+        ArgumentCaptor<Long> versionCaptor = ArgumentCaptor.forClass(Long.class);
+        verify(mTasksLocalDataSource).completeTasks(eq(taskIds), versionCaptor.capture());
+        long version = versionCaptor.getValue();
+        verify(mTasksRemoteDataSource).completeTasks(taskIds, version);
+        assertThat(mTasksRepository.mCachedTasks.statistics(), is(new TasksStatistics(0, 2)));
+        assertThat(mTasksRepository.mCachedTasks.peek(taskIds.get(0)).getUpdatedAt(),
+                is(version));
+    }
+
+    @Test
+    public void deleteTasks_deletesTasksToServiceAPIInOneCall() {
+        // Given two tasks in the repository
+        mTasksRepository.saveTasks(TASKS);
+        List<String> taskIds = Lists.newArrayList(TASKS.get(0).getId(), TASKS.get(1).getId());
+
+        // When both are deleted at once
+        mTasksRepository.deleteTasks(taskIds);
+
+        // Then each data source is called once for both and they're removed from the cache
+        verify(mTasksRemoteDataSource).deleteTasks(taskIds);
+        verify(mTasksLocalDataSource).deleteTasks(taskIds);
+        assertThat(mTasksRepository.mCachedTasks.isEmpty(), is(true));
     }
 
     @Test
@@ -342,7 +494,782 @@ public class TasksRepositoryTest {
         setTasksAvailable(mTasksRemoteDataSource, TASKS);
 
         // Verify that the data fetched from the remote data source was saved in local.
-        verify(mTasksLocalDataSource, times(TASKS.size())).saveTask(any(Task.class));
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+    }
+
+    @Test
+    public void getTasks_cachesLocalTasksAndServesImmutableSnapshot() {
+        // Given tasks available in the local data source
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong()))
+                .thenReturn(Observable.<TasksDelta>empty());
+
+        // When tasks are requested twice from the tasks repository
+        mTasksRepository.getTasks().toBlocking().first();
+        List<Task> cachedTasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then the second call is answered by the cache without hitting the data sources again
+        verify(mTasksLocalDataSource, times(1)).getTasks();
+        assertThat(cachedTasks, is(TASKS));
+        try {
+            cachedTasks.clear();
+            fail("The cached snapshot must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // Snapshot is shared between callers
+        }
+    }
+
+    @Test
+    public void saveTask_concurrentWritesAreNotLost() throws InterruptedException {
+        // Given several threads writing tasks while the cache is read
+        final int tasksPerThread = 500;
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < tasksPerThread; j++) {
+                        mTasksRepository.saveTask(new Task(TASK_TITLE, "Some Task Description"));
+                        mTasksRepository.mCachedTasks.snapshot();
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        // Then every write is visible in the cache and its snapshot
+        assertThat(mTasksRepository.mCachedTasks.size(), is(writers.length * tasksPerThread));
+        assertThat(mTasksRepository.mCachedTasks.snapshot().size(),
+                is(writers.length * tasksPerThread));
+    }
+
+    @Test
+    public void getTasksStream_emitsSnapshotAfterEveryMutation() {
+        // Given a repository loaded from the local data source
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong()))
+                .thenReturn(Observable.<TasksDelta>empty());
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksStream().subscribe(testSubscriber);
+        mTasksRepository.getTasks().subscribe();
+
+        // When a task is completed
+        mTasksRepository.completeTask(TASKS.get(0));
+
+        // Then the stream emitted the loaded tasks and the updated snapshot, without reloading
+        testSubscriber.assertValueCount(2);
+        assertThat(testSubscriber.getOnNextEvents().get(1).get(0).isCompleted(), is(true));
+        verify(mTasksLocalDataSource, times(1)).getTasks();
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_concurrentCallersShareOneRemoteFetch() {
+        // Given a remote data source whose response is still in flight
+        PublishSubject<TasksDelta> remoteResponse = PublishSubject.create();
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong())).thenReturn(remoteResponse);
+        mTasksRepository.refreshTasks();
+
+        // When two callers request the tasks during the same refresh
+        TestSubscriber<List<Task>> firstSubscriber = new TestSubscriber<>();
+        TestSubscriber<List<Task>> secondSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(firstSubscriber);
+        mTasksRepository.getTasks().subscribe(secondSubscriber);
+        remoteResponse.onNext(new TasksDelta(TASKS, Collections.<String>emptyList(), 1));
+        remoteResponse.onCompleted();
+
+        // Then both get the tasks from a single remote fetch and a single write-back
+        firstSubscriber.assertValue(TASKS);
+        secondSubscriber.assertValue(TASKS);
+        verify(mTasksRemoteDataSource, times(1)).getTasksDelta(anyLong());
+        verify(mTasksLocalDataSource, times(1)).saveTasks(TASKS);
+        assertThat(mTasksRepository.getCoalescedRefreshCount(), is(1));
+    }
+
+    @Test
+    public void getTasksAndRevalidate_emitsLocalTasksBeforeRemoteTasks() {
+        // Given tasks persisted locally and a remote data source that hasn't answered yet
+        PublishSubject<TasksDelta> remoteResponse = PublishSubject.create();
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong())).thenReturn(remoteResponse);
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+
+        // When tasks are requested in stale-while-revalidate mode
+        mTasksRepository.getTasksAndRevalidate().subscribe(testSubscriber);
+
+        // Then the local tasks are emitted straight away
+        testSubscriber.assertValue(TASKS);
+
+        // And the reconciled tasks follow once the remote data source answers, with every task
+        // as nothing was synced yet
+        Task remoteTask = new Task(TASK_TITLE, "Some Task Description");
+        remoteResponse.onNext(new TasksDelta(
+                Lists.newArrayList(TASKS.get(0), TASKS.get(1), remoteTask),
+                Collections.<String>emptyList(), 1));
+        remoteResponse.onCompleted();
+        testSubscriber.assertCompleted();
+        testSubscriber.assertValueCount(2);
+        assertThat(testSubscriber.getOnNextEvents().get(1).size(), is(TASKS.size() + 1));
+        assertThat(mTasksRepository.mCacheIsDirty, is(false));
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_onlyWritesRemoteChangesSinceLastSync() {
+        // Given a repository synced once with the remote data source
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 2)));
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe();
+
+        // When one task was modified and another deleted remotely before the next refresh
+        Task modifiedTask = new Task(TASK_TITLE, "Some Task Description", TASKS.get(0).getId(),
+                true, TASKS.get(0).getUpdatedAt() + 1);
+        String deletedTaskId = TASKS.get(1).getId();
+        when(mTasksRemoteDataSource.getTasksDelta(2)).thenReturn(Observable.just(new TasksDelta(
+                Lists.newArrayList(modifiedTask), Lists.newArrayList(deletedTaskId), 4)));
+        mTasksRepository.refreshTasks();
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then only the changes are written to the local data source, in bulk, and to the cache
+        verify(mTasksLocalDataSource).saveTasks(Lists.newArrayList(modifiedTask));
+        verify(mTasksLocalDataSource).deleteTasks(Lists.newArrayList(deletedTaskId));
+        verify(mTasksLocalDataSource, never()).saveTask(any(Task.class));
+        verify(mTasksLocalDataSource, never()).deleteTask(any(String.class));
+        assertThat(tasks.size(), is(1));
+        assertThat(tasks.get(0).isCompleted(), is(true));
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_keepsTheLatestVersionOfEachTask() {
+        // Given a repository synced once with the remote data source
+        Task task1 = new Task("Title1", "Description1", "1", false, 10);
+        Task task2 = new Task("Title2", "Description2", "2", false, 10);
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(Lists.newArrayList(task1, task2),
+                        Collections.<String>emptyList(), 2)));
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe();
+
+        // When the first task was edited locally after an older remote edit, and the second task
+        // comes back from the remote data source unchanged
+        Task localTask1 = new Task("Local title", "Description1", "1", false, 30);
+        mTasksRepository.saveTask(localTask1);
+        Task remoteTask1 = new Task("Remote title", "Description1", "1", false, 20);
+        when(mTasksRemoteDataSource.getTasksDelta(2)).thenReturn(Observable.just(new TasksDelta(
+                Lists.newArrayList(remoteTask1, task2), Collections.<String>emptyList(), 4)));
+        mTasksRepository.refreshTasks();
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then neither remote task is written locally and the local edit is kept
+        verify(mTasksLocalDataSource, times(1)).saveTasks(anyCollectionOf(Task.class));
+        assertThat(mTasksRepository.mCachedTasks.peek("1").getTitle(), is("Local title"));
+        assertThat(tasks.size(), is(2));
+    }
+
+    @Test
+    public void refreshWithUnloadedCache_keepsStoredTasksNewerThanTheRemoteOnes() {
+        // Given a task stored by an earlier session, whose cache isn't loaded yet, and an older
+        // copy of it on the remote data source along with another task
+        Task storedTask = new Task("Stored title", "Description1", "1", false, 30);
+        when(mTasksLocalDataSource.getTask("1")).thenReturn(Observable.just(storedTask));
+        Task remoteTask = new Task("Remote title", "Description1", "1", false, 20);
+        Task otherRemoteTask = new Task("Other title", "Description2", "2", false, 10);
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(Lists.newArrayList(remoteTask, otherRemoteTask),
+                        Collections.<String>emptyList(), 2)));
+
+        // When the tasks are refreshed
+        mTasksRepository.refreshTasks();
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then only the other task is stored, and the stored copy of the first one is cached
+        verify(mTasksLocalDataSource).saveTasks(Lists.newArrayList(otherRemoteTask));
+        assertThat(mTasksRepository.mCachedTasks.peek("1").getTitle(), is("Stored title"));
+        assertThat(tasks.size(), is(2));
+    }
+
+    @Test
+    public void refreshWithUnloadedCacheAndPersistentLocalDataSource_readsStoredTasksInBulk() {
+        // Given a local data source storing a task newer than its remote copy
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        Task storedTask = new Task("Stored title", "Description1", "1", false, 30);
+        when(localDataSource.getStoredTasks(anyCollectionOf(String.class)))
+                .thenReturn(Observable.<List<Task>>just(Lists.newArrayList(storedTask)));
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+        Task remoteTask = new Task("Remote title", "Description1", "1", false, 20);
+        Task otherRemoteTask = new Task("Other title", "Description2", "2", false, 10);
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(Lists.newArrayList(remoteTask, otherRemoteTask),
+                        Collections.<String>emptyList(), 2)));
+
+        // When the tasks are refreshed before the cache is loaded
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().toBlocking().first();
+
+        // Then the stored copies of the remote tasks are read at once, and the stored task is
+        // cached rather than its remote copy
+        verify(localDataSource).getStoredTasks(Lists.newArrayList("1", "2"));
+        verify(localDataSource, never()).getTask(anyString());
+        assertThat(mTasksRepository.mCachedTasks.peek("1").getTitle(), is("Stored title"));
+    }
+
+    @Test
+    public void fullSync_deletesLocalTasksMissingFromTheRemoteOnes() {
+        // Given tasks loaded from the local data source, one of them changed after the sync below
+        // starts
+        Task laterTask = new Task(TASK_TITLE3, "Some Task Description", "3", false,
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        when(mTasksLocalDataSource.getTasks()).thenReturn(
+                Observable.just(Lists.newArrayList(TASKS.get(0), TASKS.get(1), laterTask)));
+        mTasksRepository.getTasks().toBlocking().first();
+
+        // When the first sync brings every remote task, of which there is only the first one
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(Lists.newArrayList(TASKS.get(0)),
+                        Collections.<String>emptyList(), 2)));
+        mTasksRepository.refreshTasks();
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then the second task is deleted locally, and the one changed since the sync started kept
+        verify(mTasksLocalDataSource).deleteTasks(Lists.newArrayList(TASKS.get(1).getId()));
+        assertThat(tasks.size(), is(2));
+        assertThat(mTasksRepository.mCachedTasks.peek(TASKS.get(1).getId()), is(nullValue()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void refreshWithPersistentLocalDataSource_resumesFromTheStoredSyncVersion() {
+        // Given tasks loaded from a local data source that stores the version they were last
+        // synced with
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        when(localDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+        when(localDataSource.getSyncVersion()).thenReturn(Observable.just(5L));
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+        mTasksRepository.getTasks().toBlocking().first();
+
+        // When the tasks are refreshed for the first time in this session
+        String deletedTaskId = TASKS.get(1).getId();
+        when(mTasksRemoteDataSource.getTasksDelta(5)).thenReturn(Observable.just(new TasksDelta(
+                Collections.<Task>emptyList(), Lists.newArrayList(deletedTaskId), 7)));
+        mTasksRepository.refreshTasks();
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then only the changes since the stored version are fetched, and they are stored along
+        // with their version in a single call
+        ArgumentCaptor<TasksDelta> appliedDelta = ArgumentCaptor.forClass(TasksDelta.class);
+        verify(localDataSource).applyRemoteChanges(appliedDelta.capture(),
+                (Collection<String>) isNull());
+        assertThat(appliedDelta.getValue().getDeletedTaskIds(),
+                is((List<String>) Lists.newArrayList(deletedTaskId)));
+        assertThat(appliedDelta.getValue().getVersion(), is(7L));
+        verify(localDataSource, never()).deleteTasks(anyCollectionOf(String.class));
+        assertThat(tasks.size(), is(1));
+    }
+
+    @Test
+    public void pendingWritesOfEarlierSession_areSentOnStart() {
+        // Given a local data source left with a task saved twice and a clearing not sent yet
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        Task storedTask = new Task(TASK_TITLE, "Some Task Description", "1", false, 10);
+        when(localDataSource.getPendingWrites()).thenReturn(Observable.<List<PendingWrite>>just(
+                Lists.newArrayList(new PendingWrite(PendingWrite.Type.SAVE, "1", 2),
+                        new PendingWrite(PendingWrite.Type.CLEAR_COMPLETED, null, 1))));
+        when(localDataSource.getStoredTasks(Lists.newArrayList("1")))
+                .thenReturn(Observable.<List<Task>>just(Lists.newArrayList(storedTask)));
+
+        // When the repository is created
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+
+        // Then the stored task is cached and sent, followed by the clearing, and both are
+        // forgotten once sent
+        assertThat(mTasksRepository.mCachedTasks.peek("1").getTitle(), is(TASK_TITLE));
+        InOrder inOrder = inOrder(mTasksRemoteDataSource);
+        inOrder.verify(mTasksRemoteDataSource).saveTask(storedTask);
+        inOrder.verify(mTasksRemoteDataSource).clearCompletedTasks();
+        verify(localDataSource).forgetTaskWrites("1", 2);
+        verify(localDataSource).forgetGlobalWrite(PendingWrite.Type.CLEAR_COMPLETED);
+    }
+
+    @Test
+    public void refreshBeforePendingWritesAreRead_waitsForThemToBeSent() {
+        // Given a local data source whose pending writes haven't been read yet
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        PublishSubject<List<PendingWrite>> pendingWrites = PublishSubject.create();
+        when(localDataSource.getPendingWrites()).thenReturn(pendingWrites);
+        when(localDataSource.getStoredTasks(anyCollectionOf(String.class)))
+                .thenReturn(Observable.just(Collections.<Task>emptyList()));
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 2)));
+
+        // When the tasks are refreshed
+        mTasksRepository.refreshTasks();
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(testSubscriber);
+
+        // Then the remote tasks are only asked for once the pending writes have been queued
+        verify(mTasksRemoteDataSource, never()).getTasksDelta(anyLong());
+        pendingWrites.onNext(Collections.<PendingWrite>emptyList());
+        pendingWrites.onCompleted();
+        verify(mTasksRemoteDataSource).getTasksDelta(TasksDelta.NO_VERSION);
+        testSubscriber.assertValueCount(1);
+    }
+
+    @Test
+    public void writeSentToRemote_isForgottenByPersistentLocalDataSourceOnceRecorded() {
+        // Given a repository whose local data source records the writes pending
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+
+        // When a task is saved
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+
+        // Then it is written locally before it is sent, and forgotten once sent
+        InOrder inOrder = inOrder(localDataSource, mTasksRemoteDataSource);
+        inOrder.verify(localDataSource).saveTask(newTask);
+        inOrder.verify(mTasksRemoteDataSource).saveTask(newTask);
+        inOrder.verify(localDataSource).forgetTaskWrites(newTask.getId(), 1);
+    }
+
+    @Test
+    public void searchTasksWithCacheAvailable_searchesTheCacheOnly() {
+        // Given a loaded cache
+        mTasksRepository.mCachedTasks.putAllIfNotLoaded(TASKS);
+
+        // When tasks are searched
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.searchTasks(TASKS.get(1).getTitle()).subscribe(testSubscriber);
+
+        // Then the matching task is found without reading the local data source
+        testSubscriber.assertValue((List<Task>) Lists.newArrayList(TASKS.get(1)));
+        verify(mTasksLocalDataSource, never()).searchTasks(any(String.class));
+    }
+
+    @Test
+    public void searchTasksWithEvictedDescriptions_searchesTheLocalDataSource() {
+        // Given a loaded cache that had to evict a description too big for its budget
+        Task bigTask = new Task(TASK_TITLE, Strings.repeat("word ", 120000));
+        mTasksRepository.mCachedTasks.putAllIfNotLoaded(Lists.newArrayList(bigTask));
+        List<Task> matchingTasks = Lists.newArrayList(bigTask);
+        when(mTasksLocalDataSource.searchTasks("word")).thenReturn(Observable.just(matchingTasks));
+
+        // When tasks are searched by a word of that description
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.searchTasks("word").subscribe(testSubscriber);
+
+        // Then the full-text index of the local data source is searched instead of the cache
+        testSubscriber.assertValue(matchingTasks);
+        verify(mTasksLocalDataSource).searchTasks("word");
+    }
+
+    @Test
+    public void searchTasksWithCacheUnavailable_searchesTheLocalDataSource() {
+        // Given tasks found by the local data source
+        when(mTasksLocalDataSource.searchTasks("title")).thenReturn(Observable.just(TASKS));
+
+        // When tasks are searched
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.searchTasks("title").subscribe(testSubscriber);
+
+        // Then they come from the local data source and not from the remote one
+        testSubscriber.assertValue(TASKS);
+        verify(mTasksRemoteDataSource, never()).searchTasks(any(String.class));
+    }
+
+    @Test
+    public void getTasksPage_readsPageFromLocalDataSourceOnly() {
+        // Given a page of tasks persisted locally
+        String lastTaskId = "last";
+        when(mTasksLocalDataSource.getTasksPage(lastTaskId, 2)).thenReturn(Observable.just(TASKS));
+
+        // When the page after the last loaded task is requested
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksPage(lastTaskId, 2).subscribe(testSubscriber);
+
+        // Then it comes from the local data source, without going through the cache
+        testSubscriber.assertValue(TASKS);
+        verify(mTasksRemoteDataSource, never()).getTasksDelta(anyLong());
+        assertThat(mTasksRepository.mCachedTasks.isEmpty(), is(true));
+    }
+
+    @Test
+    public void getTasksPage_waitsForQueuedLocalWrites() {
+        // Given a page of tasks persisted locally, and local writes still queued
+        String lastTaskId = "last";
+        when(mTasksLocalDataSource.getTasksPage(lastTaskId, 2)).thenReturn(Observable.just(TASKS));
+        PublishSubject<Void> written = PublishSubject.create();
+        when(mTasksLocalDataSource.whenWritten()).thenReturn(written);
+
+        // When the page after the last loaded task is requested
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksPage(lastTaskId, 2).subscribe(testSubscriber);
+
+        // Then it is only read once the queued writes are stored
+        verify(mTasksLocalDataSource, never()).getTasksPage(lastTaskId, 2);
+        written.onCompleted();
+        testSubscriber.assertValue(TASKS);
+    }
+
+    @Test
+    public void getFirstTasksPageWithLocalDataSourceEmpty_syncsFromRemoteFirst() {
+        // Given nothing persisted locally yet, and tasks available remotely
+        when(mTasksLocalDataSource.getTasksPage(null, 2))
+                .thenReturn(Observable.just(Collections.<Task>emptyList()))
+                .thenReturn(Observable.just(TASKS));
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 2)));
+
+        // When the first page is requested
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksPage(null, 2).subscribe(testSubscriber);
+
+        // Then the remote tasks are persisted and the page is read again
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+        testSubscriber.assertValue(TASKS);
+    }
+
+    @Test
+    public void getFirstTasksPageWithDirtyCache_emitsStoredPageBeforeSyncedPage() {
+        // Given tasks persisted locally and a remote data source that hasn't answered yet
+        List<Task> syncedTasks = Lists.newArrayList(new Task(TASK_TITLE, "Some Task Description"));
+        when(mTasksLocalDataSource.getTasksPage(null, 2))
+                .thenReturn(Observable.just(TASKS))
+                .thenReturn(Observable.just(syncedTasks));
+        PublishSubject<TasksDelta> remoteResponse = PublishSubject.create();
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong())).thenReturn(remoteResponse);
+        mTasksRepository.refreshTasks();
+
+        // When the first page is requested
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksPage(null, 2).subscribe(testSubscriber);
+
+        // Then the stored page is emitted without waiting for the remote data source
+        testSubscriber.assertValue(TASKS);
+
+        // And the page is read again once the remote tasks are persisted
+        remoteResponse.onNext(new TasksDelta(syncedTasks, Collections.<String>emptyList(), 1));
+        remoteResponse.onCompleted();
+        testSubscriber.assertCompleted();
+        testSubscriber.assertValues(TASKS, syncedTasks);
+    }
+
+    @Test
+    public void getFirstTasksPageOnColdStart_emitsWarmStartSnapshotBeforeStoredPage()
+            throws IOException {
+        // Given tasks cached by a previous session that kept a warm-start snapshot
+        File snapshotFile = mFolder.newFile();
+        mTasksRepository.setWarmStartSnapshot(snapshotFile);
+        mTasksRepository.mCachedTasks.putAllIfNotLoaded(TASKS);
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, mTasksLocalDataSource, new ImmediateSchedulerProvider());
+        mTasksRepository.setWarmStartSnapshot(snapshotFile);
+        PublishSubject<List<Task>> localPage = PublishSubject.create();
+        when(mTasksLocalDataSource.getTasksPage(null, 10)).thenReturn(localPage);
+
+        // When the first page is requested on the next cold start
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasksPage(null, 10).subscribe(testSubscriber);
+
+        // Then the snapshot is shown without waiting for the local data source
+        assertThat(testSubscriber.getOnNextEvents().size(), is(1));
+        assertThat(testSubscriber.getOnNextEvents().get(0).size(), is(TASKS.size()));
+
+        // And the stored page follows it
+        List<Task> storedTasks = Lists.newArrayList(new Task(TASK_TITLE, "Some Task Description"));
+        localPage.onNext(storedTasks);
+        localPage.onCompleted();
+        testSubscriber.assertCompleted();
+        assertThat(testSubscriber.getOnNextEvents().get(1), is(storedTasks));
+    }
+
+    @Test
+    public void getStatisticsStream_emitsCountsOnlyWhenTheyChange() {
+        // Given a loaded repository with one active task
+        Task task = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.mCachedTasks.putAllIfNotLoaded(Lists.newArrayList(task));
+        TestSubscriber<TasksStatistics> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getStatisticsStream().subscribe(testSubscriber);
+
+        // When the task is edited, then completed
+        mTasksRepository.saveTask(new Task(TASK_TITLE2, "Some Task Description", task.getId()));
+        mTasksRepository.completeTask(task);
+
+        // Then the counts are emitted on subscription and after the completion only
+        testSubscriber.assertValues(new TasksStatistics(1, 0), new TasksStatistics(0, 1));
+    }
+
+    @Test
+    public void getTaskWithEvictedDescription_reloadsTaskFromLocalDataSource() {
+        // Given two tasks whose descriptions don't both fit in the cache
+        int descriptionLength = (int) TasksCache.DEFAULT_MAX_DESCRIPTION_BYTES / 2;
+        String description = Strings.repeat("x", descriptionLength);
+        Task evictedTask = new Task(TASK_TITLE, description);
+        mTasksRepository.saveTask(evictedTask);
+        mTasksRepository.saveTask(new Task(TASK_TITLE2, description));
+        assertThat(mTasksRepository.getCacheEvictionCount(), is(1L));
+        when(mTasksLocalDataSource.getTask(evictedTask.getId()))
+                .thenReturn(Observable.just(evictedTask));
+        when(mTasksRemoteDataSource.getTask(evictedTask.getId()))
+                .thenReturn(Observable.<Task>empty());
+
+        // When the task whose description was evicted is requested
+        Task task = mTasksRepository.getTask(evictedTask.getId()).toBlocking().first();
+
+        // Then it is still listed but reloaded from the local data source
+        assertThat(mTasksRepository.mCachedTasks.size(), is(2));
+        assertThat(task.getDescription(), is(description));
+        assertThat(mTasksRepository.getCacheMissCount(), is(1L));
+        verify(mTasksLocalDataSource).getTask(evictedTask.getId());
+    }
+
+    @Test
+    public void getTasksWithConcurrentStrategy_remoteWinsAndSlowLocalReadIsCancelled() {
+        // Given a local data source that doesn't answer and a remote one that does
+        PublishSubject<List<Task>> localTasks = PublishSubject.create();
+        when(mTasksLocalDataSource.getTasks()).thenReturn(localTasks);
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 1)));
+        mTasksRepository.setFetchStrategy(
+                FetchStrategy.concurrent(FetchStrategy.NO_DEADLINE, FetchStrategy.NO_DEADLINE));
+
+        // When tasks are requested
+        List<Task> tasks = mTasksRepository.getTasks().toBlocking().first();
+
+        // Then the remote tasks are returned and the local read is cancelled
+        assertThat(tasks.size(), is(TASKS.size()));
+        assertThat(localTasks.hasObservers(), is(false));
+    }
+
+    @Test
+    public void getTasksWithLocalDeadlineMissed_tasksAreRetrievedFromRemote() {
+        // Given a local data source that doesn't answer within its deadline
+        TestScheduler testScheduler = new TestScheduler();
+        mTasksRepository = createRepositoryWithComputationScheduler(testScheduler);
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.<List<Task>>never());
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 1)));
+        mTasksRepository.setFetchStrategy(FetchStrategy.sequential(100, FetchStrategy.NO_DEADLINE));
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(testSubscriber);
+        verify(mTasksRemoteDataSource, never()).getTasksDelta(anyLong());
+
+        // When the deadline passes
+        testScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        // Then the remote data source is used instead
+        testSubscriber.assertValueCount(1);
+        testSubscriber.assertCompleted();
+    }
+
+    @Test
+    public void getTasksWithRemoteDeadlineMissed_failsWithTimeout() {
+        // Given no local tasks and a remote data source that doesn't answer within its deadline
+        TestScheduler testScheduler = new TestScheduler();
+        mTasksRepository = createRepositoryWithComputationScheduler(testScheduler);
+        when(mTasksLocalDataSource.getTasks())
+                .thenReturn(Observable.just(Collections.<Task>emptyList()));
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION))
+                .thenReturn(Observable.<TasksDelta>never());
+        mTasksRepository.setFetchStrategy(FetchStrategy.sequential(FetchStrategy.NO_DEADLINE, 500));
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(testSubscriber);
+
+        // When the deadline passes
+        testScheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+
+        // Then the caller gets an error instead of waiting forever
+        testSubscriber.assertError(TimeoutException.class);
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_lastUnsubscribeCancelsRemoteRefresh() {
+        // Given a remote refresh in flight
+        PublishSubject<TasksDelta> remoteDelta = PublishSubject.create();
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(remoteDelta);
+        mTasksRepository.refreshTasks();
+        Subscription subscription = mTasksRepository.getTasks().subscribe();
+
+        // When its only caller unsubscribes
+        subscription.unsubscribe();
+
+        // Then the remote request is cancelled and the next read starts a new one
+        assertThat(remoteDelta.hasObservers(), is(false));
+        mTasksRepository.getTasks().subscribe();
+        verify(mTasksRemoteDataSource, times(2)).getTasksDelta(TasksDelta.NO_VERSION);
+    }
+
+    @Test
+    public void getTasksWithDetachPolicy_abandonedRefreshFinishesAndIsJoined() {
+        // Given a repository detaching abandoned refreshes, with a remote refresh in flight
+        mTasksRepository.setAbandonedRefreshPolicy(AbandonedRefreshPolicy.DETACH);
+        PublishSubject<TasksDelta> remoteDelta = PublishSubject.create();
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(remoteDelta);
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe().unsubscribe();
+
+        // When another caller asks for the tasks, then the remote data source answers
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(testSubscriber);
+        remoteDelta.onNext(new TasksDelta(TASKS, Collections.<String>emptyList(), 1));
+        remoteDelta.onCompleted();
+
+        // Then the refresh was joined instead of restarted, and its tasks were written back
+        verify(mTasksRemoteDataSource, times(1)).getTasksDelta(anyLong());
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+        testSubscriber.assertValue(mTasksRepository.mCachedTasks.snapshot());
+        assertThat(mTasksRepository.mCacheIsDirty, is(false));
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_endedRefreshDoesNotForgetTheNextOne() {
+        // Given a repository detaching abandoned refreshes, and a caller starting a new refresh
+        // as soon as the first one completes
+        mTasksRepository.setAbandonedRefreshPolicy(AbandonedRefreshPolicy.DETACH);
+        PublishSubject<TasksDelta> firstDelta = PublishSubject.create();
+        PublishSubject<TasksDelta> secondDelta = PublishSubject.create();
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong()))
+                .thenReturn(firstDelta)
+                .thenReturn(secondDelta);
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe(new TestSubscriber<List<Task>>() {
+            @Override
+            public void onCompleted() {
+                super.onCompleted();
+                mTasksRepository.refreshTasks();
+                mTasksRepository.getTasks().subscribe();
+            }
+        });
+
+        // When the first refresh ends, then another caller asks for the tasks
+        firstDelta.onNext(new TasksDelta(TASKS, Collections.<String>emptyList(), 1));
+        firstDelta.onCompleted();
+        mTasksRepository.getTasks().subscribe();
+
+        // Then the second refresh is joined instead of being started again
+        verify(mTasksRemoteDataSource, times(2)).getTasksDelta(anyLong());
+    }
+
+    @Test
+    public void getTasksWithDirtyCacheAndRemoteUnavailable_tasksAreRetrievedFromLocal() {
+        // Given a remote data source whose circuit is open, and tasks available locally
+        when(mTasksRemoteDataSource.getTasksDelta(anyLong()))
+                .thenReturn(Observable.<TasksDelta>error(new RemoteUnavailableException()));
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+
+        // When a refresh is forced
+        mTasksRepository.refreshTasks();
+        TestSubscriber<List<Task>> testSubscriber = new TestSubscriber<>();
+        mTasksRepository.getTasks().subscribe(testSubscriber);
+
+        // Then the local tasks are served instead of an error, and the cache stays dirty
+        testSubscriber.assertValue(TASKS);
+        testSubscriber.assertNoErrors();
+        assertThat(mTasksRepository.mCacheIsDirty, is(true));
+    }
+
+    @Test
+    public void getTasks_recordsWhichSourceServedEachCall() {
+        // Given a repository with an in-memory metrics sink and tasks available locally
+        InMemoryTasksMetricsSink metricsSink = new InMemoryTasksMetricsSink();
+        mTasksRepository.setMetricsSink(metricsSink);
+        when(mTasksLocalDataSource.getTasks()).thenReturn(Observable.just(TASKS));
+
+        // When tasks are requested twice
+        mTasksRepository.getTasks().toBlocking().first();
+        mTasksRepository.getTasks().toBlocking().first();
+
+        // Then both calls are counted, the first served by the local data source, the second by
+        // the cache
+        assertThat(metricsSink.getCallCount(Operation.GET_TASKS), is(2L));
+        assertThat(metricsSink.getLatencyCount(Operation.GET_TASKS, Source.LOCAL), is(1L));
+        assertThat(metricsSink.getLatencyCount(Operation.GET_TASKS, Source.CACHE), is(1L));
+        assertThat(metricsSink.getLatencyCount(Operation.GET_TASKS, Source.REMOTE), is(0L));
+    }
+
+    @Test
+    public void setMetricsSink_isPassedOnToResilientRemoteDataSource() {
+        // Given a repository whose remote data source retries and guards its calls
+        ResilientTasksDataSource remoteDataSource = mock(ResilientTasksDataSource.class);
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                remoteDataSource, mTasksLocalDataSource, new ImmediateSchedulerProvider());
+
+        // When a metrics sink is set
+        InMemoryTasksMetricsSink metricsSink = new InMemoryTasksMetricsSink();
+        mTasksRepository.setMetricsSink(metricsSink);
+
+        // Then the retries and circuit breaker transitions are recorded to the same sink
+        verify(remoteDataSource).setMetricsSink(metricsSink);
+    }
+
+    @Test
+    public void refreshAndSave_recordForcedRefreshAndCalls() {
+        // Given a repository with an in-memory metrics sink
+        InMemoryTasksMetricsSink metricsSink = new InMemoryTasksMetricsSink();
+        mTasksRepository.setMetricsSink(metricsSink);
+        when(mTasksRemoteDataSource.getTasksDelta(TasksDelta.NO_VERSION)).thenReturn(
+                Observable.just(new TasksDelta(TASKS, Collections.<String>emptyList(), 1)));
+
+        // When a refresh is forced, then a task is saved
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().toBlocking().first();
+        mTasksRepository.saveTask(new Task(TASK_TITLE, "Some Task Description"));
+
+        // Then the forced refresh, the remote read and the call to save are recorded
+        assertThat(metricsSink.getEventCount(Event.FORCED_REMOTE_REFRESH), is(1L));
+        assertThat(metricsSink.getCallCount(Operation.REFRESH_TASKS), is(1L));
+        assertThat(metricsSink.getLatencyCount(Operation.GET_TASKS, Source.REMOTE), is(1L));
+        assertThat(metricsSink.getLatencyCount(Operation.GET_TASKS_DELTA, Source.REMOTE), is(1L));
+        assertThat(metricsSink.getCallCount(Operation.SAVE_TASK), is(1L));
+    }
+
+    @Test
+    public void setMetricsSink_isPassedOnToPersistentLocalDataSource() {
+        // Given a repository whose local data source records its own writes
+        PersistentTasksDataSource localDataSource = mock(PersistentTasksDataSource.class);
+        WriteStubs.storeWrites(localDataSource);
+        TasksRepository.destroyInstance();
+        mTasksRepository = TasksRepository.getInstance(
+                mTasksRemoteDataSource, localDataSource, new ImmediateSchedulerProvider());
+
+        // When a metrics sink is set
+        InMemoryTasksMetricsSink metricsSink = new InMemoryTasksMetricsSink();
+        mTasksRepository.setMetricsSink(metricsSink);
+
+        // Then the local write latencies and failures are recorded to the same sink
+        verify(localDataSource).setMetricsSink(metricsSink);
+    }
+
+    private TasksRepository createRepositoryWithComputationScheduler(
+            final Scheduler computationScheduler) {
+        TasksRepository.destroyInstance();
+        return TasksRepository.getInstance(mTasksRemoteDataSource, mTasksLocalDataSource,
+                new ImmediateSchedulerProvider() {
+                    @NonNull
+                    @Override
+                    public Scheduler computation() {
+                        return computationScheduler;
+                    }
+                });
     }
 
     /**
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the matching and the word splitting of {@link TasksSearchIndex}.
+ */
+public class TasksSearchIndexTest {
+
+    private TasksSearchIndex mIndex;
+
+    @Before
+    public void setupIndex() {
+        mIndex = new TasksSearchIndex();
+        mIndex.put(new Task("Buy milk", "At the corner shop", "1", false));
+        mIndex.put(new Task("Buy bread", null, "2", false));
+        mIndex.put(new Task("Call the shop", "About the milk", "3", false));
+    }
+
+    @Test
+    public void everyTerm_mustPrefixAWordOfTitleOrDescription() {
+        assertThat(mIndex.search("mil"), is((Set<String>) Sets.newHashSet("1", "3")));
+        assertThat(mIndex.search("BUY mi"), is((Set<String>) Sets.newHashSet("1")));
+        assertThat(mIndex.search("shop call"), is((Set<String>) Sets.newHashSet("3")));
+        assertThat(mIndex.search("ilk").isEmpty(), is(true));
+        assertThat(mIndex.search(" -- ").isEmpty(), is(true));
+    }
+
+    @Test
+    public void replacedAndRemovedTasks_areNoLongerFoundByTheirOldWords() {
+        mIndex.put(new Task("Buy cheese", null, "2", false));
+        mIndex.remove("3");
+
+        assertThat(mIndex.search("bread").isEmpty(), is(true));
+        assertThat(mIndex.search("cheese"), is((Set<String>) Sets.newHashSet("2")));
+        assertThat(mIndex.search("call").isEmpty(), is(true));
+        assertThat(mIndex.search("milk"), is((Set<String>) Sets.newHashSet("1")));
+    }
+
+    @Test
+    public void tokenize_splitsLikeTheSimpleSqliteTokenizer() {
+        assertThat(TasksSearchIndex.tokenize("Don't \"OR\" café-au-lait*"),
+                is((List<String>) Lists.newArrayList("don", "t", "or", "café", "au", "lait")));
+        assertThat(TasksSearchIndex.tokenize(null), is(Collections.<String>emptyList()));
+    }
+}
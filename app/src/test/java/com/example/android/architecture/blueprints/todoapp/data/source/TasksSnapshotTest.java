@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the file format and the writes of {@link TasksSnapshot}.
+ */
+public class TasksSnapshotTest {
+
+    private final static Task TASK1 = new Task("Title1", "Description1", "1", false);
+
+    private final static Task TASK2 = new Task("Title2", null, "2", true);
+
+    private final static Task TASK3 = new Task("Title3", "Description3", "3", false);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setupFile() {
+        mFile = new File(mFolder.getRoot(), "tasks.snapshot");
+    }
+
+    @Test
+    public void writtenTasks_areReadBackInPagesInTheOrderWritten() {
+        new TasksSnapshot(mFile, Schedulers.immediate()).write(
+                Lists.newArrayList(TASK3, TASK1, TASK2));
+
+        TasksSnapshot snapshot = new TasksSnapshot(mFile, Schedulers.immediate());
+        List<Task> firstPage = snapshot.readPage(null, 2);
+        List<Task> secondPage = snapshot.readPage(firstPage.get(1).getId(), 2);
+
+        assertThat(firstPage, is((List<Task>) Lists.newArrayList(TASK3, TASK1)));
+        assertThat(secondPage, is((List<Task>) Lists.newArrayList(TASK2)));
+        assertThat(secondPage.get(0).isCompleted(), is(true));
+        assertThat(secondPage.get(0).getDescription(), is(nullValue()));
+        assertThat(secondPage.get(0).getUpdatedAt(), is(TASK2.getUpdatedAt()));
+    }
+
+    @Test
+    public void missingOrCorruptFile_readsAsEmpty() throws IOException {
+        TasksSnapshot missingSnapshot = new TasksSnapshot(mFile, Schedulers.immediate());
+        assertThat(missingSnapshot.readPage(null, 10).isEmpty(), is(true));
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        TasksSnapshot corruptSnapshot = new TasksSnapshot(mFile, Schedulers.immediate());
+        assertThat(corruptSnapshot.readPage(null, 10).isEmpty(), is(true));
+    }
+
+    @Test
+    public void writesQueuedTogether_onlyWriteTheLatestTasks() {
+        TestScheduler scheduler = new TestScheduler();
+        TasksSnapshot snapshot = new TasksSnapshot(mFile, scheduler);
+
+        snapshot.write(Lists.newArrayList(TASK1));
+        snapshot.write(Lists.newArrayList(TASK2, TASK3));
+
+        assertThat(mFile.exists(), is(false));
+
+        scheduler.triggerActions();
+
+        List<Task> tasks = new TasksSnapshot(mFile, Schedulers.immediate()).readPage(null, 10);
+        assertThat(tasks, is((List<Task>) Lists.newArrayList(TASK2, TASK3)));
+    }
+
+    @Test
+    public void writeOfTasksFactory_takesTheTasksWhenTheWriteRuns() {
+        TestScheduler scheduler = new TestScheduler();
+        TasksSnapshot snapshot = new TasksSnapshot(mFile, scheduler);
+        final List<Task> tasks = Lists.newArrayList(TASK1);
+
+        snapshot.write(new Func0<List<Task>>() {
+            @Override
+            public List<Task> call() {
+                return tasks;
+            }
+        });
+        tasks.add(TASK2);
+        scheduler.triggerActions();
+
+        List<Task> writtenTasks =
+                new TasksSnapshot(mFile, Schedulers.immediate()).readPage(null, 10);
+        assertThat(writtenTasks, is((List<Task>) Lists.newArrayList(TASK1, TASK2)));
+    }
+
+    @Test
+    public void writesWithinTheWriteDelay_areWrittenOnce() {
+        TestScheduler scheduler = new TestScheduler();
+        TasksSnapshot snapshot = new TasksSnapshot(mFile, scheduler);
+        snapshot.setWriteDelay(1, TimeUnit.SECONDS);
+
+        snapshot.write(Lists.newArrayList(TASK1));
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        snapshot.write(Lists.newArrayList(TASK1, TASK2));
+        scheduler.advanceTimeBy(499, TimeUnit.MILLISECONDS);
+
+        assertThat(mFile.exists(), is(false));
+
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+
+        List<Task> tasks = new TasksSnapshot(mFile, Schedulers.immediate()).readPage(null, 10);
+        assertThat(tasks, is((List<Task>) Lists.newArrayList(TASK1, TASK2)));
+    }
+}
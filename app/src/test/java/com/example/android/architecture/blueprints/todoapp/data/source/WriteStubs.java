@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.Collections;
+
+import rx.Observable;
+
+/**
+ * Stubs the writes of a mocked {@link TasksDataSource}, which return null otherwise.
+ */
+public final class WriteStubs {
+
+    private WriteStubs() {
+    }
+
+    /**
+     * Makes every write of {@code dataSource} report that it was stored.
+     */
+    public static void storeWrites(TasksDataSource dataSource) {
+        Observable<Void> stored = Observable.empty();
+        when(dataSource.saveTask(any(Task.class))).thenReturn(stored);
+        when(dataSource.saveTasks(anyCollectionOf(Task.class))).thenReturn(stored);
+        when(dataSource.completeTask(any(Task.class))).thenReturn(stored);
+        when(dataSource.completeTasks(anyCollectionOf(String.class), anyLong()))
+                .thenReturn(stored);
+        when(dataSource.activateTask(any(Task.class))).thenReturn(stored);
+        when(dataSource.clearCompletedTasks()).thenReturn(stored);
+        when(dataSource.deleteAllTasks()).thenReturn(stored);
+        when(dataSource.deleteTask(anyString())).thenReturn(stored);
+        when(dataSource.deleteTasks(anyCollectionOf(String.class))).thenReturn(stored);
+        when(dataSource.whenWritten()).thenReturn(stored);
+    }
+
+    /**
+     * Same as {@link #storeWrites(TasksDataSource)}, along with the writes only a
+     * {@link PersistentTasksDataSource} has, which has no writes pending from an earlier session.
+     */
+    public static void storeWrites(PersistentTasksDataSource dataSource) {
+        storeWrites((TasksDataSource) dataSource);
+        Observable<Void> stored = Observable.empty();
+        // Matches the deltas applied without kept tasks as well.
+        when(dataSource.applyRemoteChanges(any(TasksDelta.class), anyCollectionOf(String.class)))
+                .thenReturn(stored);
+        when(dataSource.getPendingWrites())
+                .thenReturn(Observable.just(Collections.<PendingWrite>emptyList()));
+        when(dataSource.forgetTaskWrites(anyString(), anyInt())).thenReturn(stored);
+        when(dataSource.forgetGlobalWrite(any(PendingWrite.Type.class))).thenReturn(stored);
+    }
+}
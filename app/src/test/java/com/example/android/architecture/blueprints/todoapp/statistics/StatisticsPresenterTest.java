@@ -17,19 +17,21 @@
 package com.example.android.architecture.blueprints.todoapp.statistics;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
-import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksStatistics;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
 import com.google.common.collect.Lists;
 
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,12 +49,9 @@ public class StatisticsPresenterTest {
     private StatisticsContract.View mStatisticsView;
 
     /**
-     * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
-     * perform further actions or assertions on them.
+     * Stands for the counts the repository keeps up to date, emitted by hand in the tests.
      */
-//    @Captor
-//    private ArgumentCaptor<TasksDataSource.LoadTasksCallback> mLoadTasksCallbackCaptor;
-
+    private PublishSubject<TasksStatistics> mStatisticsStream;
 
     private StatisticsPresenter mStatisticsPresenter;
 
@@ -63,7 +62,8 @@ public class StatisticsPresenterTest {
         MockitoAnnotations.initMocks(this);
 
         // Get a reference to the class under test
-        mStatisticsPresenter = new StatisticsPresenter(mTasksRepository, mStatisticsView);
+        mStatisticsPresenter = new StatisticsPresenter(
+                mTasksRepository, mStatisticsView, new ImmediateSchedulerProvider());
 
         // The presenter won't update the view unless it's active.
         when(mStatisticsView.isActive()).thenReturn(true);
@@ -71,23 +71,24 @@ public class StatisticsPresenterTest {
         // We subscribe the tasks to 3, with one active and two completed
         TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
                 new Task("Title2", "Description2", true), new Task("Title3", "Description3", true));
+
+        mStatisticsStream = PublishSubject.create();
+        when(mTasksRepository.getStatisticsStream()).thenReturn(mStatisticsStream);
     }
 
     @Test
     public void loadEmptyTasksFromRepository_CallViewToDisplay() {
         // Given an initialized StatisticsPresenter with no tasks
         TASKS.clear();
+        when(mTasksRepository.getTasks()).thenReturn(Observable.just(TASKS));
 
         // When loading of Tasks is requested
         mStatisticsPresenter.subscribe();
+        mStatisticsStream.onNext(new TasksStatistics(0, 0));
 
         //Then progress indicator is shown
         verify(mStatisticsView).setProgressIndicator(true);
 
-        // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
-//        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
-
         // Then progress indicator is hidden and correct data is passed on to the view
         verify(mStatisticsView).setProgressIndicator(false);
         verify(mStatisticsView).showStatistics(0, 0);
@@ -96,30 +97,43 @@ public class StatisticsPresenterTest {
     @Test
     public void loadNonEmptyTasksFromRepository_CallViewToDisplay() {
         // Given an initialized StatisticsPresenter with 1 active and 2 completed tasks
+        when(mTasksRepository.getTasks()).thenReturn(Observable.just(TASKS));
 
         // When loading of Tasks is requested
         mStatisticsPresenter.subscribe();
+        mStatisticsStream.onNext(new TasksStatistics(1, 2));
 
         //Then progress indicator is shown
         verify(mStatisticsView).setProgressIndicator(true);
 
-        // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
-//        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
-
         // Then progress indicator is hidden and correct data is passed on to the view
         verify(mStatisticsView).setProgressIndicator(false);
         verify(mStatisticsView).showStatistics(1, 2);
     }
 
     @Test
-    public void loadStatisticsWhenTasksAreUnavailable_CallErrorToDisplay() {
-        // When statistics are loaded
+    public void changedCounts_AreShownWithoutReloadingTasks() {
+        // Given loaded statistics with 1 active and 2 completed tasks
+        when(mTasksRepository.getTasks()).thenReturn(Observable.just(TASKS));
         mStatisticsPresenter.subscribe();
+        mStatisticsStream.onNext(new TasksStatistics(1, 2));
 
-        // And tasks data isn't available
+        // When a task is activated elsewhere
+        mStatisticsStream.onNext(new TasksStatistics(2, 1));
+
+        // Then the new counts are shown, and the tasks were loaded only once
+        verify(mStatisticsView).showStatistics(2, 1);
         verify(mTasksRepository).getTasks();
-//        mLoadTasksCallbackCaptor.getValue().onDataNotAvailable();
+    }
+
+    @Test
+    public void loadStatisticsWhenTasksAreUnavailable_CallErrorToDisplay() {
+        // Given tasks data that isn't available
+        when(mTasksRepository.getTasks())
+                .thenReturn(Observable.<List<Task>>error(new IllegalStateException("No tasks")));
+
+        // When statistics are loaded
+        mStatisticsPresenter.subscribe();
 
         // Then an error message is shown
         verify(mStatisticsView).showLoadingStatisticsError();
@@ -16,9 +16,15 @@
 
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.support.annotation.NonNull;
+
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 //import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource.LoadTasksCallback;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskRollback;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
+import com.example.android.architecture.blueprints.todoapp.data.source.WriteStubs;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
 import com.google.common.collect.Lists;
 
 import org.junit.Before;
@@ -28,10 +34,24 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -55,6 +75,9 @@ public class TasksPresenterTest {
 //    @Captor
 //    private ArgumentCaptor<LoadTasksCallback> mLoadTasksCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<List<Task>> mShowTasksCaptor;
+
     private TasksPresenter mTasksPresenter;
 
     @Before
@@ -62,9 +85,11 @@ public class TasksPresenterTest {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
         // inject the mocks in the test the initMocks method needs to be called.
         MockitoAnnotations.initMocks(this);
+        WriteStubs.storeWrites(mTasksRepository);
 
         // Get a reference to the class under test
-        mTasksPresenter = new TasksPresenter(mTasksRepository, mTasksView);
+        mTasksPresenter = new TasksPresenter(
+                mTasksRepository, mTasksView, new ImmediateSchedulerProvider());
 
         // The presenter won't update the view unless it's active.
         when(mTasksView.isActive()).thenReturn(true);
@@ -72,6 +97,16 @@ public class TasksPresenterTest {
         // We subscribe the tasks to 3, with one active and two completed
         TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
                 new Task("Title2", "Description2", true), new Task("Title3", "Description3", true));
+
+        // The repository has a single page with these tasks, a cache that isn't loaded, and
+        // nothing to roll back.
+        when(mTasksRepository.getTasksPage(null, TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(TASKS));
+        when(mTasksRepository.getTasksStream()).thenReturn(Observable.<List<Task>>never());
+        when(mTasksRepository.getActiveTasksStream()).thenReturn(Observable.<List<Task>>never());
+        when(mTasksRepository.getCompletedTasksStream())
+                .thenReturn(Observable.<List<Task>>never());
+        when(mTasksRepository.getRollbacks()).thenReturn(Observable.<TaskRollback>never());
     }
 
     @Test
@@ -82,7 +117,7 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
+        verify(mTasksRepository).getTasksPage(null, TasksPresenter.PAGE_SIZE);
 //        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is shown
@@ -102,7 +137,7 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
+        verify(mTasksRepository).getTasksPage(null, TasksPresenter.PAGE_SIZE);
 //        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is hidden and active tasks are shown in UI
@@ -120,7 +155,7 @@ public class TasksPresenterTest {
         mTasksPresenter.loadTasks(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
+        verify(mTasksRepository).getTasksPage(null, TasksPresenter.PAGE_SIZE);
 //        mLoadTasksCallbackCaptor.getValue().onTasksLoaded(TASKS);
 
         // Then progress indicator is hidden and completed tasks are shown in UI
@@ -164,6 +199,23 @@ public class TasksPresenterTest {
         verify(mTasksView).showTaskMarkedComplete();
     }
 
+    @Test
+    public void completeTaskFailedToSave_ShowsTasksNotSaved() {
+        // Given a stubbed task whose completion fails to be saved
+        Task task = new Task("Details Requested", "For this task");
+        when(mTasksRepository.completeTask(task))
+                .thenReturn(Observable.<Void>error(new IllegalStateException("Disk full")));
+        when(mTasksRepository.getTasksPage(null, TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(TASKS));
+
+        // When task is marked as complete
+        mTasksPresenter.completeTask(task);
+
+        // Then the failure is shown and the tasks are loaded again from the repository
+        verify(mTasksView).showTasksNotSaved();
+        verify(mTasksRepository).getTasksPage(null, TasksPresenter.PAGE_SIZE);
+    }
+
     @Test
     public void activateTask_ShowsTaskMarkedActive() {
         // Given a stubbed completed task
@@ -180,15 +232,205 @@ public class TasksPresenterTest {
 
     @Test
     public void unavailableTasks_ShowsError() {
+        // Given tasks that aren't available in the repository
+        when(mTasksRepository.getTasksPage(null, TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.<List<Task>>error(new IllegalStateException("No tasks")));
+
         // When tasks are loaded
         mTasksPresenter.setFiltering(TasksFilterType.ALL_TASKS);
         mTasksPresenter.loadTasks(true);
 
         // And the tasks aren't available in the repository
-        verify(mTasksRepository).getTasks();
+        verify(mTasksRepository).getTasksPage(null, TasksPresenter.PAGE_SIZE);
 //        mLoadTasksCallbackCaptor.getValue().onDataNotAvailable();
 
         // Then an error message is shown
         verify(mTasksView).showLoadingTasksError();
     }
+
+    @Test
+    public void loadMoreTasks_showsNextPageAfterLoadedOnes() {
+        // Given a full first page of tasks, followed by a second page
+        List<Task> firstPage = newTasks(0, TasksPresenter.PAGE_SIZE);
+        List<Task> secondPage = newTasks(TasksPresenter.PAGE_SIZE, 2);
+        when(mTasksRepository.getTasksPage(null, TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(firstPage));
+        when(mTasksRepository.getTasksPage(lastId(firstPage), TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(secondPage));
+        mTasksPresenter.loadTasks(true);
+
+        // When the user scrolls to the end of the list
+        mTasksPresenter.loadMoreTasks();
+
+        // Then the second page is shown after the first one
+        verify(mTasksView, times(2)).showTasks(mShowTasksCaptor.capture());
+        List<Task> shownTasks = mShowTasksCaptor.getValue();
+        assertThat(shownTasks.size(), is(TasksPresenter.PAGE_SIZE + 2));
+        assertThat(shownTasks.get(TasksPresenter.PAGE_SIZE), is(secondPage.get(0)));
+    }
+
+    @Test
+    public void loadMoreTasksAfterShortPage_doesNotLoadAnotherPage() {
+        // Given a first page shorter than a full page, which ends the list
+        mTasksPresenter.loadTasks(true);
+
+        // When the user scrolls to the end of the list
+        mTasksPresenter.loadMoreTasks();
+
+        // Then no other page is requested
+        verify(mTasksRepository, times(1)).getTasksPage(any(String.class), anyInt());
+    }
+
+    @Test
+    public void loadMoreTasksOnceCacheIsLoaded_pagesOverTheStreamedTasks() {
+        // Given a first page read from the repository, whose cache then pushes more tasks
+        PublishSubject<List<Task>> activeTasks = PublishSubject.create();
+        when(mTasksRepository.getActiveTasksStream()).thenReturn(activeTasks);
+        mTasksPresenter.setFiltering(TasksFilterType.ACTIVE_TASKS);
+        mTasksPresenter.loadTasks(true);
+        List<Task> streamedTasks = newTasks(0, TasksPresenter.PAGE_SIZE + 2);
+        activeTasks.onNext(streamedTasks);
+
+        // When the user scrolls to the end of the list
+        mTasksPresenter.loadMoreTasks();
+
+        // Then the next page comes from the streamed tasks, without reading the repository again
+        verify(mTasksRepository, times(1)).getTasksPage(any(String.class), anyInt());
+        verify(mTasksView, times(3)).showTasks(mShowTasksCaptor.capture());
+        List<List<Task>> shownTasks = mShowTasksCaptor.getAllValues();
+        assertThat(shownTasks.get(1), is(streamedTasks.subList(0, TasksPresenter.PAGE_SIZE)));
+        assertThat(shownTasks.get(2), is(streamedTasks));
+    }
+
+    @Test
+    public void refresh_replacesLoadedPagesWithFirstPage() {
+        // Given two pages loaded, and a first page that changes on the next load
+        List<Task> firstPage = newTasks(0, TasksPresenter.PAGE_SIZE);
+        List<Task> refreshedPage = newTasks(100, 2);
+        when(mTasksRepository.getTasksPage(null, TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(firstPage))
+                .thenReturn(Observable.just(refreshedPage));
+        when(mTasksRepository.getTasksPage(lastId(firstPage), TasksPresenter.PAGE_SIZE))
+                .thenReturn(Observable.just(newTasks(TasksPresenter.PAGE_SIZE, 2)));
+        mTasksPresenter.loadTasks(true);
+        mTasksPresenter.loadMoreTasks();
+
+        // When the tasks are refreshed
+        mTasksPresenter.loadTasks(true);
+
+        // Then the repository is refreshed and only the new first page is shown
+        verify(mTasksRepository, times(2)).refreshTasks();
+        verify(mTasksView, times(3)).showTasks(mShowTasksCaptor.capture());
+        assertThat(mShowTasksCaptor.getValue(), is(refreshedPage));
+    }
+
+    @Test
+    public void searchTasks_onlySearchesOnceTypingPauses() {
+        // Given a presenter whose search delay is controlled by the test
+        TestScheduler scheduler = new TestScheduler();
+        mTasksPresenter = new TasksPresenter(
+                mTasksRepository, mTasksView, new DelayingSchedulerProvider(scheduler));
+        when(mTasksRepository.searchTasks("Title1"))
+                .thenReturn(Observable.just(TASKS.subList(0, 1)));
+        mTasksPresenter.subscribe();
+
+        // When a query is typed one key after another
+        mTasksPresenter.searchTasks("T");
+        scheduler.advanceTimeBy(TasksPresenter.SEARCH_DEBOUNCE_MILLIS / 2, TimeUnit.MILLISECONDS);
+        mTasksPresenter.searchTasks("Title1");
+        scheduler.advanceTimeBy(TasksPresenter.SEARCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Then only the complete query is searched, and its results shown
+        verify(mTasksRepository, never()).searchTasks("T");
+        verify(mTasksRepository).searchTasks("Title1");
+        verify(mTasksView, times(2)).showTasks(mShowTasksCaptor.capture());
+        assertThat(mShowTasksCaptor.getValue(), is(TASKS.subList(0, 1)));
+    }
+
+    @Test
+    public void searchTasks_dropsTheSearchOfTheStaleQuery() {
+        // Given a search still running for a first query
+        TestScheduler scheduler = new TestScheduler();
+        mTasksPresenter = new TasksPresenter(
+                mTasksRepository, mTasksView, new DelayingSchedulerProvider(scheduler));
+        PublishSubject<List<Task>> staleResults = PublishSubject.create();
+        when(mTasksRepository.searchTasks("Title")).thenReturn(staleResults);
+        when(mTasksRepository.searchTasks("Title1"))
+                .thenReturn(Observable.just(TASKS.subList(0, 1)));
+        mTasksPresenter.subscribe();
+        mTasksPresenter.searchTasks("Title");
+        scheduler.advanceTimeBy(TasksPresenter.SEARCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+        // When another query is searched, then the first search ends
+        mTasksPresenter.searchTasks("Title1");
+        scheduler.advanceTimeBy(TasksPresenter.SEARCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        staleResults.onNext(TASKS);
+
+        // Then the first search is unsubscribed from and its results aren't shown
+        assertFalse(staleResults.hasObservers());
+        verify(mTasksView, times(2)).showTasks(mShowTasksCaptor.capture());
+        assertThat(mShowTasksCaptor.getValue(), is(TASKS.subList(0, 1)));
+    }
+
+    @Test
+    public void rolledBackTask_ShowsChangeRevertedAndPreviousState() {
+        // Given loaded tasks and a repository rolling back changes
+        PublishSubject<TaskRollback> rollbacks = PublishSubject.create();
+        when(mTasksRepository.getRollbacks()).thenReturn(rollbacks);
+        mTasksPresenter.subscribe();
+
+        // When the completion of a task is rolled back
+        Task completedTask = TASKS.get(1);
+        rollbacks.onNext(new TaskRollback(completedTask.getId(), false,
+                new IllegalStateException("Server unavailable")));
+
+        // Then the user is told, and the task is shown active again
+        verify(mTasksView).showTaskChangeReverted();
+        verify(mTasksView, times(2)).showTasks(mShowTasksCaptor.capture());
+        Task shownTask = mShowTasksCaptor.getValue().get(1);
+        assertThat(shownTask.getId(), is(completedTask.getId()));
+        assertTrue(shownTask.isActive());
+    }
+
+    private static List<Task> newTasks(int from, int count) {
+        List<Task> tasks = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            tasks.add(new Task("Title" + i, "Description" + i, String.valueOf(i), false));
+        }
+        return tasks;
+    }
+
+    private static String lastId(List<Task> tasks) {
+        return tasks.get(tasks.size() - 1).getId();
+    }
+
+    /**
+     * Runs everything immediately, except for the delays, which wait for the given scheduler.
+     */
+    private static class DelayingSchedulerProvider implements BaseSchedulerProvider {
+
+        private final Scheduler mDelayScheduler;
+
+        DelayingSchedulerProvider(Scheduler delayScheduler) {
+            mDelayScheduler = delayScheduler;
+        }
+
+        @NonNull
+        @Override
+        public Scheduler computation() {
+            return mDelayScheduler;
+        }
+
+        @NonNull
+        @Override
+        public Scheduler io() {
+            return Schedulers.immediate();
+        }
+
+        @NonNull
+        @Override
+        public Scheduler ui() {
+            return Schedulers.immediate();
+        }
+    }
 }